@@ -0,0 +1,164 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.dsp;
+
+import com.github.mrstampy.esp.multiconnectionsocket.MultiChannelSampleBuffer;
+
+/**
+ * Aggregates the windows of a {@link MultiChannelSampleBuffer} into a
+ * {@link SampleRing} per channel, sampleRate rows each, for
+ * {@link com.github.mrstampy.esp.dsp.lab.RawEspConnection#getCurrentFor(int)}
+ * implementations. Each {@link #sample()} takes one channel major snapshot of
+ * all channels, aligned at the same frame, into a reusable array and appends
+ * each channel's slice of it to that channel's ring; {@link #sample()} is lock
+ * free and is to be invoked by a single thread, any number of threads may read.
+ * Channel numbers start at 1, as for
+ * {@link com.github.mrstampy.esp.multiconnectionsocket.EspChannel#getChannelNumber()}.
+ *
+ * @author burton
+ * @see com.github.mrstampy.esp.dsp.lab.AbstractMultiChannelRawEspConnection
+ */
+public class MultiChannelSignalAggregator {
+
+	private final MultiChannelSampleBuffer<?> buffer;
+
+	private final SampleRing[] rings;
+
+	private final int sampleRate;
+
+	private double[] frames = new double[0];
+
+	/**
+	 * Instantiates a new multi channel signal aggregator.
+	 *
+	 * @param buffer the buffer to sample
+	 * @param sampleRate the number of samples retained per channel
+	 */
+	public MultiChannelSignalAggregator(MultiChannelSampleBuffer<?> buffer, int sampleRate) {
+		this.buffer = buffer;
+		this.sampleRate = sampleRate;
+
+		rings = new SampleRing[buffer.getNumChannels()];
+		for (int i = 0; i < rings.length; i++) {
+			rings[i] = new SampleRing(sampleRate);
+		}
+	}
+
+	/**
+	 * Appends the current window of each channel to its ring. To be invoked by a
+	 * single thread, typically once per sample period.
+	 */
+	public void sample() {
+		int size = rings.length * buffer.getBufferSize();
+		if (frames.length < size) frames = new double[size];
+
+		int n;
+		try {
+			n = buffer.getCurrent(frames);
+		} catch (IllegalArgumentException e) {
+			// buffer grown since sizing; sampled on the next invocation
+			return;
+		}
+
+		for (int i = 0; i < rings.length; i++) {
+			rings[i].add(frames, i * n, n);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of ~ sampleRate samples of the specified channel, each
+	 * the channel's window at the time of sampling.
+	 *
+	 * @param channelNumber the channel number, from 1
+	 * @return the current second of sampled data
+	 */
+	public double[][] getCurrentSecondOfSampledData(int channelNumber) {
+		return getRing(channelNumber).snapshot();
+	}
+
+	/**
+	 * Returns the requested number of samples of the specified channel, evenly
+	 * spaced over the current seconds' samples.
+	 *
+	 * @param numSamples the number of samples
+	 * @param channelNumber the channel number, from 1
+	 * @return the current second of sampled data
+	 */
+	public double[][] getCurrentSecondOfSampledData(int numSamples, int channelNumber) {
+		return getRing(channelNumber).snapshot(numSamples);
+	}
+
+	/**
+	 * Copies the current seconds' samples of the specified channel into the
+	 * array, reusing its rows, and returns the number of samples copied. An
+	 * array of {@link #getSampleRate()} rows always suffices.
+	 *
+	 * @param channelNumber the channel number, from 1
+	 * @param dest the destination array
+	 * @return the number of samples
+	 */
+	public int getCurrentSecondOfSampledData(int channelNumber, double[][] dest) {
+		return getRing(channelNumber).snapshot(dest);
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		for (SampleRing ring : rings) {
+			ring.clear();
+		}
+	}
+
+	/**
+	 * Gets the buffer.
+	 *
+	 * @return the buffer
+	 */
+	public MultiChannelSampleBuffer<?> getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Gets the num channels.
+	 *
+	 * @return the num channels
+	 */
+	public int getNumChannels() {
+		return rings.length;
+	}
+
+	/**
+	 * Gets the sample rate.
+	 *
+	 * @return the sample rate
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	private SampleRing getRing(int channelNumber) {
+		if (channelNumber < 1 || channelNumber > rings.length) {
+			throw new IllegalArgumentException("Channel number " + channelNumber + " not in 1 - " + rings.length);
+		}
+
+		return rings[channelNumber - 1];
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.dsp;
+
+/**
+ * Resamples arrays of a fixed input length to a fixed output length with a
+ * polyphase windowed sinc low pass filter, preventing frequencies above the
+ * output's Nyquist frequency from aliasing into the result as they do when
+ * samples are simply dropped.<br>
+ * <br>
+ * The ratio outputLength / inputLength is reduced to L / M; output sample j
+ * lies at input position j * M / L, which falls on one of L fractional
+ * phases. The filter taps for each phase are calculated once on construction,
+ * so resampling is a table driven multiply accumulate which allocates nothing.
+ * Instances are immutable and thread safe.
+ *
+ * @author burton
+ */
+public class PolyphaseResampler {
+
+	/** The default number of sinc zero crossings either side of centre. */
+	public static final int DEFAULT_ZERO_CROSSINGS = 8;
+
+	private final int inputLength;
+	private final int outputLength;
+
+	private final int upFactor;
+	private final int downFactor;
+
+	private final int numTaps;
+	private final int tapOffset;
+
+	private final double[][] phases;
+
+	/**
+	 * Instantiates a new polyphase resampler with the
+	 * {@link #DEFAULT_ZERO_CROSSINGS}.
+	 *
+	 * @param inputLength the input length
+	 * @param outputLength the output length
+	 */
+	public PolyphaseResampler(int inputLength, int outputLength) {
+		this(inputLength, outputLength, DEFAULT_ZERO_CROSSINGS);
+	}
+
+	/**
+	 * Instantiates a new polyphase resampler.
+	 *
+	 * @param inputLength the input length
+	 * @param outputLength the output length
+	 * @param zeroCrossings the number of sinc zero crossings either side of
+	 *          centre, higher values giving a steeper filter at the cost of more
+	 *          taps
+	 */
+	public PolyphaseResampler(int inputLength, int outputLength, int zeroCrossings) {
+		if (inputLength < 1 || outputLength < 1) {
+			throw new IllegalArgumentException("Lengths must be > 0: " + inputLength + ", " + outputLength);
+		}
+		if (zeroCrossings < 1) throw new IllegalArgumentException("Zero crossings must be > 0: " + zeroCrossings);
+
+		this.inputLength = inputLength;
+		this.outputLength = outputLength;
+
+		int gcd = gcd(inputLength, outputLength);
+		upFactor = outputLength / gcd;
+		downFactor = inputLength / gcd;
+
+		// the low pass cutoff as a fraction of the input Nyquist frequency
+		double cutoff = Math.min(1.0, (double) outputLength / inputLength);
+		double halfWidth = zeroCrossings / cutoff;
+
+		numTaps = 2 * (int) Math.ceil(halfWidth);
+		tapOffset = numTaps / 2 - 1;
+
+		phases = new double[upFactor][];
+		for (int p = 0; p < upFactor; p++) {
+			phases[p] = createPhase((double) p / upFactor, cutoff, halfWidth);
+		}
+	}
+
+	/**
+	 * Resamples {@link #getInputLength()} values of the input into
+	 * {@link #getOutputLength()} values of the output. Input values beyond
+	 * either end are taken to be the end values.
+	 *
+	 * @param input the input
+	 * @param output the output
+	 */
+	public void resample(double[] input, double[] output) {
+		int last = inputLength - 1;
+
+		for (int j = 0; j < outputLength; j++) {
+			long pos = (long) j * downFactor;
+			int base = (int) (pos / upFactor);
+			double[] taps = phases[(int) (pos % upFactor)];
+
+			int start = base - tapOffset;
+			double sum = 0;
+			if (start >= 0 && start + numTaps <= inputLength) {
+				for (int k = 0; k < numTaps; k++) {
+					sum += taps[k] * input[start + k];
+				}
+			} else {
+				for (int k = 0; k < numTaps; k++) {
+					int idx = start + k;
+					sum += taps[k] * input[idx < 0 ? 0 : idx > last ? last : idx];
+				}
+			}
+
+			output[j] = sum;
+		}
+	}
+
+	/**
+	 * Returns true if this resampler converts the specified lengths.
+	 *
+	 * @param inputLength the input length
+	 * @param outputLength the output length
+	 * @return true, if successful
+	 */
+	public boolean isFor(int inputLength, int outputLength) {
+		return this.inputLength == inputLength && this.outputLength == outputLength;
+	}
+
+	/**
+	 * Gets the input length.
+	 *
+	 * @return the input length
+	 */
+	public int getInputLength() {
+		return inputLength;
+	}
+
+	/**
+	 * Gets the output length.
+	 *
+	 * @return the output length
+	 */
+	public int getOutputLength() {
+		return outputLength;
+	}
+
+	/**
+	 * Returns the number of filter taps per output value.
+	 *
+	 * @return the num taps
+	 */
+	public int getNumTaps() {
+		return numTaps;
+	}
+
+	/*
+	 * Taps for output positions frac of a sample past the base input index,
+	 * Blackman windowed and normalized to unity gain.
+	 */
+	private double[] createPhase(double frac, double cutoff, double halfWidth) {
+		double[] taps = new double[numTaps];
+
+		double sum = 0;
+		for (int k = 0; k < numTaps; k++) {
+			double t = k - tapOffset - frac;
+			double x = cutoff * t;
+			double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+
+			double w = 0;
+			if (Math.abs(t) < halfWidth) {
+				double n = (t + halfWidth) / (2 * halfWidth);
+				w = 0.42 - 0.5 * Math.cos(2 * Math.PI * n) + 0.08 * Math.cos(4 * Math.PI * n);
+			}
+
+			taps[k] = cutoff * sinc * w;
+			sum += taps[k];
+		}
+
+		for (int k = 0; k < numTaps; k++) {
+			taps[k] /= sum;
+		}
+
+		return taps;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+
+		return a;
+	}
+
+}
@@ -18,24 +18,23 @@
  */
 package com.github.mrstampy.esp.dsp;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
 
-import rx.Observable;
-import rx.functions.Action1;
-
 // TODO: Auto-generated Javadoc
 /**
  * Abstract superclass for aggregating raw signal arrays (ultimately for FFT'ing).
+ * Samples are copied into a preallocated {@link SampleRing} of sampleRate rows;
+ * {@link #addSample(double...)} is lock free and is to be invoked by a single
+ * thread.
  * 
  * @author burton
  *
  */
 public abstract class RawSignalAggregator {
 
-	/** The queue. */
-	protected ArrayBlockingQueue<double[]> queue;
+	/** The ring. */
+	protected final SampleRing ring;
 
 	private final int sampleRate;
 
@@ -45,32 +44,24 @@ public abstract class RawSignalAggregator {
 	 * @param sampleRate the sample rate
 	 */
 	protected RawSignalAggregator(int sampleRate) {
-		queue = new ArrayBlockingQueue<double[]>(sampleRate);
+		ring = new SampleRing(sampleRate);
 		this.sampleRate = sampleRate;
 	}
 
 	/**
-	 * Adds the sample.
+	 * Adds a copy of the sample, allowing the caller to reuse the array.
 	 *
 	 * @param sample the sample
 	 */
 	public void addSample(double... sample) {
-		Observable.just(sample).subscribe(new Action1<double[]>() {
-
-			@Override
-			public void call(double[] t1) {
-				if (queue.remainingCapacity() == 0) queue.remove();
-				
-				queue.add(t1);
-			}
-		});
+		ring.add(sample);
 	}
 
 	/**
 	 * Clear.
 	 */
 	public void clear() {
-		queue.clear();
+		ring.clear();
 	}
 
 	/**
@@ -81,7 +72,20 @@ public abstract class RawSignalAggregator {
 	 * @see EspSignalUtilities
 	 */
 	public double[][] getCurrentSecondOfSampledData() {
-		return queue.toArray(new double[0][]);
+		return ring.snapshot();
+	}
+
+	/**
+	 * Copies the current seconds' samples into the specified array, reusing its
+	 * rows, and returns the number of samples copied. An array of
+	 * {@link #getSampleRate()} rows always suffices.
+	 *
+	 * @param dest the destination array
+	 * @return the number of samples
+	 * @see SampleRing#snapshot(double[][])
+	 */
+	public int getCurrentSecondOfSampledData(double[][] dest) {
+		return ring.snapshot(dest);
 	}
 
 	/**
@@ -95,27 +99,45 @@ public abstract class RawSignalAggregator {
 	 * @see EspSignalUtilities
 	 */
 	public double[][] getCurrentSecondOfSampledData(int numSamples) {
-		double[][] oneSecond = getCurrentSecondOfSampledData();
-
-		return processOneSecondOfData(oneSecond, numSamples);
+		return ring.snapshot(numSamples);
 	}
 
-	private double[][] processOneSecondOfData(double[][] oneSecond, int numSamples) {
-		assert numSamples > 0 && numSamples < oneSecond.length;
-
-		BigDecimal interval = new BigDecimal(sampleRate).divide(new BigDecimal(numSamples), 5, RoundingMode.HALF_UP);
-
-		double erval = interval.doubleValue();
-
-		double[][] processed = new double[numSamples][];
+	/**
+	 * Copies the requested number of samples, evenly spaced over the current
+	 * seconds' samples, into the specified array reusing its rows, and returns
+	 * the number of samples copied.
+	 *
+	 * @param numSamples the number of samples
+	 * @param dest the destination array, at least numSamples in length
+	 * @return the number of samples
+	 * @see SampleRing#snapshot(int, double[][])
+	 */
+	public int getCurrentSecondOfSampledData(int numSamples, double[][] dest) {
+		return ring.snapshot(numSamples, dest);
+	}
 
-		int j = 0;
-		for (double i = 0; i < oneSecond.length; i += erval) {
-			processed[j] = oneSecond[(int) i];
-			j++;
-		}
+	/**
+	 * Returns a copy of the current seconds' samples, oldest first, in a queue
+	 * of {@link #getSampleRate()} capacity. Samples were formerly held in the
+	 * protected queue field, replaced by the {@link #ring}; changes to the
+	 * returned queue are not reflected in this aggregator.
+	 *
+	 * @return the queue
+	 * @deprecated use {@link #getCurrentSecondOfSampledData()} or the
+	 *             {@link #ring}
+	 */
+	@Deprecated
+	protected ArrayBlockingQueue<double[]> getQueue() {
+		return new ArrayBlockingQueue<double[]>(sampleRate, false, Arrays.asList(getCurrentSecondOfSampledData()));
+	}
 
-		return processed;
+	/**
+	 * Gets the sample rate.
+	 *
+	 * @return the sample rate
+	 */
+	public int getSampleRate() {
+		return sampleRate;
 	}
 
 }
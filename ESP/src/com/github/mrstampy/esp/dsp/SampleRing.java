@@ -0,0 +1,253 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.dsp;
+
+import com.github.mrstampy.esp.util.Fences;
+
+/**
+ * A fixed capacity circular buffer of the most recent rows of samples, each
+ * row copied into a preallocated primitive array which is reused as the ring
+ * wraps (reallocated only should the row length change). Appends are lock free
+ * but must be made by a single thread; any number of threads may read, a
+ * sequence lock (the version, odd whilst a row is being written, with
+ * {@link Fences} ordering the rows around it) ensuring each read is
+ * consistent. {@link #clear()} may be invoked from any thread.
+ *
+ * @author burton
+ * @see RawSignalAggregator
+ */
+public class SampleRing {
+
+	private final double[][] rows;
+
+	private volatile long version;
+
+	private volatile long written;
+
+	private volatile long floor;
+
+	/**
+	 * Instantiates a new sample ring.
+	 *
+	 * @param capacity the number of rows retained
+	 */
+	public SampleRing(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+
+		rows = new double[capacity][];
+	}
+
+	/**
+	 * Appends a copy of the row, overwriting the oldest row once full. To be
+	 * invoked by a single thread.
+	 *
+	 * @param row the row
+	 */
+	public void add(double[] row) {
+		add(row, 0, row.length);
+	}
+
+	/**
+	 * Appends a copy of the specified range as a row. To be invoked by a single
+	 * thread.
+	 *
+	 * @param src the source array
+	 * @param off the offset into the source array
+	 * @param len the row length
+	 */
+	public void add(double[] src, int off, int len) {
+		long w = written;
+		int pos = (int) (w % rows.length);
+
+		version++;
+		Fences.storeFence();
+
+		double[] row = rows[pos];
+		if (row == null || row.length != len) {
+			row = new double[len];
+			rows[pos] = row;
+		}
+
+		System.arraycopy(src, off, row, 0, len);
+		written = w + 1;
+
+		version++;
+	}
+
+	/**
+	 * Returns a copy of the rows, oldest first, in an array of {@link #size()}
+	 * rows; sized and copied within the one consistent read.
+	 *
+	 * @return the rows
+	 */
+	public double[][] snapshot() {
+		return snapshotRows(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a copy of numRows rows evenly spaced over the current rows, oldest
+	 * first, in an array of as many rows as were available up to numRows; sized
+	 * and copied within the one consistent read.
+	 *
+	 * @param numRows the number of rows
+	 * @return the rows
+	 * @see #snapshot(int, double[][])
+	 */
+	public double[][] snapshot(int numRows) {
+		if (numRows < 1) throw new IllegalArgumentException("Number of rows must be > 0: " + numRows);
+
+		return snapshotRows(numRows);
+	}
+
+	/**
+	 * Copies the rows, oldest first, into the specified array, returning the
+	 * number of rows copied. Rows of dest which are null or of a different
+	 * length to the source row are replaced; in the steady state nothing is
+	 * allocated. dest must be at least {@link #size()} in length, a length of
+	 * {@link #capacity()} always sufficing.
+	 *
+	 * @param dest the destination array
+	 * @return the number of rows copied
+	 */
+	public int snapshot(double[][] dest) {
+		for (;;) {
+			long v = awaitStableVersion();
+
+			long w = written;
+			int n = count(w);
+			if (dest.length < n) {
+				if (!validate(v)) continue;
+				throw new IllegalArgumentException("Destination length " + dest.length + " < size " + n);
+			}
+
+			long start = w - n;
+			for (int i = 0; i < n; i++) {
+				copyRow(start + i, dest, i);
+			}
+
+			if (validate(v)) return n;
+		}
+	}
+
+	/**
+	 * Copies numRows rows evenly spaced over the current rows, oldest first,
+	 * into the specified array, returning the number of rows copied. Should
+	 * fewer than numRows rows be available all are copied.
+	 *
+	 * @param numRows the number of rows
+	 * @param dest the destination array, at least numRows in length
+	 * @return the number of rows copied
+	 */
+	public int snapshot(int numRows, double[][] dest) {
+		if (numRows < 1) throw new IllegalArgumentException("Number of rows must be > 0: " + numRows);
+		if (dest.length < numRows) throw new IllegalArgumentException("Destination length " + dest.length + " < " + numRows);
+
+		for (;;) {
+			long v = awaitStableVersion();
+
+			long w = written;
+			int n = count(w);
+			int num = Math.min(n, numRows);
+
+			long start = w - n;
+			for (int i = 0; i < num; i++) {
+				copyRow(start + (long) i * n / num, dest, i);
+			}
+
+			if (validate(v)) return num;
+		}
+	}
+
+	/**
+	 * Returns the number of rows currently held.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return count(written);
+	}
+
+	/**
+	 * Returns the maximum number of rows held.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return rows.length;
+	}
+
+	/**
+	 * Discards the current rows. May be invoked from any thread.
+	 */
+	public void clear() {
+		floor = written;
+	}
+
+	private double[][] snapshotRows(int numRows) {
+		double[][] dest = null;
+		for (;;) {
+			long v = awaitStableVersion();
+
+			long w = written;
+			int n = count(w);
+			int num = Math.min(n, numRows);
+			if (dest == null || dest.length != num) dest = new double[num][];
+
+			long start = w - n;
+			for (int i = 0; i < num; i++) {
+				copyRow(start + (long) i * n / num, dest, i);
+			}
+
+			if (validate(v)) return dest;
+		}
+	}
+
+	private int count(long w) {
+		return (int) Math.min(rows.length, w - Math.min(w, floor));
+	}
+
+	private void copyRow(long index, double[][] dest, int i) {
+		double[] row = rows[(int) (index % rows.length)];
+		if (row == null) return;
+
+		double[] d = dest[i];
+		if (d == null || d.length != row.length) {
+			d = new double[row.length];
+			dest[i] = d;
+		}
+
+		System.arraycopy(row, 0, d, 0, row.length);
+	}
+
+	private boolean validate(long v) {
+		Fences.loadFence();
+		return v == version;
+	}
+
+	private long awaitStableVersion() {
+		long v = version;
+		while ((v & 1) != 0) {
+			Thread.yield();
+			v = version;
+		}
+
+		return v;
+	}
+
+}
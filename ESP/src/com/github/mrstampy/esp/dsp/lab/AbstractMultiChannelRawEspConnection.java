@@ -0,0 +1,89 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.dsp.lab;
+
+import com.github.mrstampy.esp.dsp.MultiChannelSignalAggregator;
+import com.github.mrstampy.esp.multiconnectionsocket.MultiChannelSampleBuffer;
+import com.github.mrstampy.esp.multiconnectionsocket.MultiConnectionSocket;
+
+/**
+ * Abstract implementation for devices whose samples are held in a
+ * {@link MultiChannelSampleBuffer}. The current seconds' samples of each
+ * channel are obtained from a {@link MultiChannelSignalAggregator}, which
+ * samples the buffer's channel major windows; implementations are to invoke
+ * {@link MultiChannelSignalAggregator#sample()} once per sample period.
+ * {@link #getCurrent()} and {@link #getCurrent(int)} return the samples of the
+ * first channel, as for single channel devices. Channel numbers start at 1.
+ *
+ * @author burton
+ * @param <SOCKET>
+ *          the generic type
+ */
+public abstract class AbstractMultiChannelRawEspConnection<SOCKET extends MultiConnectionSocket> extends
+		AbstractRawEspConnection<SOCKET> {
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.esp.dsp.lab.RawEspConnection#getCurrent()
+	 */
+	@Override
+	public double[][] getCurrent() {
+		return getCurrentFor(1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.esp.dsp.lab.RawEspConnection#getCurrent(int)
+	 */
+	@Override
+	public double[][] getCurrent(int numSamples) {
+		return getCurrentFor(numSamples, 1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.esp.dsp.lab.RawEspConnection#getCurrentFor(int)
+	 */
+	@Override
+	public double[][] getCurrentFor(int channelNumber) {
+		return getAggregator().getCurrentSecondOfSampledData(channelNumber);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.mrstampy.esp.dsp.lab.RawEspConnection#getCurrentFor(int,
+	 * int)
+	 */
+	@Override
+	public double[][] getCurrentFor(int numSamples, int channelNumber) {
+		return getAggregator().getCurrentSecondOfSampledData(numSamples, channelNumber);
+	}
+
+	/**
+	 * Gets the aggregator of the {@link MultiChannelSampleBuffer}.
+	 *
+	 * @return the aggregator
+	 */
+	public abstract MultiChannelSignalAggregator getAggregator();
+
+}
@@ -21,12 +21,17 @@ package com.github.mrstampy.esp.multiconnectionsocket;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javolution.util.FastList;
 
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.service.IoHandler;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
 import org.apache.mina.filter.logging.LoggingFilter;
@@ -36,10 +41,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.mrstampy.esp.multiconnectionsocket.ConnectionEvent.State;
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.OverflowPolicy;
+import com.github.mrstampy.esp.multiconnectionsocket.codec.BinaryEventCodecFactory;
 import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
 import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.EventHandlerGroup;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -57,8 +66,12 @@ import com.lmax.disruptor.dsl.Disruptor;
 public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiConnectionSocket {
 	private static final Logger log = LoggerFactory.getLogger(AbstractMultiConnectionSocket.class);
 
+	private static final long HELD_PUBLISH_MILLIS = 1;
+
 	private NioSocketAcceptor socketBroadcaster;
 
+	private ProtocolCodecFactory codecFactory;
+
 	private List<ConnectionEventListener> connectionListeners = new FastList<ConnectionEventListener>();
 
 	private final boolean broadcasting;
@@ -67,18 +80,58 @@ public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiCon
 
 	private Disruptor<MessageEvent<MESSAGE>> disruptor;
 
+	private ExecutorService executor;
+
+	private List<AbstractProcessingStage<MESSAGE>> processingStages = new FastList<AbstractProcessingStage<MESSAGE>>();
+
 	private RingBuffer<MessageEvent<MESSAGE>> rb;
+
+	private final IngestConfiguration ingestConfiguration;
+
+	private volatile long dropBefore = -1;
+
+	private volatile long processing = -1;
+
+	private OverflowPolicy overflowPolicy;
+
+	private final Object claimLock = new Object();
+
+	private MessageEvent<MESSAGE>[] held;
+
+	private int heldHead;
+
+	private volatile int heldCount;
+
+	private ScheduledExecutorService heldPublisher;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
 	
 	private int numChannels;
 
 	/**
-	 * Instantiates a new abstract multi connection socket.
+	 * Instantiates a new abstract multi connection socket with the default
+	 * {@link IngestConfiguration}.
 	 *
 	 * @param broadcasting the broadcasting
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	protected AbstractMultiConnectionSocket(boolean broadcasting) throws IOException {
+		this(broadcasting, new IngestConfiguration());
+	}
+
+	/**
+	 * Instantiates a new abstract multi connection socket.
+	 *
+	 * @param broadcasting the broadcasting
+	 * @param ingestConfiguration the Disruptor topology used to process device messages
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	protected AbstractMultiConnectionSocket(boolean broadcasting, IngestConfiguration ingestConfiguration)
+			throws IOException {
 		this.broadcasting = broadcasting;
+		this.ingestConfiguration = ingestConfiguration == null ? new IngestConfiguration() : ingestConfiguration;
 		initMessageEventHandler();
 
 		if (broadcasting) initBroadCaster();
@@ -94,16 +147,17 @@ public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiCon
 			return;
 		}
 
-		log.info("Starting AbstractMultiConnectionSocket {}", getClass());
+		log.info("Starting AbstractMultiConnectionSocket {} with {}", getClass(), ingestConfiguration);
 
 		initDisruptor();
 		rb = disruptor.start();
+		initOverflow();
 
 		try {
 			startImpl();
 			notifyConnectionEventListeners(State.STARTED);
 		} catch (MultiConnectionSocketException e) {
-			disruptor.shutdown();
+			shutdownDisruptor();
 			throw e;
 		}
 
@@ -131,7 +185,7 @@ public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiCon
 
 		log.info("Stopping AbstractMultiConnectionSocket {}", getClass());
 
-		disruptor.shutdown();
+		shutdownDisruptor();
 		stopImpl();
 
 		log.info("AbstractMultiConnectionSocket stopped");
@@ -255,7 +309,8 @@ public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiCon
 		MdcInjectionFilter mdcInjectionFilter = new MdcInjectionFilter();
 		chain.addLast("mdc", mdcInjectionFilter);
 		if (log.isDebugEnabled()) chain.addLast("logger", new LoggingFilter());
-		chain.addLast("codec", new ProtocolCodecFilter(new ObjectSerializationCodecFactory()));
+		codecFactory = createCodecFactory();
+		chain.addLast("codec", new ProtocolCodecFilter(codecFactory));
 
 		socketBroadcaster.setHandler(getHandlerAdapter());
 		socketBroadcaster.setReuseAddress(true);
@@ -263,6 +318,29 @@ public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiCon
 		bindBroadcaster();
 	}
 
+	/**
+	 * Creates the codec factory used to write events to subscribers. Defaults to
+	 * Java serialization via MINA's {@link ObjectSerializationCodecFactory};
+	 * override to return a {@link BinaryEventCodecFactory} with codecs
+	 * registered for high rate events. Remote {@link AbstractSocketConnector}s
+	 * must use an equivalent factory.
+	 *
+	 * @return the protocol codec factory
+	 */
+	protected ProtocolCodecFactory createCodecFactory() {
+		return new ObjectSerializationCodecFactory();
+	}
+
+	/**
+	 * Returns the codec factory of the broadcaster, null if not broadcasting.
+	 *
+	 * @return the codec factory
+	 * @see AbstractSubscriptionHandlerAdapter#sendMultiConnectionEvent(AbstractMultiConnectionEvent)
+	 */
+	public ProtocolCodecFactory getCodecFactory() {
+		return codecFactory;
+	}
+
 	/**
 	 * Gets the handler adapter.
 	 *
@@ -285,12 +363,407 @@ public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiCon
 		rb.publish(seq);
 	}
 
+	/**
+	 * Publishes a packet of messages, claiming a contiguous range of the ring
+	 * buffer and publishing the range once rather than paying a claim and
+	 * publish per message. Packets larger than the ring buffer are published in
+	 * ring buffer sized batches.
+	 *
+	 * @param messages the messages
+	 * @param off the offset into the messages
+	 * @param len the number of messages to publish
+	 * @see AbstractMultiConnectionSocket#publishMessage(Object)
+	 */
+	protected void publishMessages(MESSAGE[] messages, int off, int len) {
+		int batchSize = rb.getBufferSize();
+		while (len > 0) {
+			int n = Math.min(len, batchSize);
+
+			long hi = rb.next(n);
+			long lo = hi - (n - 1);
+			for (long seq = lo; seq <= hi; seq++) {
+				rb.get(seq).setMessage(messages[off++]);
+			}
+			rb.publish(lo, hi);
+
+			len -= n;
+		}
+	}
+
+	/**
+	 * Publishes a packet of sample frames, each of frameLength samples laid out
+	 * contiguously in the source array, claiming a contiguous range of the ring
+	 * buffer with one slot per frame and publishing the range once. Requires an
+	 * {@link IngestConfiguration#getSampleCapacity()} >= frameLength.
+	 *
+	 * @param channel the channel number, 0 if not channel specific
+	 * @param src the source array, may be reused by the caller on return
+	 * @param off the offset of the first frame in the source array
+	 * @param frameLength the number of samples per frame
+	 * @param numFrames the number of frames
+	 * @param timestampNanos the {@link System#nanoTime()} the frames were read
+	 * @see AbstractMultiConnectionSocket#parseSamples(MessageEvent)
+	 */
+	protected void publishSampleFrames(int channel, double[] src, int off, int frameLength, int numFrames,
+			long timestampNanos) {
+		if (frameLength <= 0) return;
+		checkSampleCapacity(frameLength);
+
+		int batchSize = rb.getBufferSize();
+		while (numFrames > 0) {
+			int n = Math.min(numFrames, batchSize);
+
+			long hi = rb.next(n);
+			long lo = hi - (n - 1);
+			for (long seq = lo; seq <= hi; seq++) {
+				rb.get(seq).setSamples(channel, src, off, frameLength, timestampNanos);
+				off += frameLength;
+			}
+			rb.publish(lo, hi);
+
+			numFrames -= n;
+		}
+	}
+
+	/**
+	 * Raw samples from the device are passed to this method which copies them
+	 * into the preallocated array of the next ring buffer slot, allocating
+	 * nothing. Requires an {@link IngestConfiguration#getSampleCapacity()} >=
+	 * len.
+	 *
+	 * @param src the source array, may be reused by the caller on return
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 * @param timestampNanos the {@link System#nanoTime()} the samples were read
+	 * @see AbstractMultiConnectionSocket#parseSamples(MessageEvent)
+	 */
+	protected void publishSamples(double[] src, int off, int len, long timestampNanos) {
+		publishSamples(0, src, off, len, timestampNanos);
+	}
+
+	/**
+	 * Raw samples for the specified channel are passed to this method which
+	 * copies them into the preallocated array of the next ring buffer slot,
+	 * allocating nothing. Requires an
+	 * {@link IngestConfiguration#getSampleCapacity()} >= len.
+	 *
+	 * @param channel the channel number, 0 if not channel specific
+	 * @param src the source array, may be reused by the caller on return
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 * @param timestampNanos the {@link System#nanoTime()} the samples were read
+	 * @see AbstractMultiConnectionSocket#parseSamples(MessageEvent)
+	 */
+	protected void publishSamples(int channel, double[] src, int off, int len, long timestampNanos) {
+		if (len <= 0) return;
+		checkSampleCapacity(len);
+
+		long seq = rb.next();
+		rb.get(seq).setSamples(channel, src, off, len, timestampNanos);
+		rb.publish(seq);
+	}
+
+	/**
+	 * Publishes the message if the ring buffer has capacity, else applies the
+	 * {@link IngestConfiguration#getOverflowPolicy()}. Use in lieu of
+	 * {@link #publishMessage(Object)} should blocking the device reading thread
+	 * be unacceptable. Returns true if the message was published, false if it
+	 * was dropped or held for publishing once capacity is available. With a
+	 * policy other than {@link OverflowPolicy#BLOCK} publish only with the try
+	 * methods, as held messages are published under the same lock.
+	 *
+	 * @param message the message
+	 * @return true, if published
+	 * @see #getDroppedCount()
+	 * @see #getCoalescedCount()
+	 */
+	protected boolean tryPublishMessage(MESSAGE message) {
+		if (overflowPolicy == OverflowPolicy.BLOCK) {
+			publishMessage(message);
+			return true;
+		}
+
+		synchronized (claimLock) {
+			long seq = tryClaim();
+			if (seq < 0) {
+				MessageEvent<MESSAGE> slot = hold();
+				if (slot != null) slot.setMessage(message);
+
+				return false;
+			}
+
+			rb.get(seq).setMessage(message);
+			rb.publish(seq);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Publishes the samples if the ring buffer has capacity, else applies the
+	 * {@link IngestConfiguration#getOverflowPolicy()}. Use in lieu of
+	 * {@link #publishSamples(int, double[], int, int, long)} should blocking the
+	 * device reading thread be unacceptable. Returns true if the samples were
+	 * published, false if they were dropped or held for publishing once capacity
+	 * is available.
+	 *
+	 * @param channel the channel number, 0 if not channel specific
+	 * @param src the source array, may be reused by the caller on return
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 * @param timestampNanos the {@link System#nanoTime()} the samples were read
+	 * @return true, if published
+	 * @see #getDroppedCount()
+	 * @see #getCoalescedCount()
+	 */
+	protected boolean tryPublishSamples(int channel, double[] src, int off, int len, long timestampNanos) {
+		if (len <= 0) return true;
+		if (overflowPolicy == OverflowPolicy.BLOCK) {
+			publishSamples(channel, src, off, len, timestampNanos);
+			return true;
+		}
+
+		checkSampleCapacity(len);
+
+		synchronized (claimLock) {
+			long seq = tryClaim();
+			if (seq < 0) {
+				MessageEvent<MESSAGE> slot = hold();
+				if (slot != null) slot.setSamples(channel, src, off, len, timestampNanos);
+
+				return false;
+			}
+
+			rb.get(seq).setSamples(channel, src, off, len, timestampNanos);
+			rb.publish(seq);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of messages dropped by the
+	 * {@link OverflowPolicy#DROP_NEWEST} and {@link OverflowPolicy#DROP_OLDEST}
+	 * policies.
+	 *
+	 * @return the dropped count
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of pending messages replaced by the
+	 * {@link OverflowPolicy#COALESCE} policy.
+	 *
+	 * @return the coalesced count
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Resets the dropped and coalesced counts.
+	 */
+	public void resetOverflowCounts() {
+		droppedCount.set(0);
+		coalescedCount.set(0);
+	}
+
+	/*
+	 * Returns the claimed sequence, or -1 should the ring buffer be full. For
+	 * DROP_OLDEST each failure marks exactly one more of the oldest messages as
+	 * dropped, the handler skipping it, so capacity returns as soon as the
+	 * handler catches up. Invoke holding the claim lock.
+	 */
+	private long tryClaim() {
+		if (heldCount > 0 && !publishHeld()) {
+			if (overflowPolicy == OverflowPolicy.DROP_OLDEST) skipOldest();
+			return -1;
+		}
+
+		try {
+			return rb.tryNext();
+		} catch (InsufficientCapacityException e) {
+			if (overflowPolicy != OverflowPolicy.DROP_OLDEST) return -1;
+		}
+
+		skipOldest();
+
+		try {
+			return rb.tryNext();
+		} catch (InsufficientCapacityException e) {
+			return -1;
+		}
+	}
+
+	private void skipOldest() {
+		long next = Math.max(dropBefore, processing) + 1;
+		if (next > rb.getCursor()) return;
+
+		dropBefore = next;
+		log.trace("Dropping message for sequence {}", next);
+	}
+
+	/*
+	 * Returns the slot to hold a message which could not be published, null if
+	 * the message is to be dropped. Invoke holding the claim lock.
+	 */
+	private MessageEvent<MESSAGE> hold() {
+		if (held.length == 0) {
+			droppedCount.incrementAndGet();
+			return null;
+		}
+
+		if (heldCount == held.length) {
+			if (overflowPolicy == OverflowPolicy.COALESCE) {
+				coalescedCount.incrementAndGet();
+			} else {
+				droppedCount.incrementAndGet();
+			}
+			heldHead = (heldHead + 1) % held.length;
+			heldCount--;
+		}
+
+		MessageEvent<MESSAGE> slot = held[(heldHead + heldCount) % held.length];
+		heldCount++;
+
+		return slot;
+	}
+
+	/*
+	 * Publishes held messages oldest first, returning true if none remain.
+	 * Invoke holding the claim lock.
+	 */
+	private boolean publishHeld() {
+		while (heldCount > 0) {
+			long seq;
+			try {
+				seq = rb.tryNext();
+			} catch (InsufficientCapacityException e) {
+				return false;
+			}
+
+			MessageEvent<MESSAGE> slot = held[heldHead];
+			rb.get(seq).copyFrom(slot);
+			rb.publish(seq);
+			slot.setMessage(null);
+
+			heldHead = (heldHead + 1) % held.length;
+			heldCount--;
+		}
+
+		return true;
+	}
+
+	/*
+	 * COALESCE holds one message, DROP_OLDEST up to a ring's worth as the oldest
+	 * are skipped. Held messages are published ahead of the next, and
+	 * periodically so the last message before the device goes quiet is not left
+	 * behind.
+	 */
+	@SuppressWarnings("unchecked")
+	private void initOverflow() {
+		dropBefore = -1;
+		processing = -1;
+		overflowPolicy = ingestConfiguration.getOverflowPolicy();
+
+		int size = 0;
+		switch (overflowPolicy) {
+		case COALESCE:
+			size = 1;
+			break;
+		case DROP_OLDEST:
+			size = rb.getBufferSize();
+			break;
+		default:
+			break;
+		}
+
+		held = (MessageEvent<MESSAGE>[]) new MessageEvent<?>[size];
+		for (int i = 0; i < size; i++) {
+			held[i] = new MessageEvent<MESSAGE>(ingestConfiguration.getSampleCapacity());
+		}
+		heldHead = 0;
+		heldCount = 0;
+
+		if (size == 0) return;
+
+		heldPublisher = Executors.newSingleThreadScheduledExecutor(ingestConfiguration.createThreadFactory());
+		heldPublisher.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				if (heldCount == 0) return;
+
+				synchronized (claimLock) {
+					publishHeld();
+				}
+			}
+		}, HELD_PUBLISH_MILLIS, HELD_PUBLISH_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void checkSampleCapacity(int len) {
+		if (len > ingestConfiguration.getSampleCapacity()) {
+			throw new IllegalArgumentException("Sample length " + len + " exceeds configured sample capacity "
+					+ ingestConfiguration.getSampleCapacity());
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private void initDisruptor() {
-		disruptor = new Disruptor<MessageEvent<MESSAGE>>(new MessageEventFactory<MESSAGE>(), 16,
-				Executors.newCachedThreadPool());
+		executor = ingestConfiguration.createExecutor();
+		disruptor = ingestConfiguration.createDisruptor(
+				new MessageEventFactory<MESSAGE>(ingestConfiguration.getSampleCapacity()), executor);
+
+		EventHandlerGroup<MessageEvent<MESSAGE>> decode = disruptor.handleEventsWith(messageEventHandler);
+
+		if (!processingStages.isEmpty()) {
+			EventHandler<MessageEvent<MESSAGE>>[] stages = (EventHandler<MessageEvent<MESSAGE>>[]) new EventHandler<?>[processingStages
+					.size()];
+			decode.then(processingStages.toArray(stages));
+		}
+	}
 
-		disruptor.handleEventsWith(messageEventHandler);
+	/**
+	 * Adds a processing stage which will receive each message after
+	 * {@link #decode(MessageEvent)}, in parallel with all other processing
+	 * stages on the same ring buffer. Stages added take effect on the next
+	 * {@link #start()}.
+	 *
+	 * @param stage the stage
+	 * @see AbstractProcessingStage
+	 */
+	public void addProcessingStage(AbstractProcessingStage<MESSAGE> stage) {
+		if (stage == null || processingStages.contains(stage)) return;
+
+		processingStages.add(stage);
+	}
+
+	/**
+	 * Removes the processing stage, taking effect on the next {@link #start()}.
+	 *
+	 * @param stage the stage
+	 */
+	public void removeProcessingStage(AbstractProcessingStage<MESSAGE> stage) {
+		processingStages.remove(stage);
+	}
+
+	private void shutdownDisruptor() {
+		if (heldPublisher != null) heldPublisher.shutdownNow();
+		heldPublisher = null;
+
+		disruptor.shutdown();
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the Disruptor topology used to process device messages.
+	 *
+	 * @return the ingest configuration
+	 */
+	public IngestConfiguration getIngestConfiguration() {
+		return ingestConfiguration;
 	}
 
 	private void initMessageEventHandler() {
@@ -298,11 +771,53 @@ public abstract class AbstractMultiConnectionSocket<MESSAGE> implements MultiCon
 
 			@Override
 			public void onEvent(final MessageEvent<MESSAGE> event, long sequence, boolean endOfBatch) throws Exception {
-				parseMessage(event.getMessage());
+				event.setDecoded(null);
+				if (overflowPolicy == OverflowPolicy.DROP_OLDEST) processing = sequence;
+				event.setDropped(sequence <= dropBefore);
+
+				if (event.isDropped()) {
+					droppedCount.incrementAndGet();
+				} else {
+					decode(event);
+				}
 			}
 		};
 	}
 
+	/**
+	 * The first stage of message processing, invoked via Disruptor's onEvent
+	 * processing. The default implementation passes the message to
+	 * {@link #parseMessage(Object)} or the samples to
+	 * {@link #parseSamples(MessageEvent)}.<br>
+	 * <br>
+	 * Subclasses using {@link AbstractProcessingStage}s override to decode the
+	 * message and store the result with {@link MessageEvent#setDecoded(Object)},
+	 * leaving buffering, broadcasting and any other work to stages which then
+	 * run in parallel.
+	 *
+	 * @param event the event
+	 * @see #addProcessingStage(AbstractProcessingStage)
+	 */
+	protected void decode(MessageEvent<MESSAGE> event) {
+		if (event.hasSamples()) {
+			parseSamples(event);
+		} else {
+			parseMessage(event.getMessage());
+		}
+	}
+
+	/**
+	 * Invoked via Disruptor's onEvent processing for samples published with
+	 * {@link #publishSamples(int, double[], int, int, long)}. The event's sample
+	 * array is reused, any samples required after returning must be copied.
+	 * Override to process primitive samples; the default implementation does
+	 * nothing.
+	 *
+	 * @param event the event containing the samples
+	 */
+	protected void parseSamples(MessageEvent<MESSAGE> event) {
+	}
+
 	/**
 	 * Invoked via Disruptor's onEvent processing, implement to notify event
 	 * listeners and any multi connection subscribers.
@@ -0,0 +1,61 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import com.lmax.disruptor.EventHandler;
+
+/**
+ * A stage of message processing which runs on its own thread after the decode
+ * stage of an {@link AbstractMultiConnectionSocket}, in parallel with all
+ * other stages. Typical stages are buffering of samples, notification of
+ * listeners and broadcasting to subscribers. Stages share the ring buffer's
+ * events so no copies or queues are required between them; stages must treat
+ * the event as read only.
+ *
+ * @author burton
+ * @param <MESSAGE> the generic type
+ * @see AbstractMultiConnectionSocket#addProcessingStage(AbstractProcessingStage)
+ * @see AbstractMultiConnectionSocket#decode(MessageEvent)
+ */
+public abstract class AbstractProcessingStage<MESSAGE> implements EventHandler<MessageEvent<MESSAGE>> {
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.lmax.disruptor.EventHandler#onEvent(java.lang.Object, long,
+	 * boolean)
+	 */
+	@Override
+	public final void onEvent(MessageEvent<MESSAGE> event, long sequence, boolean endOfBatch) throws Exception {
+		if (event.isDropped()) return;
+
+		process(event, endOfBatch);
+	}
+
+	/**
+	 * Implement to process the decoded event.
+	 *
+	 * @param event the event
+	 * @param endOfBatch true if this is the last event available to this stage
+	 * @throws Exception the exception
+	 * @see MessageEvent#getDecoded()
+	 */
+	protected abstract void process(MessageEvent<MESSAGE> event, boolean endOfBatch) throws Exception;
+
+}
@@ -0,0 +1,272 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+
+/**
+ * The Disruptor lifecycle and automatic sizing shared by the
+ * {@link RawDataSampleBuffer} and the {@link MultiChannelSampleBuffer}. Samples
+ * are published to a Disruptor started and stopped with the
+ * {@link AbstractMultiConnectionSocket}, and ingested on its thread.
+ *
+ * @author burton
+ * @param <SAMPLE> the generic type
+ */
+public abstract class AbstractSampleBuffer<SAMPLE> implements ConnectionEventListener {
+	/** The default resize threshold, 10%. */
+	public static final double DEFAULT_RESIZE_THRESHOLD = 0.1;
+
+	private final IngestConfiguration ingestConfiguration;
+
+	private final SampleRateEstimator rateEstimator = new SampleRateEstimator();
+
+	private volatile boolean autoSizing;
+
+	private volatile double resizeThreshold = DEFAULT_RESIZE_THRESHOLD;
+
+	private Disruptor<MessageEvent<double[]>> disruptor;
+
+	private RingBuffer<MessageEvent<double[]>> rb;
+
+	private ExecutorService executor;
+
+	private CountDownLatch latch = new CountDownLatch(1);
+
+	/**
+	 * Instantiates a new abstract sample buffer.
+	 *
+	 * @param ingestConfiguration the Disruptor topology used to add samples, the
+	 *          default if null
+	 */
+	protected AbstractSampleBuffer(IngestConfiguration ingestConfiguration) {
+		this.ingestConfiguration = ingestConfiguration == null ? new IngestConfiguration() : ingestConfiguration;
+	}
+
+	/**
+	 * Implementation starts/stops disruptor.
+	 *
+	 * @param e the e
+	 */
+	public void connectionEventPerformed(ConnectionEvent e) {
+		switch (e.getState()) {
+		case STARTED:
+			initDisruptor();
+			latch.countDown();
+			break;
+		case STOPPED:
+			disruptor.shutdown();
+			executor.shutdown();
+			latch = new CountDownLatch(1);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Adds the sample.
+	 *
+	 * @param sample the sample
+	 */
+	public abstract void addSample(SAMPLE sample);
+
+	/**
+	 * Publishes the array by reference, awaiting the start of the Disruptor.
+	 *
+	 * @param message the samples
+	 * @param timestampNanos the {@link System#nanoTime()} of the samples
+	 */
+	protected void publish(double[] message, long timestampNanos) {
+		awaitStart();
+
+		long seq = rb.next();
+		MessageEvent<double[]> be = rb.get(seq);
+		be.setMessage(message);
+		be.setTimestampNanos(timestampNanos);
+		rb.publish(seq);
+	}
+
+	/**
+	 * Copies the samples into the preallocated array of the next ring buffer
+	 * slot, awaiting the start of the Disruptor.
+	 *
+	 * @param src the source array
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 * @param timestampNanos the {@link System#nanoTime()} of the samples
+	 * @see #checkSampleCapacity(int)
+	 */
+	protected void publish(double[] src, int off, int len, long timestampNanos) {
+		awaitStart();
+
+		long seq = rb.next();
+		rb.get(seq).setSamples(0, src, off, len, timestampNanos);
+		rb.publish(seq);
+	}
+
+	/**
+	 * Throws an IllegalArgumentException should the length exceed the
+	 * {@link IngestConfiguration#getSampleCapacity()}.
+	 *
+	 * @param len the number of samples
+	 */
+	protected void checkSampleCapacity(int len) {
+		if (len > ingestConfiguration.getSampleCapacity()) {
+			throw new IllegalArgumentException("Sample length " + len + " exceeds configured sample capacity "
+					+ ingestConfiguration.getSampleCapacity());
+		}
+	}
+
+	/**
+	 * Adds the event's samples to the window, invoked on the Disruptor thread.
+	 *
+	 * @param event the event
+	 */
+	abstract void ingest(MessageEvent<double[]> event);
+
+	/**
+	 * Returns the current capacity of the window.
+	 *
+	 * @return the window capacity
+	 */
+	abstract int getWindowCapacity();
+
+	/**
+	 * Resizes the window to the new size.
+	 *
+	 * @param newSize the new size
+	 */
+	abstract void resize(int newSize);
+
+	/**
+	 * Updates the sample rate estimate, resizing the window to hold ~ 1 second's
+	 * worth should {@link #isAutoSizing()} and the estimate have moved more than
+	 * the {@link #getResizeThreshold()} from the current size. Invoked from
+	 * {@link #ingest(MessageEvent)}.
+	 *
+	 * @param timestampNanos the timestamp of the samples
+	 * @param count the number of samples, or frames
+	 */
+	void autoSize(long timestampNanos, int count) {
+		if (!rateEstimator.update(timestampNanos, count) || !autoSizing) return;
+
+		int target = (int) Math.round(rateEstimator.getRate());
+		int current = getWindowCapacity();
+		if (target < 1 || Math.abs(target - current) <= current * resizeThreshold) return;
+
+		resize(target);
+	}
+
+	/**
+	 * Returns true if the buffer is continuously resized to hold ~ 1 second's
+	 * worth of samples.
+	 *
+	 * @return true, if is auto sizing
+	 */
+	public boolean isAutoSizing() {
+		return autoSizing;
+	}
+
+	/**
+	 * When true the buffer is resized to hold ~ 1 second's worth of samples
+	 * whenever the estimated sample rate moves more than the
+	 * {@link #getResizeThreshold()} from the current size, overriding the buffer
+	 * size specified on construction. Defaults to false.
+	 *
+	 * @param autoSizing the new auto sizing
+	 * @see SampleRateEstimator
+	 */
+	public void setAutoSizing(boolean autoSizing) {
+		this.autoSizing = autoSizing;
+	}
+
+	/**
+	 * Gets the resize threshold.
+	 *
+	 * @return the resize threshold
+	 */
+	public double getResizeThreshold() {
+		return resizeThreshold;
+	}
+
+	/**
+	 * Sets the fraction of the current buffer size by which the estimated
+	 * sample rate must differ before the buffer is resized, preventing jitter in
+	 * the estimate from reallocating the buffer.
+	 *
+	 * @param resizeThreshold the new resize threshold, >= 0
+	 */
+	public void setResizeThreshold(double resizeThreshold) {
+		if (resizeThreshold < 0) throw new IllegalArgumentException("Resize threshold must be >= 0: " + resizeThreshold);
+
+		this.resizeThreshold = resizeThreshold;
+	}
+
+	/**
+	 * Returns the estimated samples per second, 0 until enough samples have
+	 * been ingested. The sample rate is estimated as samples are ingested
+	 * regardless of {@link #isAutoSizing()}.
+	 *
+	 * @return the sample rate
+	 */
+	public double getSampleRate() {
+		return rateEstimator.getRate();
+	}
+
+	/**
+	 * Returns the Disruptor topology used to add samples.
+	 *
+	 * @return the ingest configuration
+	 */
+	public IngestConfiguration getIngestConfiguration() {
+		return ingestConfiguration;
+	}
+
+	private void awaitStart() {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void initDisruptor() {
+		executor = ingestConfiguration.createExecutor();
+		disruptor = ingestConfiguration.createDisruptor(
+				new MessageEventFactory<double[]>(ingestConfiguration.getSampleCapacity()), executor);
+
+		disruptor.handleEventsWith(new EventHandler<MessageEvent<double[]>>() {
+
+			@Override
+			public void onEvent(MessageEvent<double[]> event, long sequence, boolean endOfBatch) throws Exception {
+				ingest(event);
+			}
+
+		});
+
+		rb = disruptor.start();
+	}
+
+}
@@ -20,12 +20,22 @@ package com.github.mrstampy.esp.multiconnectionsocket;
 
 import static java.text.MessageFormat.format;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.future.ConnectFuture;
 import org.apache.mina.core.service.IoHandlerAdapter;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
 import org.apache.mina.filter.logging.MdcInjectionFilter;
@@ -33,11 +43,25 @@ import org.apache.mina.transport.socket.nio.NioSocketConnector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import rx.Observable;
-import rx.functions.Action1;
-
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.WaitStrategyType;
+import com.github.mrstampy.esp.multiconnectionsocket.codec.BinaryEventCodecFactory;
 import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.ipc.RingFileListener;
+import com.github.mrstampy.esp.multiconnectionsocket.ipc.RingFileReader;
+import com.github.mrstampy.esp.multiconnectionsocket.ipc.RingFileWriter;
+import com.github.mrstampy.esp.multiconnectionsocket.multicast.MulticastBroadcaster;
+import com.github.mrstampy.esp.multiconnectionsocket.multicast.MulticastListener;
+import com.github.mrstampy.esp.multiconnectionsocket.multicast.MulticastReceiver;
 import com.github.mrstampy.esp.multiconnectionsocket.subscription.MultiConnectionSubscriptionRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.OptionedSubscriptionRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions.Delivery;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.LifecycleAware;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -72,18 +96,67 @@ public abstract class AbstractSocketConnector<E extends Enum<E>> {
 		}
 	}
 
+	/** The default minimum delay before attempting to reconnect. */
+	public static final long DEFAULT_MIN_RECONNECT_MILLIS = 500;
+
+	/** The default maximum delay before attempting to reconnect. */
+	public static final long DEFAULT_MAX_RECONNECT_MILLIS = 30000;
+
 	/** The connector. */
 	protected NioSocketConnector connector;
 	private String socketBroadcasterHost;
 
+	private final IngestConfiguration dispatchConfiguration;
+	private Disruptor<MessageEvent<AbstractMultiConnectionEvent<E>>> disruptor;
+	private volatile RingBuffer<MessageEvent<AbstractMultiConnectionEvent<E>>> rb;
+	private ExecutorService executor;
+	private DispatchHandler dispatchHandler;
+	private volatile Thread dispatchThread;
+
+	private volatile boolean autoReconnect = true;
+	private volatile long minReconnectMillis = DEFAULT_MIN_RECONNECT_MILLIS;
+	private volatile long maxReconnectMillis = DEFAULT_MAX_RECONNECT_MILLIS;
+
+	private volatile boolean disconnecting;
+	private volatile ScheduledExecutorService reconnectScheduler;
+	private volatile ScheduledFuture<?> reconnect;
+	private volatile MultiConnectionSubscriptionRequest<?> lastRequest;
+
+	private MulticastReceiver multicastReceiver;
+	private RingFileReader ringFileReader;
+
+	// subscriptions applied on receipt by the multicast and ring file receivers
+	private volatile MultiConnectionSubscriptionRequest<?> localRequest;
+	private volatile SubscriberFilter localFilter;
+
 	/**
 	 * Instantiate with the name of the host that the
-	 * {@link AbstractMultiConnectionSocket} is running on.
+	 * {@link AbstractMultiConnectionSocket} is running on. Events are
+	 * dispatched to {@link #processEvent(AbstractMultiConnectionEvent)} through
+	 * a ring buffer of 1024 slots.
 	 *
 	 * @param socketBroadcasterHost the socket broadcaster host
 	 */
 	public AbstractSocketConnector(String socketBroadcasterHost) {
+		this(socketBroadcasterHost, new IngestConfiguration(1024, ProducerType.MULTI, WaitStrategyType.BLOCKING,
+				"ESP Connector"));
+	}
+
+	/**
+	 * Instantiate with the name of the host that the
+	 * {@link AbstractMultiConnectionSocket} is running on and the configuration
+	 * of the ring buffer through which received events are dispatched, on a
+	 * dedicated thread, to {@link #processEvent(AbstractMultiConnectionEvent)}.
+	 * Should processing fall a full ring behind, receiving waits until
+	 * disconnected, slowing the sender via TCP flow control rather than growing
+	 * the heap.
+	 *
+	 * @param socketBroadcasterHost the socket broadcaster host
+	 * @param dispatchConfiguration the dispatch configuration
+	 */
+	public AbstractSocketConnector(String socketBroadcasterHost, IngestConfiguration dispatchConfiguration) {
 		this.socketBroadcasterHost = socketBroadcasterHost;
+		this.dispatchConfiguration = dispatchConfiguration == null ? new IngestConfiguration() : dispatchConfiguration;
 	}
 
 	/**
@@ -93,7 +166,156 @@ public abstract class AbstractSocketConnector<E extends Enum<E>> {
 	 * @return true if connected
 	 */
 	public boolean isConnected() {
-		return connector != null && connector.isActive();
+		return (connector != null && connector.isActive()) || isMulticast() || isRingFile();
+	}
+
+	/**
+	 * Returns true if receiving events from a multicast group.
+	 *
+	 * @return true, if is multicast
+	 */
+	public boolean isMulticast() {
+		MulticastReceiver receiver = multicastReceiver;
+
+		return receiver != null && receiver.isRunning();
+	}
+
+	/**
+	 * Joins the {@link MulticastBroadcaster#MULTICAST_GROUP} in lieu of
+	 * connecting.
+	 *
+	 * @throws MultiConnectionSocketException
+	 *           if unable to join the group
+	 * @see #connectMulticast(String, int)
+	 */
+	public void connectMulticast() throws MultiConnectionSocketException {
+		connectMulticast(MulticastBroadcaster.MULTICAST_GROUP, MulticastBroadcaster.MULTICAST_PORT);
+	}
+
+	/**
+	 * Joins the multicast group of a {@link MulticastBroadcaster} in lieu of
+	 * connecting. As the broadcaster sends every event to the group,
+	 * subscriptions are applied on receipt: events are processed once
+	 * {@link #subscribe(MultiConnectionSubscriptionRequest)} has been called,
+	 * for the requested event types and with the channel subset, decimation and
+	 * max rate of any {@link SubscriptionOptions}. Lost datagrams are reported
+	 * to {@link #multicastGapDetected(long, long)}.
+	 *
+	 * @param group
+	 *          the multicast group address
+	 * @param port
+	 *          the port
+	 * @throws MultiConnectionSocketException
+	 *           if unable to join the group
+	 */
+	public synchronized void connectMulticast(String group, int port) throws MultiConnectionSocketException {
+		if (isConnected()) {
+			log.error("Already connected");
+			return;
+		}
+
+		disconnecting = false;
+
+		try {
+			multicastReceiver = new MulticastReceiver(group, port, createCodecFactory(), new MulticastListener() {
+
+				@Override
+				public void messageReceived(Object message) {
+					if (isLocallySubscribed(message)) received(message);
+				}
+
+				@Override
+				public void gapDetected(long expected, long received) {
+					multicastGapDetected(expected, received);
+				}
+			});
+			startDispatch();
+			multicastReceiver.start();
+		} catch (IOException e) {
+			multicastReceiver = null;
+			stopDispatch();
+
+			String msg = format("Could not join multicast group {0} on port {1}", group, port);
+			log.error(msg, e);
+
+			throw new MultiConnectionSocketException(msg, e);
+		}
+	}
+
+	/**
+	 * Returns true if reading events from a ring file.
+	 *
+	 * @return true, if is ring file
+	 */
+	public boolean isRingFile() {
+		RingFileReader reader = ringFileReader;
+
+		return reader != null && reader.isRunning();
+	}
+
+	/**
+	 * Attaches to the ring file of a {@link RingFileWriter} in a JVM on the same
+	 * host in lieu of connecting. As with
+	 * {@link #connectMulticast(String, int)} the writer sends every event and
+	 * subscriptions are applied on receipt. Overwritten events are reported to
+	 * {@link #ringFileOverrun(long)}.
+	 *
+	 * @param file
+	 *          the ring file
+	 * @throws MultiConnectionSocketException
+	 *           if the ring file cannot be read
+	 */
+	public synchronized void connectRingFile(File file) throws MultiConnectionSocketException {
+		if (isConnected()) {
+			log.error("Already connected");
+			return;
+		}
+
+		disconnecting = false;
+
+		ringFileReader = new RingFileReader(file, createCodecFactory(), new RingFileListener() {
+
+			@Override
+			public void messageReceived(Object message) {
+				if (isLocallySubscribed(message)) received(message);
+			}
+
+			@Override
+			public void overrun(long lostBytes) {
+				ringFileOverrun(lostBytes);
+			}
+		});
+
+		try {
+			startDispatch();
+			ringFileReader.start();
+		} catch (IOException e) {
+			ringFileReader = null;
+			stopDispatch();
+
+			String msg = format("Could not read ring file {0}", file);
+			log.error(msg, e);
+
+			throw new MultiConnectionSocketException(msg, e);
+		}
+	}
+
+	/**
+	 * Returns the ring file reader, null if not attached to a ring file.
+	 *
+	 * @return the ring file reader
+	 */
+	public RingFileReader getRingFileReader() {
+		return ringFileReader;
+	}
+
+	/**
+	 * Returns the multicast receiver, null if not joined to a multicast group.
+	 *
+	 * @return the multicast receiver
+	 */
+	public MulticastReceiver getMulticastReceiver() {
+		return multicastReceiver;
 	}
 
 	/**
@@ -105,21 +327,25 @@ public abstract class AbstractSocketConnector<E extends Enum<E>> {
 	 * @throws MultiConnectionSocketException
 	 *           if unable to connect to a {@link AbstractMultiConnectionSocket}
 	 */
-	public void connect() throws MultiConnectionSocketException {
+	public synchronized void connect() throws MultiConnectionSocketException {
 		if (isConnected()) {
 			log.error("Already connected");
 			return;
 		}
-		initConnector();
 
-		ConnectFuture cf = connector.connect(new InetSocketAddress(socketBroadcasterHost, BROADCASTER_PORT));
-		cf.awaitUninterruptibly(2000);
+		shutdownConnector();
+		disconnecting = false;
 
-		if (cf.isConnected()) {
+		startDispatch();
+		initConnector();
+
+		if (connectImpl()) {
 			log.info("Connected to AbstractMultiConnectionSocket on host {} and port {}", socketBroadcasterHost,
 					BROADCASTER_PORT);
 		} else {
 			connector.dispose(true);
+			connector = null;
+			stopDispatch();
 
 			String msg = format("Could not connect to AbstractMultiConnectionSocket on host {0} and port {1}",
 					socketBroadcasterHost, BROADCASTER_PORT);
@@ -131,15 +357,34 @@ public abstract class AbstractSocketConnector<E extends Enum<E>> {
 	}
 
 	/**
-	 * Disconnects from the {@link AbstractMultiConnectionSocket} instance.
+	 * Disconnects from the {@link AbstractMultiConnectionSocket} instance. When
+	 * invoked from {@link #processEvent(AbstractMultiConnectionEvent)} the
+	 * connector is disposed of without awaiting its threads and any events
+	 * remaining in the ring buffer are discarded.
 	 */
-	public void disconnect() {
-		if (!isConnected()) {
+	public synchronized void disconnect() {
+		if (!isConnected() && connector == null) {
 			log.debug("Already disconnected");
 			return;
 		}
-		connector.dispose(true);
-		connector = null;
+
+		// releases receiving threads waiting on a full ring buffer
+		disconnecting = true;
+
+		if (isMulticast() || isRingFile()) {
+			if (isMulticast()) multicastReceiver.stop();
+			if (isRingFile()) ringFileReader.stop();
+
+			multicastReceiver = null;
+			ringFileReader = null;
+			localRequest = null;
+			localFilter = null;
+			stopDispatch();
+			return;
+		}
+
+		shutdownConnector();
+		stopDispatch();
 
 		log.info("Disconnected from AbstractMultiConnectionSocket on host {} and port {}", socketBroadcasterHost,
 				BROADCASTER_PORT);
@@ -154,11 +399,27 @@ public abstract class AbstractSocketConnector<E extends Enum<E>> {
 	 */
 	protected boolean subscribe(MultiConnectionSubscriptionRequest<?> request) {
 		if (!isConnected()) {
-			log.error("Cannot subscribe to {}, not connected", request);
+			if (connector != null && autoReconnect) {
+				lastRequest = request;
+				log.warn("Not connected, {} will be sent on reconnection", request);
+			} else {
+				log.error("Cannot subscribe to {}, not connected", request);
+			}
 			return false;
 		}
 
-		connector.broadcast(request);
+		if (isMulticast() || isRingFile()) {
+			SubscriptionOptions options = null;
+			if (request instanceof OptionedSubscriptionRequest<?>) {
+				options = ((OptionedSubscriptionRequest<?>) request).getOptions();
+			}
+
+			localFilter = SubscriberFilter.create(options);
+			localRequest = request;
+		} else {
+			lastRequest = request;
+			connector.broadcast(request);
+		}
 
 		log.info("Subscribed to {}", request);
 
@@ -180,30 +441,313 @@ public abstract class AbstractSocketConnector<E extends Enum<E>> {
 
 		MdcInjectionFilter mdcInjectionFilter = new MdcInjectionFilter();
 		chain.addLast("mdc", mdcInjectionFilter);
-		chain.addLast("codec", new ProtocolCodecFilter(new ObjectSerializationCodecFactory()));
+		chain.addLast("codec", new ProtocolCodecFilter(createCodecFactory()));
 
 		connector.setHandler(new IoHandlerAdapter() {
-			@SuppressWarnings("unchecked")
 			public void messageReceived(IoSession session, Object message) throws Exception {
-				if (message instanceof AbstractMultiConnectionEvent<?>) {
-					AbstractMultiConnectionEvent<E> event = (AbstractMultiConnectionEvent<E>) message;
-					Observable.just(event).subscribe(new Action1<AbstractMultiConnectionEvent<E>>() {
-
-						@Override
-						public void call(AbstractMultiConnectionEvent<E> t1) {
-							processEvent(t1);
-						}
-					});
-				}
+				received(message);
+			}
+
+			public void sessionClosed(IoSession session) throws Exception {
+				if (disconnecting || !autoReconnect) return;
+
+				log.warn("Connection to AbstractMultiConnectionSocket on host {} and port {} lost", socketBroadcasterHost,
+						BROADCASTER_PORT);
+				scheduleReconnect(minReconnectMillis);
 			}
 		});
 	}
 
+	private boolean connectImpl() {
+		ConnectFuture cf = connector.connect(new InetSocketAddress(socketBroadcasterHost, BROADCASTER_PORT));
+		cf.awaitUninterruptibly(2000);
+
+		return cf.isConnected();
+	}
+
+	/*
+	 * Invoked on MINA threads, does not lock so that disposing of the connector
+	 * whilst locked cannot deadlock.
+	 */
+	private void scheduleReconnect(final long delayMillis) {
+		ScheduledExecutorService scheduler = reconnectScheduler;
+		if (scheduler == null || disconnecting) return;
+
+		try {
+			reconnect = scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					reconnect(delayMillis);
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// disconnected
+		}
+	}
+
+	private synchronized void reconnect(long delayMillis) {
+		if (disconnecting || connector == null || connector.isActive()) return;
+
+		if (!connectImpl()) {
+			long next = Math.min(delayMillis * 2, maxReconnectMillis);
+			reconnectFailed(next);
+			scheduleReconnect(next);
+			return;
+		}
+
+		log.info("Reconnected to AbstractMultiConnectionSocket on host {} and port {}", socketBroadcasterHost,
+				BROADCASTER_PORT);
+
+		MultiConnectionSubscriptionRequest<?> request = lastRequest;
+		if (request != null) {
+			connector.broadcast(request);
+			log.info("Resubscribed to {}", request);
+		}
+	}
+
+	private void shutdownConnector() {
+		disconnecting = true;
+
+		ScheduledFuture<?> pending = reconnect;
+		if (pending != null) pending.cancel(false);
+		reconnect = null;
+
+		// the dispatch thread cannot await I/O threads waiting for it
+		if (connector != null) connector.dispose(!isDispatchThread());
+		connector = null;
+	}
+
+	private void startDispatch() {
+		if (rb != null) return;
+
+		executor = dispatchConfiguration.createExecutor();
+		disruptor = dispatchConfiguration.createDisruptor(new MessageEventFactory<AbstractMultiConnectionEvent<E>>(),
+				executor);
+
+		dispatchHandler = new DispatchHandler();
+
+		@SuppressWarnings("unchecked")
+		EventHandler<MessageEvent<AbstractMultiConnectionEvent<E>>>[] handlers = (EventHandler<MessageEvent<AbstractMultiConnectionEvent<E>>>[]) new EventHandler<?>[] { dispatchHandler };
+		disruptor.handleEventsWith(handlers);
+
+		rb = disruptor.start();
+
+		if (reconnectScheduler == null) {
+			reconnectScheduler = Executors.newSingleThreadScheduledExecutor(dispatchConfiguration.createThreadFactory());
+		}
+	}
+
+	private void stopDispatch() {
+		if (rb == null) return;
+
+		rb = null;
+		if (isDispatchThread()) {
+			// the events behind the one being processed can never drain
+			dispatchHandler.halted = true;
+			disruptor.halt();
+		} else {
+			disruptor.shutdown();
+		}
+		executor.shutdown();
+
+		ScheduledExecutorService scheduler = reconnectScheduler;
+		reconnectScheduler = null;
+		if (scheduler != null) scheduler.shutdownNow();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void received(Object message) {
+		RingBuffer<MessageEvent<AbstractMultiConnectionEvent<E>>> ring = rb;
+		if (ring == null || !(message instanceof AbstractMultiConnectionEvent<?>)) return;
+
+		long seq;
+		while (true) {
+			try {
+				seq = ring.tryNext();
+				break;
+			} catch (InsufficientCapacityException e) {
+				// dispatch may have stopped with the ring full
+				if (disconnecting || rb != ring) return;
+				LockSupport.parkNanos(1);
+			}
+		}
+
+		ring.get(seq).setMessage((AbstractMultiConnectionEvent<E>) message);
+		ring.publish(seq);
+	}
+
+	private boolean isDispatchThread() {
+		return Thread.currentThread() == dispatchThread;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean isLocallySubscribed(Object message) {
+		MultiConnectionSubscriptionRequest<?> request = localRequest;
+		if (request == null || !(message instanceof AbstractMultiConnectionEvent<?>)) return false;
+
+		AbstractMultiConnectionEvent<E> event = (AbstractMultiConnectionEvent<E>) message;
+		if (!((MultiConnectionSubscriptionRequest<E>) request).containsEventType(event.getEventType())) return false;
+
+		SubscriberFilter filter = localFilter;
+
+		return filter == null || filter.accept(event);
+	}
+
+	/**
+	 * Invoked on the reconnecting thread when an attempt to reconnect has
+	 * failed, before the next is scheduled. Logs at debug by default.
+	 *
+	 * @param nextMillis the delay before the next attempt
+	 */
+	protected void reconnectFailed(long nextMillis) {
+		log.debug("Reconnect to host {} and port {} failed, retrying in {} ms", socketBroadcasterHost, BROADCASTER_PORT,
+				nextMillis);
+	}
+
+	/**
+	 * Invoked on the receiving thread when multicast datagrams have been lost.
+	 * Logs a warning by default.
+	 *
+	 * @param expected the sequence expected
+	 * @param received the sequence received
+	 */
+	protected void multicastGapDetected(long expected, long received) {
+		log.warn("Lost {} multicast datagrams, expected {} received {}", received - expected, expected, received);
+	}
+
+	/**
+	 * Invoked on the reading thread when ring file records were overwritten
+	 * before being read. Logs a warning by default.
+	 *
+	 * @param lostBytes the bytes of records lost
+	 */
+	protected void ringFileOverrun(long lostBytes) {
+		log.warn("Ring file overrun, lost {} bytes", lostBytes);
+	}
+
+	/**
+	 * Creates the codec factory used to read events, which must match that of
+	 * the {@link AbstractMultiConnectionSocket#createCodecFactory()}. Defaults
+	 * to Java serialization via MINA's {@link ObjectSerializationCodecFactory}.
+	 * Batches written for {@link Delivery#THROUGHPUT} subscriptions are the
+	 * concatenated, length prefixed encodings of their events; the cumulative
+	 * decoders of both factories decode every complete frame received, so each
+	 * event of a batch is processed individually.
+	 *
+	 * @return the protocol codec factory
+	 * @see BinaryEventCodecFactory
+	 */
+	protected ProtocolCodecFactory createCodecFactory() {
+		return new ObjectSerializationCodecFactory();
+	}
+
+	/**
+	 * Checks if is auto reconnect.
+	 *
+	 * @return true, if is auto reconnect
+	 */
+	public boolean isAutoReconnect() {
+		return autoReconnect;
+	}
+
+	/**
+	 * Set true (the default) to reconnect should the connection to the
+	 * {@link AbstractMultiConnectionSocket} be lost, resending the last
+	 * subscription request once reconnected. Attempts are made after the
+	 * {@link #getMinReconnectMillis()}, the delay doubling on each failure to a
+	 * maximum of {@link #getMaxReconnectMillis()}, until reconnected or
+	 * {@link #disconnect()} is invoked.
+	 *
+	 * @param autoReconnect the new auto reconnect
+	 */
+	public void setAutoReconnect(boolean autoReconnect) {
+		this.autoReconnect = autoReconnect;
+	}
+
+	/**
+	 * Gets the min reconnect millis.
+	 *
+	 * @return the min reconnect millis
+	 */
+	public long getMinReconnectMillis() {
+		return minReconnectMillis;
+	}
+
+	/**
+	 * Gets the max reconnect millis.
+	 *
+	 * @return the max reconnect millis
+	 */
+	public long getMaxReconnectMillis() {
+		return maxReconnectMillis;
+	}
+
+	/**
+	 * Sets the reconnect backoff.
+	 *
+	 * @param minReconnectMillis the delay before the first attempt
+	 * @param maxReconnectMillis the maximum delay between attempts
+	 */
+	public void setReconnectMillis(long minReconnectMillis, long maxReconnectMillis) {
+		if (minReconnectMillis < 1 || maxReconnectMillis < minReconnectMillis) {
+			throw new IllegalArgumentException("Reconnect millis must be 0 < min <= max: " + minReconnectMillis + ", "
+					+ maxReconnectMillis);
+		}
+
+		this.minReconnectMillis = minReconnectMillis;
+		this.maxReconnectMillis = maxReconnectMillis;
+	}
+
+	/**
+	 * Gets the dispatch configuration.
+	 *
+	 * @return the dispatch configuration
+	 */
+	public IngestConfiguration getDispatchConfiguration() {
+		return dispatchConfiguration;
+	}
+
 	/**
-	 * Process event.
+	 * Invoked for each event received, in order, on a single dispatch thread
+	 * separate from the threads receiving the events. Should processing fall a
+	 * full ring buffer behind, receiving waits. Invoking {@link #disconnect()}
+	 * from this method does not wait for the receiving threads, discarding the
+	 * events not yet processed.
 	 *
 	 * @param message the message
 	 */
 	protected abstract void processEvent(AbstractMultiConnectionEvent<E> message);
 
+	private class DispatchHandler implements EventHandler<MessageEvent<AbstractMultiConnectionEvent<E>>>, LifecycleAware {
+
+		// discards the remainder of the batch once halted
+		private volatile boolean halted;
+
+		@Override
+		public void onEvent(MessageEvent<AbstractMultiConnectionEvent<E>> event, long sequence, boolean endOfBatch)
+				throws Exception {
+			AbstractMultiConnectionEvent<E> message = event.getMessage();
+			event.setMessage(null);
+
+			if (halted) return;
+
+			try {
+				processEvent(message);
+			} catch (Exception e) {
+				log.error("Unexpected exception processing {}", message, e);
+			}
+		}
+
+		@Override
+		public void onStart() {
+			dispatchThread = Thread.currentThread();
+		}
+
+		@Override
+		public void onShutdown() {
+			if (dispatchThread == Thread.currentThread()) dispatchThread = null;
+		}
+	}
+
 }
@@ -18,28 +18,39 @@
  */
 package com.github.mrstampy.esp.multiconnectionsocket;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javolution.util.FastList;
-import javolution.util.FastMap;
 
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.DummySession;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import rx.Observable;
-import rx.functions.Action1;
-
+import com.github.mrstampy.esp.multiconnectionsocket.codec.BinaryEventCodecFactory;
 import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.multicast.MulticastBroadcaster;
 import com.github.mrstampy.esp.multiconnectionsocket.subscription.MultiConnectionSubscriptionRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.OptionedSubscriptionRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions.Delivery;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -60,14 +71,27 @@ public abstract class AbstractSubscriptionHandlerAdapter<E extends Enum<E>, AMCS
 
 	private static final Logger log = LoggerFactory.getLogger(AbstractSubscriptionHandlerAdapter.class);
 
+	private static final IoSession[] NO_SESSIONS = new IoSession[0];
+
+	private static final AttributeKey OUTBOUND_KEY = new AttributeKey(AbstractSubscriptionHandlerAdapter.class,
+			"outbound");
+
 	private AMCS socket;
 
-	private Map<E, List<HostPort>> subscriptions = new FastMap<E, List<HostPort>>();
-	private Map<HostPort, IoSession> sessions = new FastMap<HostPort, IoSession>();
+	/*
+	 * Immutable once published, replaced by a modified copy on each
+	 * subscription change so that events are sent without locking. Null until
+	 * the first subscription supplies the enum class.
+	 */
+	private volatile EnumMap<E, IoSession[]> subscriptions;
+
+	private final Object subscriptionLock = new Object();
 
-	private ReentrantReadWriteLock requestsLock = new ReentrantReadWriteLock(true);
-	private WriteLock writeLock = requestsLock.writeLock();
-	private ReadLock readLock = requestsLock.readLock();
+	private volatile OutboundLimits outboundLimits = new OutboundLimits();
+
+	private List<EventTransport> transports = new CopyOnWriteArrayList<EventTransport>();
+
+	private IoSession transportSession;
 
 	/**
 	 * Instantiates a new abstract subscription handler adapter.
@@ -94,91 +118,326 @@ public abstract class AbstractSubscriptionHandlerAdapter<E extends Enum<E>, AMCS
 	 * @see org.apache.mina.core.service.IoHandlerAdapter#sessionClosed(org.apache.mina.core.session.IoSession)
 	 */
 	public void sessionClosed(IoSession session) throws Exception {
-		HostPort hostPort = createHostPort(session);
+		log.info("Disconnecting socket on {}", createHostPort(session));
 
-		log.info("Disconnecting socket on {}", hostPort);
+		synchronized (subscriptionLock) {
+			if (subscriptions == null) return;
 
-		writeLock.lock();
-		try {
-			for (Entry<E, List<HostPort>> entry : subscriptions.entrySet()) {
-				List<HostPort> list = entry.getValue();
-				list.remove(hostPort);
+			EnumMap<E, IoSession[]> copy = subscriptions.clone();
+			for (E type : subscriptions.keySet()) {
+				remove(copy, type, session);
 			}
-			sessions.remove(hostPort);
-		} finally {
-			writeLock.unlock();
+
+			subscriptions = copy;
 		}
+
+		SessionOutbound outbound = (SessionOutbound) session.removeAttribute(OUTBOUND_KEY);
+		if (outbound != null) outbound.clear();
+	}
+
+	/**
+	 * Writes messages held back by the subscriber's {@link OutboundLimits} as
+	 * capacity becomes available. Only messages written subject to the limits
+	 * are counted.
+	 *
+	 * @param session the session
+	 * @param message the message
+	 * @throws Exception the exception
+	 */
+	public void messageSent(IoSession session, Object message) throws Exception {
+		SessionOutbound outbound = (SessionOutbound) session.getAttribute(OUTBOUND_KEY);
+		if (outbound != null) outbound.sent(message);
 	}
 
 	/**
 	 * Sends the specified {@link AbstractMultiConnectionEvent} to all interested
-	 * subscribers.
+	 * subscribers. The event is encoded once with the socket's
+	 * {@link AbstractMultiConnectionSocket#getCodecFactory()} and a duplicate of
+	 * the encoded buffer written to each subscriber, which the codec filter
+	 * passes through unchanged. Subscribers which requested
+	 * {@link Delivery#THROUGHPUT} receive the event with the next write of their
+	 * batch. Writes are subject to the {@link #getOutboundLimits()}. Events are
+	 * first filtered by each subscriber's channel subset, decimation and max
+	 * rate, and are only encoded should a subscriber accept them. Every event
+	 * is also sent to the {@link EventTransport}s, if any, even should encoding
+	 * for the subscribers have failed.
 	 *
 	 * @param event the event
 	 * @see AbstractMultiConnectionSocket
 	 * @see AbstractSocketConnector
 	 */
 	public void sendMultiConnectionEvent(AbstractMultiConnectionEvent<E> event) {
-		Observable.just(event).subscribe(new Action1<AbstractMultiConnectionEvent<E>>() {
-
-			@Override
-			public void call(AbstractMultiConnectionEvent<E> t1) {
-				List<HostPort> list = null;
-				readLock.lock();
-				try {
-					List<HostPort> tmp = subscriptions.get(t1.getEventType());
-					if (tmp != null) list = new FastList<HostPort>(tmp);
-				} finally {
-					readLock.unlock();
-				}
-				
-				if (list == null) return;
-				for (HostPort hp : list) {
-					sendMultiConnectionEvent(hp, t1);
-				}
+		IoSession[] subscribers = getSubscribers(event.getEventType());
+
+		Object encoded = null;
+		for (int i = 0; i < subscribers.length; i++) {
+			SessionOutbound outbound = (SessionOutbound) subscribers[i].getAttribute(OUTBOUND_KEY);
+
+			SubscriberFilter filter = outbound == null ? null : outbound.getFilter();
+			if (filter != null && !filter.accept(event)) continue;
+
+			if (encoded == null) {
+				encoded = encode(subscribers[i], event);
+				if (encoded == null) break;
 			}
-		});
+
+			log.trace("Sending event {} to {}", event.getEventType(), subscribers[i].getRemoteAddress());
+
+			if (outbound == null || !(encoded instanceof IoBuffer)) {
+				subscribers[i].write(encoded instanceof IoBuffer ? ((IoBuffer) encoded).duplicate() : encoded);
+				continue;
+			}
+
+			EventBatch batch = outbound.getBatch();
+			if (batch != null) {
+				batch.add((IoBuffer) encoded);
+			} else {
+				outbound.write(event.getEventType(), ((IoBuffer) encoded).duplicate());
+			}
+		}
+
+		if (transports.isEmpty()) return;
+
+		for (EventTransport transport : transports) {
+			if (!transport.isStarted()) continue;
+
+			if (encoded == null) encoded = encode(getTransportSession(), event);
+			if (!(encoded instanceof IoBuffer)) return;
+
+			transport.send((IoBuffer) encoded);
+		}
+	}
+
+	/**
+	 * Returns the sessions currently subscribed to the type. The array must not
+	 * be modified.
+	 *
+	 * @param type the type
+	 * @return the subscribers
+	 */
+	public IoSession[] getSubscribers(E type) {
+		EnumMap<E, IoSession[]> current = subscriptions;
+		if (current == null) return NO_SESSIONS;
+
+		IoSession[] subscribers = current.get(type);
+
+		return subscribers == null ? NO_SESSIONS : subscribers;
 	}
 
 	/**
-	 * Subscribe.
+	 * Subscribe. The {@link SubscriptionOptions} of an
+	 * {@link OptionedSubscriptionRequest} are applied to the session, replacing
+	 * any previous.
 	 *
 	 * @param session the session
 	 * @param message the message
 	 */
 	protected void subscribe(IoSession session, MCSR message) {
-		HostPort hostPort = createHostPort(session);
+		E[] types = message.getEventTypes();
+		if (types == null || types.length == 0) {
+			log.error("No types to subscribe to for message {}", message);
+			return;
+		}
 
-		writeLock.lock();
-		try {
-			E[] types = message.getEventTypes();
-			if (types == null) {
-				log.error("No types to subscribe to for message {}", message);
-				return;
+		SessionOutbound outbound = getOutbound(session);
+		if (message instanceof OptionedSubscriptionRequest<?>) {
+			applyOptions(outbound, ((OptionedSubscriptionRequest<?>) message).getOptions());
+		}
+
+		synchronized (subscriptionLock) {
+			EnumMap<E, IoSession[]> copy = subscriptions == null ? new EnumMap<E, IoSession[]>(
+					types[0].getDeclaringClass()) : subscriptions.clone();
+
+			for (int i = 0; i < types.length; i++) {
+				add(copy, types[i], session);
 			}
+
+			subscriptions = copy;
+		}
+
+		log.info("{} subscribed to {}", createHostPort(session), message);
+	}
+
+	/**
+	 * Removes the session's subscriptions to the message's event types.
+	 *
+	 * @param session the session
+	 * @param message the message
+	 */
+	protected void unsubscribe(IoSession session, MCSR message) {
+		E[] types = message.getEventTypes();
+		if (types == null) return;
+
+		synchronized (subscriptionLock) {
+			if (subscriptions == null) return;
+
+			EnumMap<E, IoSession[]> copy = subscriptions.clone();
 			for (int i = 0; i < types.length; i++) {
-				E type = types[i];
-				List<HostPort> hps = subscriptions.get(type);
-				if (hps == null) {
-					hps = new FastList<HostPort>();
-					subscriptions.put(type, hps);
-				}
-				if (!hps.contains(hostPort)) hps.add(hostPort);
+				remove(copy, types[i], session);
 			}
-			sessions.put(hostPort, session);
-		} finally {
-			writeLock.unlock();
+
+			subscriptions = copy;
 		}
 
-		log.info("{} subscribed to {}", hostPort, message);
+		log.info("{} unsubscribed from {}", createHostPort(session), message);
 	}
 
-	private void sendMultiConnectionEvent(HostPort key, AbstractMultiConnectionEvent<E> event) {
-		IoSession session = sessions.get(key);
+	/**
+	 * Encodes the message once for all subscribers into a read only buffer,
+	 * returning the message itself should no codec factory be available and null
+	 * should encoding fail. The socket's encoder must produce the same output for
+	 * all sessions, as is the case for MINA's object serialization and the
+	 * {@link BinaryEventCodecFactory}.
+	 *
+	 * @param session the first subscribing session
+	 * @param message the message
+	 * @return the encoded message
+	 */
+	protected Object encode(IoSession session, Object message) {
+		ProtocolCodecFactory factory = getSocket() == null ? null : getSocket().getCodecFactory();
+		if (factory == null) return message;
+
+		try {
+			ProtocolEncoder encoder = factory.getEncoder(session);
 
-		log.trace("Sending event {} to {}", event.getEventType(), key);
+			BufferOutput out = new BufferOutput(session);
+			encoder.encode(session, message, out);
 
-		session.write(event);
+			return out.getBuffer().asReadOnlyBuffer();
+		} catch (Exception e) {
+			log.error("Could not encode {}", message, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the outbound statistics of every subscriber.
+	 *
+	 * @return the subscriber stats
+	 */
+	public List<SubscriberStats> getSubscriberStats() {
+		List<SubscriberStats> stats = new FastList<SubscriberStats>();
+
+		EnumMap<E, IoSession[]> current = subscriptions;
+		if (current == null) return stats;
+
+		Set<IoSession> seen = Collections.newSetFromMap(new IdentityHashMap<IoSession, Boolean>());
+		for (IoSession[] sessions : current.values()) {
+			for (IoSession session : sessions) {
+				if (!seen.add(session)) continue;
+
+				SessionOutbound outbound = (SessionOutbound) session.getAttribute(OUTBOUND_KEY);
+				if (outbound != null) stats.add(outbound.getStats(createHostPort(session)));
+			}
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Gets the outbound limits.
+	 *
+	 * @return the outbound limits
+	 */
+	public OutboundLimits getOutboundLimits() {
+		return outboundLimits;
+	}
+
+	/**
+	 * Sets the limits applied to sessions subsequently subscribing.
+	 *
+	 * @param outboundLimits the new outbound limits
+	 */
+	public void setOutboundLimits(OutboundLimits outboundLimits) {
+		if (outboundLimits == null) throw new IllegalArgumentException("Outbound limits must be specified");
+
+		this.outboundLimits = outboundLimits;
+	}
+
+	/**
+	 * Adds a transport, such as a {@link MulticastBroadcaster}, to send every
+	 * event to in addition to the subscribers. Events are encoded with the
+	 * socket's codec factory.
+	 *
+	 * @param transport the transport
+	 */
+	public void addTransport(EventTransport transport) {
+		if (transport != null && !transports.contains(transport)) transports.add(transport);
+	}
+
+	/**
+	 * Removes the transport.
+	 *
+	 * @param transport the transport
+	 */
+	public void removeTransport(EventTransport transport) {
+		transports.remove(transport);
+	}
+
+	/*
+	 * The encoder is passed a session; a placeholder when there are no
+	 * subscribers to encode for.
+	 */
+	private synchronized IoSession getTransportSession() {
+		if (transportSession == null) transportSession = new DummySession();
+
+		return transportSession;
+	}
+
+	private SessionOutbound getOutbound(IoSession session) {
+		SessionOutbound outbound = (SessionOutbound) session.getAttribute(OUTBOUND_KEY);
+		if (outbound != null) return outbound;
+
+		outbound = new SessionOutbound(session, outboundLimits);
+		SessionOutbound existing = (SessionOutbound) session.setAttributeIfAbsent(OUTBOUND_KEY, outbound);
+
+		return existing == null ? outbound : existing;
+	}
+
+	private void applyOptions(SessionOutbound outbound, SubscriptionOptions options) {
+		boolean batching = options != null && options.getDelivery() == Delivery.THROUGHPUT;
+
+		int numChannels = getSocket() == null ? 0 : getSocket().getNumChannels();
+
+		outbound.setFilter(SubscriberFilter.create(options, numChannels));
+		outbound.setBatch(batching ? new EventBatch(outbound, options) : null);
+	}
+
+	private void add(EnumMap<E, IoSession[]> map, E type, IoSession session) {
+		IoSession[] current = map.get(type);
+		if (current == null) {
+			map.put(type, new IoSession[] { session });
+			return;
+		}
+
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == session) return;
+		}
+
+		IoSession[] added = Arrays.copyOf(current, current.length + 1);
+		added[current.length] = session;
+		map.put(type, added);
+	}
+
+	private void remove(EnumMap<E, IoSession[]> map, E type, IoSession session) {
+		IoSession[] current = map.get(type);
+		if (current == null) return;
+
+		int idx = -1;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == session) idx = i;
+		}
+		if (idx < 0) return;
+
+		if (current.length == 1) {
+			map.remove(type);
+			return;
+		}
+
+		IoSession[] removed = new IoSession[current.length - 1];
+		System.arraycopy(current, 0, removed, 0, idx);
+		System.arraycopy(current, idx + 1, removed, idx, removed.length - idx);
+		map.put(type, removed);
 	}
 
 	/**
@@ -200,15 +459,70 @@ public abstract class AbstractSubscriptionHandlerAdapter<E extends Enum<E>, AMCS
 	}
 
 	/**
-	 * Creates the host port.
+	 * Creates the host port, using the remote IP address to avoid reverse DNS
+	 * lookups.
 	 *
 	 * @param session the session
 	 * @return the host port
 	 */
 	protected HostPort createHostPort(IoSession session) {
 		InetSocketAddress remote = (InetSocketAddress) session.getRemoteAddress();
+		InetAddress address = remote.getAddress();
+
+		return new HostPort(address == null ? remote.getHostName() : address.getHostAddress(), remote.getPort());
+	}
+
+	/*
+	 * Collects the encoder's output, merged into a single buffer.
+	 */
+	private static class BufferOutput implements ProtocolEncoderOutput {
+		private final IoSession session;
 
-		return new HostPort(remote.getHostName(), remote.getPort());
+		private final List<IoBuffer> buffers = new FastList<IoBuffer>();
+
+		BufferOutput(IoSession session) {
+			this.session = session;
+		}
+
+		@Override
+		public void write(Object encodedMessage) {
+			buffers.add((IoBuffer) encodedMessage);
+		}
+
+		@Override
+		public void mergeAll() {
+			if (buffers.size() < 2) return;
+
+			int size = 0;
+			for (IoBuffer buf : buffers) {
+				size += buf.remaining();
+			}
+
+			IoBuffer merged = IoBuffer.allocate(size);
+			for (IoBuffer buf : buffers) {
+				merged.put(buf);
+			}
+
+			buffers.clear();
+			buffers.add(merged.flip());
+		}
+
+		/*
+		 * Nothing is written to the session, the output being collected for
+		 * writing to each subscriber.
+		 */
+		@Override
+		public WriteFuture flush() {
+			return DefaultWriteFuture.newWrittenFuture(session);
+		}
+
+		IoBuffer getBuffer() {
+			if (buffers.isEmpty()) throw new IllegalStateException("Encoder wrote nothing");
+
+			mergeAll();
+
+			return buffers.get(0);
+		}
 	}
 
 }
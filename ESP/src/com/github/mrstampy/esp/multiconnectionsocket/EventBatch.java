@@ -0,0 +1,132 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+
+/**
+ * Accumulates encoded events for one subscriber, writing them to its
+ * {@link SessionOutbound} as a single buffer once the max batch size is reached or the max batch
+ * delay has elapsed since the first event of the batch. As encoded events are
+ * self delimiting the subscriber's decoder reads a batch as the individual
+ * events it contains.
+ *
+ * @author burton
+ * @see SubscriptionOptions.Delivery#THROUGHPUT
+ */
+class EventBatch {
+
+	private static final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ESP Batch Flush");
+					t.setDaemon(true);
+
+					return t;
+				}
+			});
+
+	private final SessionOutbound outbound;
+	private final int maxBatchSize;
+	private final long maxBatchDelayMillis;
+
+	private IoBuffer buffer;
+	private int count;
+	private ScheduledFuture<?> scheduled;
+
+	private final Runnable flusher = new Runnable() {
+
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Instantiates a new event batch.
+	 *
+	 * @param outbound the session's outbound
+	 * @param options the options
+	 */
+	EventBatch(SessionOutbound outbound, SubscriptionOptions options) {
+		this.outbound = outbound;
+		this.maxBatchSize = options.getMaxBatchSize();
+		this.maxBatchDelayMillis = options.getMaxBatchDelayMillis();
+	}
+
+	/**
+	 * Adds the encoded event to the batch, leaving its position unchanged.
+	 *
+	 * @param encoded the encoded
+	 */
+	synchronized void add(IoBuffer encoded) {
+		if (buffer == null) buffer = IoBuffer.allocate(encoded.remaining() * Math.min(maxBatchSize, 16)).setAutoExpand(true);
+
+		buffer.put(encoded.duplicate());
+		count++;
+
+		if (count >= maxBatchSize) {
+			flush();
+		} else if (count == 1) {
+			scheduled = scheduler.schedule(flusher, maxBatchDelayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Writes any events accumulated.
+	 */
+	synchronized void flush() {
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+
+		if (count == 0) return;
+
+		IoBuffer batch = buffer.flip();
+		buffer = null;
+		count = 0;
+
+		outbound.write(null, batch);
+	}
+
+	/**
+	 * Discards any events accumulated.
+	 */
+	synchronized void discard() {
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+
+		buffer = null;
+		count = 0;
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.github.mrstampy.esp.multiconnectionsocket.ipc.RingFileWriter;
+import com.github.mrstampy.esp.multiconnectionsocket.multicast.MulticastBroadcaster;
+
+/**
+ * A subscription-less transport to which the
+ * {@link AbstractSubscriptionHandlerAdapter} sends every event, encoded once
+ * with the broadcaster's codec factory. Receivers select the events they
+ * process.
+ *
+ * @author burton
+ * @see AbstractSubscriptionHandlerAdapter#addTransport(EventTransport)
+ * @see MulticastBroadcaster
+ * @see RingFileWriter
+ */
+public interface EventTransport {
+
+	/**
+	 * Returns true if events can be sent.
+	 *
+	 * @return true, if is started
+	 */
+	boolean isStarted();
+
+	/**
+	 * Sends the encoded event, leaving the buffer's position unchanged.
+	 *
+	 * @param encoded the encoded event
+	 */
+	void send(IoBuffer encoded);
+
+}
@@ -0,0 +1,137 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+/**
+ * The result of a {@link TieredHistory} time range query: up to
+ * {@link #getMaxPoints()} blocks, oldest first, each with its start time and
+ * the min, max and mean of the samples it summarizes. Raw samples are returned
+ * as blocks whose min, max and mean are the sample value. Instances are reused
+ * across queries by the caller; the arrays are allocated once on construction.
+ *
+ * @author burton
+ * @see TieredHistory#query(long, long, HistoryRange)
+ */
+public class HistoryRange {
+
+	private final long[] times;
+	private final double[] min;
+	private final double[] max;
+	private final double[] mean;
+
+	private int length;
+
+	private long resolutionNanos;
+
+	/**
+	 * Instantiates a new history range.
+	 *
+	 * @param maxPoints the maximum number of blocks a query may return
+	 */
+	public HistoryRange(int maxPoints) {
+		if (maxPoints < 1) throw new IllegalArgumentException("Max points must be > 0: " + maxPoints);
+
+		times = new long[maxPoints];
+		min = new double[maxPoints];
+		max = new double[maxPoints];
+		mean = new double[maxPoints];
+	}
+
+	/**
+	 * Gets the max points.
+	 *
+	 * @return the max points
+	 */
+	public int getMaxPoints() {
+		return times.length;
+	}
+
+	/**
+	 * Returns the number of blocks returned by the last query.
+	 *
+	 * @return the length
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the nominal duration of each block returned by the last query, 0
+	 * for raw samples.
+	 *
+	 * @return the resolution nanos
+	 */
+	public long getResolutionNanos() {
+		return resolutionNanos;
+	}
+
+	/**
+	 * Returns the nanoTime of the start of the block.
+	 *
+	 * @param i the block index
+	 * @return the time
+	 */
+	public long getTime(int i) {
+		return times[i];
+	}
+
+	/**
+	 * Gets the min.
+	 *
+	 * @param i the block index
+	 * @return the min
+	 */
+	public double getMin(int i) {
+		return min[i];
+	}
+
+	/**
+	 * Gets the max.
+	 *
+	 * @param i the block index
+	 * @return the max
+	 */
+	public double getMax(int i) {
+		return max[i];
+	}
+
+	/**
+	 * Gets the mean.
+	 *
+	 * @param i the block index
+	 * @return the mean
+	 */
+	public double getMean(int i) {
+		return mean[i];
+	}
+
+	void reset(long resolutionNanos) {
+		this.resolutionNanos = resolutionNanos;
+		length = 0;
+	}
+
+	void add(long time, double min, double max, double mean) {
+		this.times[length] = time;
+		this.min[length] = min;
+		this.max[length] = max;
+		this.mean[length] = mean;
+		length++;
+	}
+
+}
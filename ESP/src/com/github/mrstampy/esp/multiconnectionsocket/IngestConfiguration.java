@@ -0,0 +1,342 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+
+/**
+ * Describes the Disruptor topology used to pass EEG device messages and raw
+ * samples from the device thread to their processing. Instances are supplied
+ * on construction of {@link AbstractMultiConnectionSocket}s and
+ * {@link RawDataSampleBuffer}s; the default values reproduce the original
+ * hardcoded setup (16 slots, multi producer, blocking wait strategy).
+ *
+ * For high sample rates across many channels increase the
+ * {@link #setRingSize(int)} and, should only the device reading thread publish,
+ * use {@link ProducerType#SINGLE}. Wait strategies other than
+ * {@link WaitStrategyType#BLOCKING} trade CPU for latency.
+ *
+ * @author burton
+ * @see AbstractMultiConnectionSocket
+ * @see RawDataSampleBuffer
+ */
+public class IngestConfiguration {
+
+	/** The default ring size. */
+	public static final int DEFAULT_RING_SIZE = 16;
+
+	/** The default thread name prefix. */
+	public static final String DEFAULT_THREAD_NAME = "ESP Ingest";
+
+	/**
+	 * The Disruptor wait strategies available to the event processors.
+	 */
+	public enum WaitStrategyType {
+
+		/** Lock & condition based, lowest CPU usage. */
+		BLOCKING,
+		/** Spins, then yields, then parks briefly. */
+		SLEEPING,
+		/** Spins then yields, low latency at the cost of CPU. */
+		YIELDING,
+		/** Busy spins, lowest latency, dedicates a core per processor. */
+		BUSY_SPIN;
+	}
+
+	/**
+	 * The action taken by the try publish methods of
+	 * {@link AbstractMultiConnectionSocket} when the ring buffer is full.
+	 */
+	public enum OverflowPolicy {
+
+		/** Wait for capacity, as the publish methods do. */
+		BLOCK,
+		/** Discard the message being published. */
+		DROP_NEWEST,
+		/**
+		 * Discard the oldest message pending processing for each message which
+		 * does not fit, holding the new messages to be published, oldest first,
+		 * once capacity is available.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Hold the message in a single pending slot, replacing any message
+		 * already pending, to be published ahead of the next message once
+		 * capacity is available or, should the device go quiet, shortly after.
+		 */
+		COALESCE;
+	}
+
+	private int ringSize = DEFAULT_RING_SIZE;
+	private ProducerType producerType = ProducerType.MULTI;
+	private WaitStrategyType waitStrategyType = WaitStrategyType.BLOCKING;
+	private String threadName = DEFAULT_THREAD_NAME;
+	private int sampleCapacity;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	/**
+	 * Instantiates a new ingest configuration with the default values.
+	 */
+	public IngestConfiguration() {
+	}
+
+	/**
+	 * Instantiates a new ingest configuration.
+	 *
+	 * @param ringSize
+	 *          the ring size, must be a power of 2
+	 * @param producerType
+	 *          the producer type
+	 * @param waitStrategyType
+	 *          the wait strategy type
+	 * @param threadName
+	 *          the thread name prefix
+	 */
+	public IngestConfiguration(int ringSize, ProducerType producerType, WaitStrategyType waitStrategyType,
+			String threadName) {
+		setRingSize(ringSize);
+		setProducerType(producerType);
+		setWaitStrategyType(waitStrategyType);
+		setThreadName(threadName);
+	}
+
+	/**
+	 * Creates a Disruptor as described by this configuration. The executor is
+	 * owned by the caller and should be shut down after the Disruptor.
+	 *
+	 * @param <T>
+	 *          the event type
+	 * @param factory
+	 *          the event factory
+	 * @param executor
+	 *          the executor, typically from {@link #createExecutor()}
+	 * @return the disruptor
+	 */
+	public <T> Disruptor<T> createDisruptor(EventFactory<T> factory, Executor executor) {
+		return new Disruptor<T>(factory, getRingSize(), executor, getProducerType(), createWaitStrategy());
+	}
+
+	/**
+	 * Creates the wait strategy.
+	 *
+	 * @return the wait strategy
+	 */
+	public WaitStrategy createWaitStrategy() {
+		switch (getWaitStrategyType()) {
+		case BUSY_SPIN:
+			return new BusySpinWaitStrategy();
+		case SLEEPING:
+			return new SleepingWaitStrategy();
+		case YIELDING:
+			return new YieldingWaitStrategy();
+		default:
+			return new BlockingWaitStrategy();
+		}
+	}
+
+	/**
+	 * Creates the executor which will run the event processors, one thread per
+	 * processor.
+	 *
+	 * @return the executor service
+	 */
+	public ExecutorService createExecutor() {
+		return Executors.newCachedThreadPool(createThreadFactory());
+	}
+
+	/**
+	 * Creates a thread factory naming its daemon threads '[threadName] n'.
+	 *
+	 * @return the thread factory
+	 */
+	public ThreadFactory createThreadFactory() {
+		final String name = getThreadName();
+
+		return new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + " " + count.incrementAndGet());
+				t.setDaemon(true);
+
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Gets the ring size.
+	 *
+	 * @return the ring size
+	 */
+	public int getRingSize() {
+		return ringSize;
+	}
+
+	/**
+	 * Sets the ring size.
+	 *
+	 * @param ringSize
+	 *          the new ring size, must be a power of 2
+	 */
+	public void setRingSize(int ringSize) {
+		if (ringSize < 1 || Integer.bitCount(ringSize) != 1) {
+			throw new IllegalArgumentException("Ring size must be a power of 2: " + ringSize);
+		}
+
+		this.ringSize = ringSize;
+	}
+
+	/**
+	 * Gets the producer type.
+	 *
+	 * @return the producer type
+	 */
+	public ProducerType getProducerType() {
+		return producerType;
+	}
+
+	/**
+	 * Sets the producer type. Use {@link ProducerType#SINGLE} only if exactly
+	 * one thread will be publishing.
+	 *
+	 * @param producerType
+	 *          the new producer type
+	 */
+	public void setProducerType(ProducerType producerType) {
+		if (producerType == null) throw new IllegalArgumentException("Producer type must be specified");
+
+		this.producerType = producerType;
+	}
+
+	/**
+	 * Gets the wait strategy type.
+	 *
+	 * @return the wait strategy type
+	 */
+	public WaitStrategyType getWaitStrategyType() {
+		return waitStrategyType;
+	}
+
+	/**
+	 * Sets the wait strategy type.
+	 *
+	 * @param waitStrategyType
+	 *          the new wait strategy type
+	 */
+	public void setWaitStrategyType(WaitStrategyType waitStrategyType) {
+		if (waitStrategyType == null) throw new IllegalArgumentException("Wait strategy type must be specified");
+
+		this.waitStrategyType = waitStrategyType;
+	}
+
+	/**
+	 * Gets the thread name prefix.
+	 *
+	 * @return the thread name
+	 */
+	public String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * Sets the thread name prefix.
+	 *
+	 * @param threadName
+	 *          the new thread name
+	 */
+	public void setThreadName(String threadName) {
+		this.threadName = threadName == null ? DEFAULT_THREAD_NAME : threadName;
+	}
+
+	/**
+	 * Gets the sample capacity.
+	 *
+	 * @return the sample capacity
+	 */
+	public int getSampleCapacity() {
+		return sampleCapacity;
+	}
+
+	/**
+	 * Sets the size of the sample array preallocated for each ring buffer slot,
+	 * enabling primitive ingest. Set to the largest number of samples a single
+	 * device packet can contain; 0 (the default) disables primitive ingest.
+	 *
+	 * @param sampleCapacity
+	 *          the new sample capacity
+	 * @see MessageEvent
+	 * @see AbstractMultiConnectionSocket#publishSamples(double[], int, int, long)
+	 */
+	public void setSampleCapacity(int sampleCapacity) {
+		if (sampleCapacity < 0) throw new IllegalArgumentException("Sample capacity must be >= 0: " + sampleCapacity);
+
+		this.sampleCapacity = sampleCapacity;
+	}
+
+	/**
+	 * Gets the overflow policy.
+	 *
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Sets the overflow policy applied by the try publish methods when the ring
+	 * buffer is full.
+	 *
+	 * @param overflowPolicy
+	 *          the new overflow policy
+	 * @see AbstractMultiConnectionSocket#tryPublishMessage(Object)
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) throw new IllegalArgumentException("Overflow policy must be specified");
+
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "IngestConfiguration [ringSize=" + ringSize + ", producerType=" + producerType + ", waitStrategyType="
+				+ waitStrategyType + ", threadName=" + threadName + ", sampleCapacity=" + sampleCapacity
+				+ ", overflowPolicy=" + overflowPolicy + "]";
+	}
+
+}
@@ -22,7 +22,13 @@ package com.github.mrstampy.esp.multiconnectionsocket;
 /**
  * Disruptor event to pass EEG device messages from the device to the
  * {@link MultiConnectionSocket}'s message processing.
+ * 
+ * When created with a sample capacity > 0 each event owns a preallocated
+ * sample array into which raw samples are copied, allowing primitive ingest
+ * without allocation per device packet. The array is reused once the event
+ * has been processed and its contents must be copied out by the consumer.
  *
+ * @see IngestConfiguration#setSampleCapacity(int)
  * @author burton
  * @param <MESSAGE> the generic type
  */
@@ -30,6 +36,34 @@ public class MessageEvent<MESSAGE> {
 
 	private MESSAGE message;
 
+	private final double[] samples;
+
+	private int length;
+
+	private int channel;
+
+	private long timestampNanos;
+
+	private Object decoded;
+
+	private boolean dropped;
+
+	/**
+	 * Instantiates a new message event without a sample array.
+	 */
+	public MessageEvent() {
+		this(0);
+	}
+
+	/**
+	 * Instantiates a new message event.
+	 *
+	 * @param sampleCapacity the size of the preallocated sample array
+	 */
+	public MessageEvent(int sampleCapacity) {
+		samples = new double[sampleCapacity];
+	}
+
 	/**
 	 * Gets the message.
 	 *
@@ -46,6 +80,139 @@ public class MessageEvent<MESSAGE> {
 	 */
 	public void setMessage(MESSAGE message) {
 		this.message = message;
+		length = 0;
+	}
+
+	/**
+	 * Copies the samples into this event's preallocated array, clearing any
+	 * message.
+	 *
+	 * @param channel the channel number
+	 * @param src the source array
+	 * @param off the offset into the source array
+	 * @param len the number of samples to copy
+	 * @param timestampNanos the {@link System#nanoTime()} of the samples
+	 */
+	public void setSamples(int channel, double[] src, int off, int len, long timestampNanos) {
+		if (len > samples.length) {
+			throw new IllegalArgumentException("Sample length " + len + " exceeds capacity " + samples.length);
+		}
+
+		System.arraycopy(src, off, samples, 0, len);
+
+		message = null;
+		length = len;
+		this.channel = channel;
+		this.timestampNanos = timestampNanos;
+	}
+
+	/**
+	 * Returns the result of decoding the message, set by the decode stage for
+	 * the {@link AbstractProcessingStage}s.
+	 *
+	 * @param <T> the decoded type
+	 * @return the decoded
+	 * @see AbstractMultiConnectionSocket#decode(MessageEvent)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getDecoded() {
+		return (T) decoded;
+	}
+
+	/**
+	 * Sets the result of decoding the message.
+	 *
+	 * @param decoded the new decoded
+	 */
+	public void setDecoded(Object decoded) {
+		this.decoded = decoded;
+	}
+
+	/**
+	 * Returns true if the event was dropped by an overflow policy and should not
+	 * be processed.
+	 *
+	 * @return true, if is dropped
+	 */
+	public boolean isDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Sets the dropped.
+	 *
+	 * @param dropped the new dropped
+	 */
+	public void setDropped(boolean dropped) {
+		this.dropped = dropped;
+	}
+
+	/**
+	 * Copies the message or samples of the specified event into this event.
+	 *
+	 * @param other the event to copy
+	 */
+	public void copyFrom(MessageEvent<MESSAGE> other) {
+		if (other.hasSamples()) {
+			setSamples(other.getChannel(), other.getSamples(), 0, other.getLength(), other.getTimestampNanos());
+		} else {
+			setMessage(other.getMessage());
+			setTimestampNanos(other.getTimestampNanos());
+		}
+	}
+
+	/**
+	 * Returns true if this event contains samples rather than a message.
+	 *
+	 * @return true, if successful
+	 */
+	public boolean hasSamples() {
+		return length > 0;
+	}
+
+	/**
+	 * Returns the preallocated sample array, valid to {@link #getLength()}.
+	 *
+	 * @return the samples
+	 */
+	public double[] getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Returns the number of valid samples.
+	 *
+	 * @return the length
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the channel number of the samples.
+	 *
+	 * @return the channel
+	 */
+	public int getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns the {@link System#nanoTime()} of the samples.
+	 *
+	 * @return the timestamp nanos
+	 */
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	/**
+	 * Sets the {@link System#nanoTime()} the message was received.
+	 *
+	 * @param timestampNanos the new timestamp nanos
+	 */
+	public void setTimestampNanos(long timestampNanos) {
+		this.timestampNanos = timestampNanos;
 	}
 
 }
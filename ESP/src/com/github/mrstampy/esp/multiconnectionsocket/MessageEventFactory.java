@@ -28,12 +28,32 @@ import com.lmax.disruptor.EventFactory;
  */
 public class MessageEventFactory<MESSAGE> implements EventFactory<MessageEvent<MESSAGE>> {
 
+	private final int sampleCapacity;
+
+	/**
+	 * Instantiates a new message event factory creating events without a sample
+	 * array.
+	 */
+	public MessageEventFactory() {
+		this(0);
+	}
+
+	/**
+	 * Instantiates a new message event factory.
+	 *
+	 * @param sampleCapacity the size of each event's preallocated sample array
+	 * @see MessageEvent
+	 */
+	public MessageEventFactory(int sampleCapacity) {
+		this.sampleCapacity = sampleCapacity;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.lmax.disruptor.EventFactory#newInstance()
 	 */
 	@Override
 	public MessageEvent<MESSAGE> newInstance() {
-		return new MessageEvent<MESSAGE>();
+		return new MessageEvent<MESSAGE>(sampleCapacity);
 	}
 
 }
@@ -22,18 +22,63 @@ import java.util.Arrays;
 
 import javolution.util.ReentrantLock;
 
+import com.github.mrstampy.esp.util.Fences;
+
 // TODO: Auto-generated Javadoc
 /**
- * The Class MovingWindowBuffer.
+ * A fixed capacity circular buffer of the most recent samples added. Adds
+ * write in place with wrap around, allocating nothing once the window is
+ * full. Snapshots are lock free; a sequence lock (the version, odd whilst a
+ * write is in progress, with {@link Fences} ordering the samples around it)
+ * allows any number of threads to take consistent snapshots while a single
+ * thread adds samples. Mutators are serialized so that {@link #resize(int)}
+ * and {@link #clear()} may be invoked from a thread other than the
+ * writer's.<br>
+ * <br>
+ * Blocks added with a timestamp are recorded in a sparse time index, a
+ * circular buffer of (timestamp, block start, block end) entries allocated on
+ * the first timed add, allowing the samples received in a time range to be
+ * fetched with {@link #snapshot(long, long, double[])} by binary search rather
+ * than by scanning the window. At most {@link #INDEX_ENTRIES} blocks spread
+ * over the window are indexed, whatever its capacity; the times of samples
+ * between indexed blocks are interpolated.<br>
+ * <br>
+ * Every sample added is assigned the next value of a monotonically increasing
+ * write sequence. Streaming consumers read only the samples added since their
+ * previous read with {@link #readSince(SequenceCursor, double[])}.
  */
 public class MovingWindowBuffer {
 
-	private volatile double[] buffer;
+	/**
+	 * The maximum number of blocks indexed over the window. Windows of no more
+	 * than this capacity index every block and so are exact.
+	 */
+	public static final int INDEX_ENTRIES = 1024;
+
+	private volatile WindowStorage storage;
 
-	private volatile int idx;
+	private int head;
+
+	private int count;
+
+	private long written;
+
+	private long[] indexTimes;
+
+	private long[] indexPositions;
+
+	private long[] indexEnds;
+
+	private int indexHead;
+
+	private int indexSize;
+
+	private long lastTime;
+
+	private long lastPosition = -1;
+
+	private volatile long version;
 
-	private volatile int capacity;
-	
 	private ReentrantLock lock = new ReentrantLock();
 
 	/**
@@ -42,9 +87,16 @@ public class MovingWindowBuffer {
 	 * @param capacity the capacity
 	 */
 	public MovingWindowBuffer(int capacity) {
-		this.capacity = capacity;
-		buffer = new double[capacity];
-		idx = 0;
+		this(new WindowStorage.Heap(capacity));
+	}
+
+	/**
+	 * Instantiates a new moving window buffer with the specified storage.
+	 *
+	 * @param storage the storage
+	 */
+	MovingWindowBuffer(WindowStorage storage) {
+		this.storage = storage;
 	}
 
 	/**
@@ -53,73 +105,501 @@ public class MovingWindowBuffer {
 	 * @param values the values
 	 */
 	public void addAll(double... values) {
-		if (idx > capacity - values.length) {
-			int offset = values.length - (capacity - idx);
+		addAll(values, 0, values.length);
+	}
 
-			shift(offset);
-			idx -= offset;
-		}
+	/**
+	 * Adds the specified range of values.
+	 *
+	 * @param values the values
+	 * @param off the offset into the values
+	 * @param len the number of values to add
+	 */
+	public void addAll(double[] values, int off, int len) {
+		addAll(values, off, len, false, 0);
+	}
 
-		System.arraycopy(values, 0, buffer, idx, values.length);
-		idx += values.length;
+	/**
+	 * Adds the specified range of values received at the specified nanoTime,
+	 * recording the block in the time index. Timestamps are expected to be
+	 * non decreasing; any earlier than the previous block's are taken to be
+	 * the previous block's.
+	 *
+	 * @param values the values
+	 * @param off the offset into the values
+	 * @param len the number of values to add
+	 * @param timestampNanos the {@link System#nanoTime()} the values were
+	 *          received
+	 */
+	public void addAll(double[] values, int off, int len, long timestampNanos) {
+		addAll(values, off, len, true, timestampNanos);
+	}
+
+	private void addAll(double[] values, int off, int len, boolean timed, long timestampNanos) {
+		if (len <= 0) return;
+
+		lock.lock();
+		try {
+			WindowStorage buf = storage;
+			int capacity = buf.capacity();
+
+			version++;
+			Fences.storeFence();
+
+			long position = written;
+			written += len;
+
+			if (len > capacity) {
+				off += len - capacity;
+				len = capacity;
+			}
+
+			if (timed) {
+				index(timestampNanos, position, written, capacity);
+			} else {
+				extendIndex();
+			}
+
+			int first = Math.min(len, capacity - head);
+			buf.put(head, values, off, first);
+			if (first < len) buf.put(0, values, off + first, len - first);
+
+			head = (head + len) % capacity;
+			count = Math.min(capacity, count + len);
+
+			version++;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
-	 * Snapshot.
+	 * Returns the window, oldest sample first. Should the window not yet be full
+	 * the trailing values are 0.
 	 *
 	 * @return the double[]
 	 */
 	public double[] snapshot() {
-		double[] snap = new double[capacity];
-		System.arraycopy(buffer, 0, snap, 0, capacity);
+		double[] snap = null;
+
+		for (;;) {
+			long v = awaitStableVersion();
+
+			WindowStorage buf = storage;
+			int capacity = buf.capacity();
+			int h = head;
+			int c = count;
+			if (h >= capacity || c > capacity) continue;
+
+			if (snap == null || snap.length != capacity) snap = new double[capacity];
 
-		return snap;
+			copyWindow(buf, h, c, snap, capacity);
+
+			if (validate(v)) return snap;
+		}
 	}
 
 	/**
-	 * Resize.
+	 * Copies the window into the specified array, oldest sample first, returning
+	 * the number of values copied ie. the capacity. Allocates nothing; the array
+	 * must be at least {@link #getCapacity()} in length.
 	 *
-	 * @param newSize the new size
+	 * @param dest the destination array
+	 * @return the number of values copied
 	 */
-	public void resize(int newSize) {
-		if(newSize == capacity) return;
-		
-		double[] newBuf = new double[newSize];
+	public int snapshot(double[] dest) {
+		int n = trySnapshot(dest);
+		if (n < 0) throw new IllegalArgumentException("Destination length " + dest.length + " < capacity " + -n);
+
+		return n;
+	}
+
+	/**
+	 * Copies the window as {@link #snapshot(double[])} does, returning the
+	 * negated capacity rather than throwing should dest be too short.
+	 *
+	 * @param dest the destination array
+	 * @return the number of values copied, or the negated capacity
+	 * @see WindowView#refresh()
+	 */
+	int trySnapshot(double[] dest) {
+		for (;;) {
+			long v = awaitStableVersion();
+
+			WindowStorage buf = storage;
+			int capacity = buf.capacity();
+			int h = head;
+			int c = count;
+			if (h >= capacity || c > capacity) continue;
+
+			if (dest.length < capacity) {
+				if (!validate(v)) continue;
+				return -capacity;
+			}
+
+			copyWindow(buf, h, c, dest, capacity);
+
+			if (validate(v)) return capacity;
+		}
+	}
+
+	/**
+	 * Copies the samples of the blocks timestamped in the range [fromNanos,
+	 * toNanos) still in the window into the specified array, oldest first,
+	 * returning the number of samples copied. Samples added without a timestamp
+	 * are taken to have been received with the preceding timed block. The time
+	 * index is binary searched, the range being exact for indexed blocks and
+	 * interpolated for samples between them; a destination array of
+	 * {@link #getCapacity()} will always suffice.
+	 *
+	 * @param fromNanos the start of the range, inclusive
+	 * @param toNanos the end of the range, exclusive
+	 * @param dest the destination array
+	 * @return the number of samples copied
+	 * @throws IllegalArgumentException if dest is too short for the samples in
+	 *           the range
+	 */
+	public int snapshot(long fromNanos, long toNanos, double[] dest) {
+		for (;;) {
+			long v = awaitStableVersion();
+
+			WindowStorage buf = storage;
+			int capacity = buf.capacity();
+			int h = head;
+			int c = count;
+			long w = written;
+			long[] times = indexTimes;
+			long[] positions = indexPositions;
+			long[] ends = indexEnds;
+			int ih = indexHead;
+			int is = indexSize;
+			long lt = lastTime;
+			long lp = lastPosition;
+			if (h >= capacity || c > capacity) continue;
+			if (times == null || is == 0) {
+				if (validate(v)) return 0;
+				continue;
+			}
+			if (times.length != positions.length || times.length != ends.length || ih >= times.length
+					|| is > times.length) {
+				continue;
+			}
 
-		int offset = newSize < capacity ? capacity - newSize : 0;
+			long start = positionAt(fromNanos, times, positions, ends, ih, is, lt, lp, w);
+			long end = positionAt(toNanos, times, positions, ends, ih, is, lt, lp, w);
+			start = Math.max(start, w - c);
 
-		System.arraycopy(buffer, offset, newBuf, 0, Math.min(capacity, newSize));
+			int length = end > start ? (int) (end - start) : 0;
+			if (length > c) continue;
+			if (length > dest.length) {
+				if (!validate(v)) continue;
+				throw new IllegalArgumentException("Destination length " + dest.length + " < range length " + length);
+			}
 
+			int pos = h - (int) (w - start);
+			if (pos < 0) pos += capacity;
+			copyRange(buf, pos, length, dest);
+
+			if (validate(v)) return length;
+		}
+	}
+
+	/**
+	 * Copies the samples written since the cursor's sequence, oldest first, into
+	 * the specified array and advances the cursor past them, returning the
+	 * number of samples copied. Should more samples be available than dest can
+	 * hold the oldest are copied, the remainder being returned by the next
+	 * read. Samples overwritten before being read are skipped and counted by
+	 * {@link SequenceCursor#getMissed()}.
+	 *
+	 * @param cursor the consumer's cursor
+	 * @param dest the destination array
+	 * @return the number of samples copied
+	 * @throws IllegalArgumentException if the cursor is beyond
+	 *           {@link #getSequence()}
+	 */
+	public int readSince(SequenceCursor cursor, double[] dest) {
+		long sequence = cursor.getSequence();
+
+		for (;;) {
+			long v = awaitStableVersion();
+
+			WindowStorage buf = storage;
+			int capacity = buf.capacity();
+			int h = head;
+			int c = count;
+			long w = written;
+			if (h >= capacity || c > capacity) continue;
+
+			if (sequence > w) {
+				if (!validate(v)) continue;
+				throw new IllegalArgumentException("Cursor sequence " + sequence + " > buffer sequence " + w);
+			}
+
+			long start = Math.max(sequence, w - c);
+			int length = (int) Math.min(w - start, dest.length);
+
+			int pos = h - (int) (w - start);
+			if (pos < 0) pos += capacity;
+			copyRange(buf, pos, length, dest);
+
+			if (validate(v)) {
+				cursor.advance(start + length, start - sequence);
+				return length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the write sequence, the total number of samples added to this
+	 * buffer and hence the sequence of the next sample.
+	 *
+	 * @return the sequence
+	 */
+	public long getSequence() {
+		for (;;) {
+			long v = awaitStableVersion();
+			long w = written;
+			if (validate(v)) return w;
+		}
+	}
+
+	/**
+	 * Creates a read only view of this buffer's window for a consumer which
+	 * reuses the view's array for each {@link WindowView#refresh()}.
+	 *
+	 * @return the window view
+	 */
+	public WindowView createView() {
+		return new WindowView(this);
+	}
+
+	/**
+	 * Returns the capacity.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return storage.capacity();
+	}
+
+	/**
+	 * Resize, retaining the most recent samples.
+	 *
+	 * @param newSize the new size
+	 */
+	public void resize(int newSize) {
 		lock.lock();
 		try {
-			buffer = newBuf;
+			WindowStorage buf = storage;
+			if (newSize == buf.capacity()) return;
+
+			WindowStorage newBuf = buf.create(newSize);
+			int newCount = Math.min(count, newSize);
+
+			int start = head - newCount;
+			if (start < 0) start += buf.capacity();
+			int first = Math.min(newCount, buf.capacity() - start);
+			buf.copyTo(start, newBuf, 0, first);
+			if (first < newCount) buf.copyTo(0, newBuf, first, newCount - first);
+
+			long[] newTimes = null;
+			long[] newPositions = null;
+			long[] newEnds = null;
+			int newIndexSize = 0;
+			int newIndexLength = indexLength(newSize);
+			if (indexTimes != null) {
+				newTimes = new long[newIndexLength];
+				newPositions = new long[newIndexLength];
+				newEnds = new long[newIndexLength];
+				newIndexSize = Math.min(indexSize, newIndexLength);
+				for (int i = 0; i < newIndexSize; i++) {
+					int idx = ringIndex(indexHead, indexSize, indexSize - newIndexSize + i, indexTimes.length);
+					newTimes[i] = indexTimes[idx];
+					newPositions[i] = indexPositions[idx];
+					newEnds[i] = indexEnds[idx];
+				}
+			}
+
+			version++;
+			Fences.storeFence();
+
+			storage = newBuf;
+			count = newCount;
+			head = newCount % newSize;
+
+			indexTimes = newTimes;
+			indexPositions = newPositions;
+			indexEnds = newEnds;
+			indexSize = newIndexSize;
+			indexHead = newIndexSize % newIndexLength;
+
+			version++;
+
+			buf.release();
 		} finally {
 			lock.unlock();
 		}
-		
-		capacity = newSize;
-
-		idx = Math.min(idx, newSize - 1);
 	}
 	
 	/**
 	 * Clear.
 	 */
 	public void clear() {
-		Arrays.fill(buffer, 0);
-	}
-
-	private void shift(int howMuch) {
-		double[] newBuf = new double[capacity];
-
-		System.arraycopy(buffer, howMuch, newBuf, 0, capacity - howMuch);
-
 		lock.lock();
 		try {
-			buffer = newBuf;
+			version++;
+			Fences.storeFence();
+
+			storage.clear();
+			head = 0;
+			count = 0;
+			indexHead = 0;
+			indexSize = 0;
+			lastPosition = -1;
+
+			version++;
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Returns the storage, for subclasses.
+	 *
+	 * @return the storage
+	 */
+	WindowStorage getStorage() {
+		return storage;
+	}
+
+	private boolean validate(long v) {
+		Fences.loadFence();
+		return v == version;
+	}
+
+	private long awaitStableVersion() {
+		long v = version;
+		while ((v & 1) != 0) {
+			Thread.yield();
+			v = version;
+		}
+
+		return v;
+	}
+
+	/*
+	 * Records the block as the latest timed block, appending it to the index
+	 * should it start at least a stride after the last indexed block. The
+	 * stride spreads at most INDEX_ENTRIES entries over the window; the index
+	 * holds two more so that the window is always covered.
+	 */
+	private void index(long timestampNanos, long position, long end, int capacity) {
+		if (lastPosition >= 0 && timestampNanos < lastTime) timestampNanos = lastTime;
+
+		lastTime = timestampNanos;
+		lastPosition = position;
+
+		if (indexTimes == null) {
+			int length = indexLength(capacity);
+			indexTimes = new long[length];
+			indexPositions = new long[length];
+			indexEnds = new long[length];
+		}
+
+		if (indexSize > 0) {
+			int last = ringIndex(indexHead, indexSize, indexSize - 1, indexTimes.length);
+			int stride = (capacity + INDEX_ENTRIES - 1) / INDEX_ENTRIES;
+			if (position - indexPositions[last] < stride) return;
+		}
+
+		indexTimes[indexHead] = timestampNanos;
+		indexPositions[indexHead] = position;
+		indexEnds[indexHead] = end;
+
+		indexHead = (indexHead + 1) % indexTimes.length;
+		if (indexSize < indexTimes.length) indexSize++;
+	}
+
+	/*
+	 * Untimed samples following the latest timed block, if indexed, belong to
+	 * it.
+	 */
+	private void extendIndex() {
+		if (indexSize == 0) return;
+
+		int last = ringIndex(indexHead, indexSize, indexSize - 1, indexTimes.length);
+		if (indexPositions[last] == lastPosition) indexEnds[last] = written;
+	}
+
+	private static int indexLength(int capacity) {
+		return Math.min(capacity, INDEX_ENTRIES) + 2;
+	}
+
+	/*
+	 * The position of the first sample received at or after t. Entries are the
+	 * indexed blocks followed, if not indexed, by the latest timed block which
+	 * ends at w. Samples between one entry's end and the next entry's start are
+	 * taken to have been received evenly between the entries' times.
+	 */
+	private static long positionAt(long t, long[] times, long[] positions, long[] ends, int ih, int is,
+			long lastTime, long lastPosition, long w) {
+		int length = times.length;
+		boolean tail = lastPosition > positions[ringIndex(ih, is, is - 1, length)];
+		int n = tail ? is + 1 : is;
+
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			long time = mid < is ? times[ringIndex(ih, is, mid, length)] : lastTime;
+			if (time < t) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+
+		if (lo == n) return w;
+
+		long start = lo < is ? positions[ringIndex(ih, is, lo, length)] : lastPosition;
+		if (lo == 0) return start;
+
+		int prev = ringIndex(ih, is, lo - 1, length);
+		long gapStart = ends[prev];
+		long gap = start - gapStart;
+		if (gap <= 0) return start;
+
+		long t0 = times[prev];
+		long t1 = lo < is ? times[ringIndex(ih, is, lo, length)] : lastTime;
+
+		long k = (long) Math.ceil((double) (t - t0) * (gap + 1) / (t1 - t0)) - 1;
+
+		return gapStart + Math.max(0, Math.min(gap, k));
+	}
+
+	private static int ringIndex(int head, int size, int i, int length) {
+		int idx = head - size + i;
+		return idx < 0 ? idx + length : idx;
+	}
+
+	/*
+	 * Copies the count samples ending before head, oldest first, into dest,
+	 * zeroing any remainder up to length.
+	 */
+	private static void copyWindow(WindowStorage buf, int head, int count, double[] dest, int length) {
+		int start = head - count;
+		if (start < 0) start += buf.capacity();
+
+		copyRange(buf, start, count, dest);
+
+		if (count < length) Arrays.fill(dest, count, length, 0);
+	}
+
+	private static void copyRange(WindowStorage buf, int start, int count, double[] dest) {
+		int first = Math.min(count, buf.capacity() - start);
+		buf.get(start, dest, 0, first);
+		if (first < count) buf.get(0, dest, first, count - first);
+	}
+
 }
@@ -0,0 +1,245 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.esp.dsp.MultiChannelSignalAggregator;
+import com.github.mrstampy.esp.dsp.lab.AbstractMultiChannelRawEspConnection;
+import com.github.mrstampy.esp.dsp.lab.RawEspConnection;
+
+/**
+ * The multi channel counterpart of {@link RawDataSampleBuffer}: rather than a
+ * buffer per channel, each receiving its own publish of a frame's sample,
+ * frames of all channels are published once and written once to a
+ * {@link MultiChannelWindowBuffer}. Snapshots of any or all channels are taken
+ * at the same frame, and {@link #getCurrent(double[])} provides a contiguous
+ * channel major copy of all channels, sampled by a
+ * {@link MultiChannelSignalAggregator} for the
+ * {@link RawEspConnection#getCurrentFor(int)} implementation of
+ * {@link AbstractMultiChannelRawEspConnection}. Channels are indexed from 0
+ * here, channel numbers of the connection starting at 1. Add as a
+ * {@link ConnectionEventListener} to the {@link AbstractMultiConnectionSocket}.
+ *
+ * @author burton
+ * @param <SAMPLE> the generic type
+ */
+public abstract class MultiChannelSampleBuffer<SAMPLE> extends AbstractSampleBuffer<SAMPLE> {
+	private static final Logger log = LoggerFactory.getLogger(MultiChannelSampleBuffer.class);
+
+	private final MultiChannelWindowBuffer window;
+
+	private final double[] partial;
+
+	private int partialLength;
+
+	/**
+	 * Instantiates a new multi channel sample buffer with the default
+	 * {@link IngestConfiguration}.
+	 *
+	 * @param numChannels the number of channels
+	 * @param bufferSize the buffer size in frames
+	 */
+	protected MultiChannelSampleBuffer(int numChannels, int bufferSize) {
+		this(numChannels, bufferSize, new IngestConfiguration());
+	}
+
+	/**
+	 * Instantiates a new multi channel sample buffer.
+	 *
+	 * @param numChannels the number of channels
+	 * @param bufferSize the buffer size in frames
+	 * @param ingestConfiguration the Disruptor topology used to add frames
+	 */
+	protected MultiChannelSampleBuffer(int numChannels, int bufferSize, IngestConfiguration ingestConfiguration) {
+		super(ingestConfiguration);
+		window = new MultiChannelWindowBuffer(numChannels, bufferSize);
+		partial = new double[numChannels];
+	}
+
+	/**
+	 * Adds a frame, one sample per channel. The array is passed by reference
+	 * and must not be reused by the caller.
+	 *
+	 * @param frame the frame
+	 */
+	protected void addFrameImpl(double... frame) {
+		addFrameImpl(frame, System.nanoTime());
+	}
+
+	/**
+	 * Adds a frame received at the specified nanoTime.
+	 *
+	 * @param frame the frame
+	 * @param timestampNanos the {@link System#nanoTime()} of the frame
+	 */
+	protected void addFrameImpl(double[] frame, long timestampNanos) {
+		if (frame.length != getNumChannels()) {
+			throw new IllegalArgumentException("Frame length " + frame.length + " != channels " + getNumChannels());
+		}
+
+		publish(frame, timestampNanos);
+	}
+
+	/**
+	 * Copies the interleaved frames into the preallocated array of the next ring
+	 * buffer slot, allowing the caller to reuse the source array. Requires an
+	 * {@link IngestConfiguration#getSampleCapacity()} >= numFrames *
+	 * {@link #getNumChannels()}.
+	 *
+	 * @param interleaved the interleaved samples
+	 * @param off the offset into the samples
+	 * @param numFrames the number of frames
+	 * @param timestampNanos the {@link System#nanoTime()} of the frames
+	 * @see MultiChannelWindowBuffer#addFrames(double[], int, int)
+	 */
+	protected void addFramesImpl(double[] interleaved, int off, int numFrames, long timestampNanos) {
+		if (numFrames <= 0) return;
+
+		int len = numFrames * getNumChannels();
+		checkSampleCapacity(len);
+
+		publish(interleaved, off, len, timestampNanos);
+	}
+
+	/**
+	 * Returns the current window of all channels, one array per channel.
+	 *
+	 * @return the current
+	 */
+	public double[][] getCurrent() {
+		return window.snapshot();
+	}
+
+	/**
+	 * Copies the current window of all channels into the array, channel major,
+	 * returning the number of frames per channel. The array must be at least
+	 * {@link #getNumChannels()} * {@link #getBufferSize()} in length.
+	 *
+	 * @param dest the destination array
+	 * @return the number of frames
+	 * @see MultiChannelWindowBuffer#snapshotChannelMajor(double[])
+	 */
+	public int getCurrent(double[] dest) {
+		return window.snapshotChannelMajor(dest);
+	}
+
+	/**
+	 * Returns the current window of the specified channel.
+	 *
+	 * @param channel the channel index
+	 * @return the current for
+	 */
+	public double[] getCurrentFor(int channel) {
+		return window.snapshot(channel);
+	}
+
+	/**
+	 * Copies the current window of the specified channel into the array,
+	 * returning the number of samples.
+	 *
+	 * @param channel the channel index
+	 * @param dest the destination array, at least {@link #getBufferSize()} long
+	 * @return the number of samples
+	 */
+	public int getCurrentFor(int channel, double[] dest) {
+		return window.snapshot(channel, dest);
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		window.clear();
+	}
+
+	/**
+	 * Gets the num channels.
+	 *
+	 * @return the num channels
+	 */
+	public int getNumChannels() {
+		return window.getNumChannels();
+	}
+
+	/**
+	 * Returns the buffer size in frames.
+	 *
+	 * @return the buffer size
+	 */
+	public int getBufferSize() {
+		return window.getCapacity();
+	}
+
+	/**
+	 * Adds the event's frames to the window, invoked on the Disruptor thread. A
+	 * trailing partial frame is carried into the next event.
+	 *
+	 * @param event the event
+	 */
+	void ingest(MessageEvent<double[]> event) {
+		double[] samples;
+		int len;
+		if (event.hasSamples()) {
+			samples = event.getSamples();
+			len = event.getLength();
+		} else {
+			samples = event.getMessage();
+			len = samples.length;
+		}
+
+		int numChannels = getNumChannels();
+		int off = 0;
+		int numFrames = 0;
+
+		if (partialLength > 0) {
+			off = Math.min(numChannels - partialLength, len);
+			System.arraycopy(samples, 0, partial, partialLength, off);
+			partialLength += off;
+
+			if (partialLength < numChannels) return;
+
+			window.addFrame(partial);
+			partialLength = 0;
+			numFrames++;
+		}
+
+		int whole = (len - off) / numChannels;
+		window.addFrames(samples, off, whole);
+		numFrames += whole;
+
+		off += whole * numChannels;
+		partialLength = len - off;
+		if (partialLength > 0) System.arraycopy(samples, off, partial, 0, partialLength);
+
+		autoSize(event.getTimestampNanos(), numFrames);
+	}
+
+	int getWindowCapacity() {
+		return window.getCapacity();
+	}
+
+	void resize(int newSize) {
+		log.info("Resizing buffer to {}", newSize);
+
+		window.resize(newSize);
+	}
+
+}
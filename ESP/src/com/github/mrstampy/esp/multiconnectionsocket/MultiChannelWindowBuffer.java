@@ -0,0 +1,389 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.Arrays;
+
+import javolution.util.ReentrantLock;
+
+import com.github.mrstampy.esp.util.Fences;
+
+/**
+ * A fixed capacity circular buffer of the most recent frames of a multi
+ * channel device, a frame being one sample per channel. Samples are stored as
+ * a structure of arrays: a single array holding each channel's circular buffer
+ * contiguously, channel 0 first. A frame is added with one write and all
+ * snapshots, whether of one channel or all, are of the same frames, so
+ * channels are always aligned to the same instant.<br>
+ * <br>
+ * As with {@link MovingWindowBuffer} snapshots are lock free; a sequence lock
+ * allows any number of threads to take consistent snapshots while a single
+ * thread adds frames, and mutators are serialized.
+ *
+ * @author burton
+ * @see MultiChannelSampleBuffer
+ */
+public class MultiChannelWindowBuffer {
+
+	private final int numChannels;
+
+	private volatile double[] data;
+
+	private int head;
+
+	private int count;
+
+	private volatile long version;
+
+	private ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Instantiates a new multi channel window buffer.
+	 *
+	 * @param numChannels the number of channels
+	 * @param capacity the capacity in frames
+	 */
+	public MultiChannelWindowBuffer(int numChannels, int capacity) {
+		if (numChannels < 1) throw new IllegalArgumentException("Number of channels must be > 0: " + numChannels);
+		checkCapacity(capacity);
+
+		this.numChannels = numChannels;
+		data = new double[numChannels * capacity];
+	}
+
+	/**
+	 * Adds a frame of {@link #getNumChannels()} samples.
+	 *
+	 * @param frame the frame
+	 */
+	public void addFrame(double... frame) {
+		addFrames(frame, 0, 1);
+	}
+
+	/**
+	 * Adds the specified number of frames from an array of interleaved samples
+	 * ie. frame 0 channel 0, frame 0 channel 1 .. frame 1 channel 0 etc.
+	 *
+	 * @param interleaved the interleaved samples
+	 * @param off the offset into the samples
+	 * @param numFrames the number of frames
+	 */
+	public void addFrames(double[] interleaved, int off, int numFrames) {
+		if (numFrames <= 0) return;
+
+		lock.lock();
+		try {
+			double[] buf = data;
+			int capacity = buf.length / numChannels;
+			if (numFrames > capacity) {
+				off += (numFrames - capacity) * numChannels;
+				numFrames = capacity;
+			}
+
+			version++;
+			Fences.storeFence();
+
+			int h = head;
+			for (int f = 0; f < numFrames; f++) {
+				int src = off + f * numChannels;
+				for (int c = 0, pos = h; c < numChannels; c++, pos += capacity) {
+					buf[pos] = interleaved[src + c];
+				}
+
+				if (++h == capacity) h = 0;
+			}
+
+			head = h;
+			count = Math.min(capacity, count + numFrames);
+
+			version++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the window, one array per channel of {@link #getCapacity()}
+	 * samples, oldest first. Should the window not yet be full the trailing
+	 * values are 0.
+	 *
+	 * @return the double[][]
+	 */
+	public double[][] snapshot() {
+		double[][] snap = null;
+
+		for (;;) {
+			long v = awaitStableVersion();
+
+			double[] buf = data;
+			int capacity = buf.length / numChannels;
+			int h = head;
+			int c = count;
+			if (h >= capacity || c > capacity) continue;
+
+			if (snap == null || snap[0].length != capacity) snap = new double[numChannels][capacity];
+
+			for (int ch = 0; ch < numChannels; ch++) {
+				copyChannel(buf, capacity, ch, h, c, snap[ch], 0, capacity);
+			}
+
+			if (validate(v)) return snap;
+		}
+	}
+
+	/**
+	 * Returns the window of the specified channel, {@link #getCapacity()}
+	 * samples oldest first.
+	 *
+	 * @param channel the channel, 0 based
+	 * @return the double[]
+	 */
+	public double[] snapshot(int channel) {
+		checkChannel(channel);
+
+		double[] snap = null;
+
+		for (;;) {
+			long v = awaitStableVersion();
+
+			double[] buf = data;
+			int capacity = buf.length / numChannels;
+			int h = head;
+			int c = count;
+			if (h >= capacity || c > capacity) continue;
+
+			if (snap == null || snap.length != capacity) snap = new double[capacity];
+
+			copyChannel(buf, capacity, channel, h, c, snap, 0, capacity);
+
+			if (validate(v)) return snap;
+		}
+	}
+
+	/**
+	 * Copies the window into the specified arrays, one per channel, oldest
+	 * first, returning the number of frames copied ie. the capacity. Each array
+	 * must be at least {@link #getCapacity()} in length.
+	 *
+	 * @param dest the destination arrays
+	 * @return the number of frames copied
+	 */
+	public int snapshot(double[][] dest) {
+		if (dest.length < numChannels) {
+			throw new IllegalArgumentException("Destination channels " + dest.length + " < " + numChannels);
+		}
+
+		for (;;) {
+			long v = awaitStableVersion();
+
+			double[] buf = data;
+			int capacity = buf.length / numChannels;
+			int h = head;
+			int c = count;
+			if (h >= capacity || c > capacity) continue;
+
+			for (int ch = 0; ch < numChannels; ch++) {
+				if (dest[ch].length < capacity) {
+					if (!validate(v)) break;
+					throw new IllegalArgumentException("Destination length " + dest[ch].length + " < capacity " + capacity);
+				}
+
+				copyChannel(buf, capacity, ch, h, c, dest[ch], 0, capacity);
+			}
+
+			if (validate(v)) return capacity;
+		}
+	}
+
+	/**
+	 * Copies the specified channel's window into the array, oldest first,
+	 * returning the number of samples copied ie. the capacity.
+	 *
+	 * @param channel the channel, 0 based
+	 * @param dest the destination array, at least {@link #getCapacity()} long
+	 * @return the number of samples copied
+	 */
+	public int snapshot(int channel, double[] dest) {
+		checkChannel(channel);
+
+		for (;;) {
+			long v = awaitStableVersion();
+
+			double[] buf = data;
+			int capacity = buf.length / numChannels;
+			int h = head;
+			int c = count;
+			if (h >= capacity || c > capacity) continue;
+
+			if (dest.length < capacity) {
+				if (!validate(v)) continue;
+				throw new IllegalArgumentException("Destination length " + dest.length + " < capacity " + capacity);
+			}
+
+			copyChannel(buf, capacity, channel, h, c, dest, 0, capacity);
+
+			if (validate(v)) return capacity;
+		}
+	}
+
+	/**
+	 * Copies the window of all channels into a single array, channel major ie.
+	 * channel 0's {@link #getCapacity()} samples oldest first, then channel 1's
+	 * etc., returning the number of frames copied. The array must be at least
+	 * {@link #getNumChannels()} * {@link #getCapacity()} in length.
+	 *
+	 * @param dest the destination array
+	 * @return the number of frames copied
+	 */
+	public int snapshotChannelMajor(double[] dest) {
+		for (;;) {
+			long v = awaitStableVersion();
+
+			double[] buf = data;
+			int capacity = buf.length / numChannels;
+			int h = head;
+			int c = count;
+			if (h >= capacity || c > capacity) continue;
+
+			if (dest.length < buf.length) {
+				if (!validate(v)) continue;
+				throw new IllegalArgumentException("Destination length " + dest.length + " < " + buf.length);
+			}
+
+			for (int ch = 0; ch < numChannels; ch++) {
+				copyChannel(buf, capacity, ch, h, c, dest, ch * capacity, capacity);
+			}
+
+			if (validate(v)) return capacity;
+		}
+	}
+
+	/**
+	 * Gets the number of channels.
+	 *
+	 * @return the num channels
+	 */
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the capacity in frames.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return data.length / numChannels;
+	}
+
+	/**
+	 * Resize, retaining the most recent frames.
+	 *
+	 * @param newSize the new size in frames
+	 */
+	public void resize(int newSize) {
+		checkCapacity(newSize);
+
+		lock.lock();
+		try {
+			double[] buf = data;
+			int capacity = buf.length / numChannels;
+			if (newSize == capacity) return;
+
+			double[] newBuf = new double[numChannels * newSize];
+			int newCount = Math.min(count, newSize);
+
+			for (int ch = 0; ch < numChannels; ch++) {
+				copyChannel(buf, capacity, ch, head, newCount, newBuf, ch * newSize, newSize);
+			}
+
+			version++;
+			Fences.storeFence();
+
+			data = newBuf;
+			count = newCount;
+			head = newCount % newSize;
+
+			version++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			version++;
+			Fences.storeFence();
+
+			Arrays.fill(data, 0);
+			head = 0;
+			count = 0;
+
+			version++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkChannel(int channel) {
+		if (channel < 0 || channel >= numChannels) throw new IllegalArgumentException("No channel " + channel);
+	}
+
+	private boolean validate(long v) {
+		Fences.loadFence();
+		return v == version;
+	}
+
+	private long awaitStableVersion() {
+		long v = version;
+		while ((v & 1) != 0) {
+			Thread.yield();
+			v = version;
+		}
+
+		return v;
+	}
+
+	private static void checkCapacity(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+	}
+
+	/*
+	 * Copies the count samples of the channel ending before head, oldest first,
+	 * into dest from destPos, zeroing any remainder up to length.
+	 */
+	private static void copyChannel(double[] buf, int capacity, int channel, int head, int count, double[] dest,
+			int destPos, int length) {
+		int base = channel * capacity;
+
+		int start = head - count;
+		if (start < 0) start += capacity;
+
+		int first = Math.min(count, capacity - start);
+		System.arraycopy(buf, base + start, dest, destPos, first);
+		if (first < count) System.arraycopy(buf, base, dest, destPos + first, count - first);
+
+		if (count < length) Arrays.fill(dest, destPos + count, destPos + length, 0);
+	}
+
+}
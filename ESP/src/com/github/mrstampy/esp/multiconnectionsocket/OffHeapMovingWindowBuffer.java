@@ -0,0 +1,240 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MovingWindowBuffer} whose samples are stored outside the Java heap
+ * in direct {@link ByteBuffer}s, for long histories (minutes of samples per
+ * channel) which would otherwise bloat the old generation and lengthen garbage
+ * collection pauses. The addAll/snapshot/resize contract is unchanged.<br>
+ * <br>
+ * Direct memory is limited both per buffer (the maximum capacity) and in total
+ * across all instances. Set the system property 'esp.offheap.max.bytes' on
+ * startup or invoke {@link #setMaxTotalBytes(long)} to change the total from
+ * the default of 512MB ie. -Desp.offheap.max.bytes=1073741824. Invoke
+ * {@link #dispose()} when the buffer is no longer required to return its
+ * allocation to the total; the memory itself is freed once the buffer is
+ * garbage collected.
+ *
+ * @author burton
+ */
+public class OffHeapMovingWindowBuffer extends MovingWindowBuffer {
+
+	/**
+	 * Set the system property 'esp.offheap.max.bytes' on startup to change the
+	 * maximum total bytes of direct memory used by all instances.
+	 */
+	public static final String MAX_TOTAL_BYTES_KEY = "esp.offheap.max.bytes";
+
+	/** The default max total bytes, 512MB. */
+	public static final long DEFAULT_MAX_TOTAL_BYTES = 512L * 1024 * 1024;
+
+	private static volatile long maxTotalBytes;
+	static {
+		try {
+			String val = System.getProperty(MAX_TOTAL_BYTES_KEY, Long.toString(DEFAULT_MAX_TOTAL_BYTES));
+			maxTotalBytes = Long.parseLong(val);
+		} catch (Throwable e) {
+			maxTotalBytes = DEFAULT_MAX_TOTAL_BYTES;
+		}
+	}
+
+	private static final AtomicLong totalBytes = new AtomicLong();
+
+	private final int maxCapacity;
+
+	/**
+	 * Instantiates a new off heap moving window buffer with a max capacity of
+	 * the specified capacity.
+	 *
+	 * @param capacity the capacity
+	 */
+	public OffHeapMovingWindowBuffer(int capacity) {
+		this(capacity, capacity);
+	}
+
+	/**
+	 * Instantiates a new off heap moving window buffer.
+	 *
+	 * @param capacity the capacity
+	 * @param maxCapacity the maximum capacity this buffer can be resized to
+	 * @throws IllegalArgumentException if capacity > maxCapacity
+	 * @throws IllegalStateException if the allocation would exceed the
+	 *           {@link #getMaxTotalBytes()}
+	 */
+	public OffHeapMovingWindowBuffer(int capacity, int maxCapacity) {
+		super(new Direct(checkCapacity(capacity, maxCapacity)));
+		this.maxCapacity = maxCapacity;
+	}
+
+	/**
+	 * Resize, retaining the most recent samples.
+	 *
+	 * @param newSize the new size
+	 * @throws IllegalArgumentException if newSize > the max capacity
+	 * @throws IllegalStateException if the allocation would exceed the
+	 *           {@link #getMaxTotalBytes()}
+	 */
+	@Override
+	public void resize(int newSize) {
+		checkCapacity(newSize, maxCapacity);
+
+		super.resize(newSize);
+	}
+
+	/**
+	 * Releases this buffer's direct memory allocation from the total. The
+	 * buffer must not be used afterwards.
+	 */
+	public void dispose() {
+		getStorage().release();
+	}
+
+	/**
+	 * Gets the max capacity.
+	 *
+	 * @return the max capacity
+	 */
+	public int getMaxCapacity() {
+		return maxCapacity;
+	}
+
+	/**
+	 * Returns the maximum total bytes of direct memory all instances may use.
+	 *
+	 * @return the max total bytes
+	 */
+	public static long getMaxTotalBytes() {
+		return maxTotalBytes;
+	}
+
+	/**
+	 * Sets the maximum total bytes of direct memory all instances may use.
+	 *
+	 * @param maxTotalBytes the new max total bytes
+	 */
+	public static void setMaxTotalBytes(long maxTotalBytes) {
+		OffHeapMovingWindowBuffer.maxTotalBytes = maxTotalBytes;
+	}
+
+	/**
+	 * Returns the total bytes of direct memory currently allocated by all
+	 * instances.
+	 *
+	 * @return the total bytes
+	 */
+	public static long getTotalBytes() {
+		return totalBytes.get();
+	}
+
+	private static int checkCapacity(int capacity, int maxCapacity) {
+		if (capacity < 1 || capacity > maxCapacity) {
+			throw new IllegalArgumentException("Capacity must be between 1 and " + maxCapacity + ": " + capacity);
+		}
+		if (capacity > Integer.MAX_VALUE / 8) {
+			throw new IllegalArgumentException("Capacity must be <= " + Integer.MAX_VALUE / 8 + ": " + capacity);
+		}
+
+		return capacity;
+	}
+
+	/**
+	 * Direct memory storage. Writes, made holding the buffer's lock, share a
+	 * view of the buffer and are bulk transfers. Reads use absolute gets on the
+	 * shared buffer so that concurrent readers neither share a buffer position
+	 * nor allocate a view.
+	 */
+	private static class Direct extends WindowStorage {
+		private static final double[] ZEROS = new double[1024];
+
+		private final DoubleBuffer buffer;
+		private final DoubleBuffer writer;
+		private final long bytes;
+		private boolean released;
+
+		Direct(int capacity) {
+			bytes = capacity * 8L;
+
+			long total = totalBytes.addAndGet(bytes);
+			if (total > maxTotalBytes) {
+				totalBytes.addAndGet(-bytes);
+				throw new IllegalStateException("Allocating " + bytes + " bytes would exceed the off heap maximum of "
+						+ maxTotalBytes);
+			}
+
+			buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			writer = buffer.duplicate();
+		}
+
+		int capacity() {
+			return buffer.capacity();
+		}
+
+		void put(int pos, double[] src, int off, int len) {
+			writer.clear();
+			writer.position(pos);
+			writer.put(src, off, len);
+		}
+
+		void get(int pos, double[] dest, int destPos, int len) {
+			for (int i = 0; i < len; i++) {
+				dest[destPos + i] = buffer.get(pos + i);
+			}
+		}
+
+		void copyTo(int pos, WindowStorage dest, int destPos, int len) {
+			if (dest instanceof Direct) {
+				// resizing, already allocating the new storage
+				DoubleBuffer src = buffer.duplicate();
+				src.limit(pos + len).position(pos);
+
+				DoubleBuffer to = ((Direct) dest).writer;
+				to.clear();
+				to.position(destPos);
+				to.put(src);
+			} else {
+				get(pos, ((Heap) dest).buffer, destPos, len);
+			}
+		}
+
+		void clear() {
+			writer.clear();
+			while (writer.hasRemaining()) {
+				writer.put(ZEROS, 0, Math.min(writer.remaining(), ZEROS.length));
+			}
+		}
+
+		WindowStorage create(int capacity) {
+			return new Direct(capacity);
+		}
+
+		synchronized void release() {
+			if (released) return;
+
+			released = true;
+			totalBytes.addAndGet(-bytes);
+		}
+	}
+
+}
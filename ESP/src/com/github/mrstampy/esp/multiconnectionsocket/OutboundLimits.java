@@ -0,0 +1,130 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+/**
+ * Limits the events outstanding for each subscriber of an
+ * {@link AbstractSubscriptionHandlerAdapter}, so that a subscriber on a slow
+ * link cannot grow the broadcasting JVM's heap without bound. Events are
+ * written to the session while the session's scheduled writes are within the
+ * limits; thereafter the {@link Policy} determines what happens to further
+ * events. Events held back by {@link Policy#DROP_OLDEST} and
+ * {@link Policy#CONFLATE} are themselves limited to the same maximums and are
+ * written as the session's writes complete.
+ *
+ * @author burton
+ * @see AbstractSubscriptionHandlerAdapter#setOutboundLimits(OutboundLimits)
+ * @see SubscriberStats
+ */
+public class OutboundLimits {
+
+	/** The default max messages. */
+	public static final int DEFAULT_MAX_MESSAGES = 4096;
+
+	/** The default max bytes, 32MB. */
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	/**
+	 * The action taken when a subscriber's limits are reached.
+	 */
+	public enum Policy {
+
+		/** Hold the event, discarding the oldest held events beyond the limits. */
+		DROP_OLDEST,
+		/** Discard the event. */
+		DROP_NEWEST,
+		/**
+		 * Hold only the latest event of each type, replacing any held event of
+		 * the same type. Batched events cannot be conflated and are discarded.
+		 */
+		CONFLATE,
+		/** Close the subscriber's session. */
+		DISCONNECT;
+	}
+
+	private final int maxMessages;
+	private final long maxBytes;
+	private final Policy policy;
+
+	/**
+	 * Instantiates a new outbound limits with the default values and
+	 * {@link Policy#DROP_OLDEST}.
+	 */
+	public OutboundLimits() {
+		this(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BYTES, Policy.DROP_OLDEST);
+	}
+
+	/**
+	 * Instantiates a new outbound limits.
+	 *
+	 * @param maxMessages
+	 *          the max messages
+	 * @param maxBytes
+	 *          the max bytes
+	 * @param policy
+	 *          the policy
+	 */
+	public OutboundLimits(int maxMessages, long maxBytes, Policy policy) {
+		if (maxMessages < 1) throw new IllegalArgumentException("Max messages must be > 0: " + maxMessages);
+		if (maxBytes < 1) throw new IllegalArgumentException("Max bytes must be > 0: " + maxBytes);
+		if (policy == null) throw new IllegalArgumentException("Policy must be specified");
+
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+	}
+
+	/**
+	 * Gets the max messages.
+	 *
+	 * @return the max messages
+	 */
+	public int getMaxMessages() {
+		return maxMessages;
+	}
+
+	/**
+	 * Gets the max bytes.
+	 *
+	 * @return the max bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets the policy.
+	 *
+	 * @return the policy
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "OutboundLimits [maxMessages=" + maxMessages + ", maxBytes=" + maxBytes + ", policy=" + policy + "]";
+	}
+
+}
@@ -18,100 +18,164 @@
  */
 package com.github.mrstampy.esp.multiconnectionsocket;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.lmax.disruptor.EventHandler;
-import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.dsl.Disruptor;
+import com.github.mrstampy.esp.dsp.PolyphaseResampler;
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
 
 // TODO: Auto-generated Javadoc
 /**
  * This class uses Disruptor internally. Add as a
  * {@link ConnectionEventListener} to the {@link AbstractMultiConnectionSocket}.
+ * Should many buffers be required create them with a shared
+ * {@link SampleBufferDispatcher} and add the dispatcher as the listener
+ * instead.
  *
  * @author burton
  * @param <SAMPLE> the generic type
  */
-public abstract class RawDataSampleBuffer<SAMPLE> implements ConnectionEventListener {
+public abstract class RawDataSampleBuffer<SAMPLE> extends AbstractSampleBuffer<SAMPLE> {
 	private static final Logger log = LoggerFactory.getLogger(RawDataSampleBuffer.class);
 
 	private int bufferSize;
 	private int fftSize;
 	private MovingWindowBuffer movingWindow;
 
-	private AtomicInteger totalForTuning = new AtomicInteger();
+	private volatile boolean tuning;
+
+	private volatile boolean resampling;
 
-	private long startTimeTuning;
+	private volatile TieredHistory history;
 
-	private volatile boolean tuning;
+	private volatile PolyphaseResampler resampler;
 
-	private Disruptor<MessageEvent<double[]>> disruptor;
+	private final ThreadLocal<WindowView> scratch = new ThreadLocal<WindowView>() {
+		protected WindowView initialValue() {
+			return movingWindow.createView();
+		}
+	};
 
-	private RingBuffer<MessageEvent<double[]>> rb;
+	private final SampleBufferDispatcher dispatcher;
 
-	private CountDownLatch latch = new CountDownLatch(1);
+	private int dispatchPartition;
 
 	/**
-	 * Instantiates a new raw data sample buffer.
+	 * Instantiates a new raw data sample buffer with the default
+	 * {@link IngestConfiguration}.
 	 *
 	 * @param bufferSize the buffer size
 	 * @param fftSize the fft size
 	 */
 	protected RawDataSampleBuffer(int bufferSize, int fftSize) {
+		this(bufferSize, fftSize, new IngestConfiguration());
+	}
+
+	/**
+	 * Instantiates a new raw data sample buffer.
+	 *
+	 * @param bufferSize the buffer size
+	 * @param fftSize the fft size
+	 * @param ingestConfiguration the Disruptor topology used to add samples
+	 */
+	protected RawDataSampleBuffer(int bufferSize, int fftSize, IngestConfiguration ingestConfiguration) {
+		super(ingestConfiguration);
+		this.dispatcher = null;
 		setBufferSize(bufferSize);
 		setFftSize(fftSize);
 		movingWindow = new MovingWindowBuffer(bufferSize);
 	}
 
 	/**
-	 * Implementation starts/stops disruptor.
+	 * Instantiates a new raw data sample buffer which adds samples via the
+	 * shared dispatcher rather than its own Disruptor. The dispatcher, not this
+	 * buffer, is to be added as a {@link ConnectionEventListener}.
+	 *
+	 * @param bufferSize the buffer size
+	 * @param fftSize the fft size
+	 * @param dispatcher the dispatcher
+	 */
+	protected RawDataSampleBuffer(int bufferSize, int fftSize, SampleBufferDispatcher dispatcher) {
+		super(dispatcher.getIngestConfiguration());
+		this.dispatcher = dispatcher;
+		setBufferSize(bufferSize);
+		setFftSize(fftSize);
+		movingWindow = new MovingWindowBuffer(bufferSize);
+		dispatcher.register(this);
+	}
+
+	/**
+	 * Implementation starts/stops disruptor, unless samples are added via a
+	 * shared {@link SampleBufferDispatcher}.
 	 *
 	 * @param e the e
 	 */
 	public void connectionEventPerformed(ConnectionEvent e) {
-		switch (e.getState()) {
-		case STARTED:
-			initDisruptor();
-			latch.countDown();
-			break;
-		case STOPPED:
-			disruptor.shutdown();
-			latch = new CountDownLatch(1);
-			break;
-		default:
-			break;
-		}
+		if (dispatcher != null) return;
+
+		super.connectionEventPerformed(e);
 	}
 
 	/**
-	 * Adds the sample.
+	 * Adds the sample impl.
 	 *
 	 * @param sample the sample
 	 */
-	public abstract void addSample(SAMPLE sample);
+	protected void addSampleImpl(double... sample) {
+		addSampleImpl(sample, System.nanoTime());
+	}
 
 	/**
-	 * Adds the sample impl.
+	 * Adds the sample received at the specified nanoTime, typically the
+	 * {@link AbstractMultiConnectionEvent#getNanoTime()} of the event it was
+	 * taken from.
 	 *
 	 * @param sample the sample
+	 * @param timestampNanos the {@link System#nanoTime()} of the sample
+	 * @see #getSamples(long, long, double[])
 	 */
-	protected void addSampleImpl(double... sample) {
-		try {
-			latch.await();
-		} catch (InterruptedException e) {
+	protected void addSampleImpl(double[] sample, long timestampNanos) {
+		if (dispatcher != null) {
+			dispatcher.publish(this, sample, timestampNanos);
+			return;
+		}
+
+		publish(sample, timestampNanos);
+	}
+
+	/**
+	 * Copies the samples into the preallocated array of the next ring buffer
+	 * slot, allowing the caller to reuse the source array. Requires an
+	 * {@link IngestConfiguration#getSampleCapacity()} >= len.
+	 *
+	 * @param src the source array
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 */
+	protected void addSampleImpl(double[] src, int off, int len) {
+		addSampleImpl(src, off, len, System.nanoTime());
+	}
+
+	/**
+	 * Copies the samples received at the specified nanoTime into the
+	 * preallocated array of the next ring buffer slot.
+	 *
+	 * @param src the source array
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 * @param timestampNanos the {@link System#nanoTime()} of the samples
+	 * @see #addSampleImpl(double[], int, int)
+	 */
+	protected void addSampleImpl(double[] src, int off, int len, long timestampNanos) {
+		if (len <= 0) return;
+		checkSampleCapacity(len);
+
+		if (dispatcher != null) {
+			dispatcher.publish(this, src, off, len, timestampNanos);
+			return;
 		}
 
-		long seq = rb.next();
-		MessageEvent<double[]> be = rb.get(seq);
-		be.setMessage(sample);
-		rb.publish(seq);
+		publish(src, off, len, timestampNanos);
 	}
 
 	/**
@@ -120,20 +184,92 @@ public abstract class RawDataSampleBuffer<SAMPLE> implements ConnectionEventList
 	 * @return the snapshot
 	 */
 	public double[] getSnapshot() {
-		double[] snap = movingWindow.snapshot();
-
 		double[] shot = new double[getFftSize()];
 
-		double factor = new BigDecimal(getBufferSize()).divide(new BigDecimal(getFftSize()), 5, RoundingMode.HALF_UP)
-				.doubleValue();
+		getSnapshot(shot);
+
+		return shot;
+	}
+
+	/**
+	 * Copies the snapshot into the specified array, allocating nothing in the
+	 * steady state. The array must be at least {@link #getFftSize()} long.
+	 *
+	 * @param dest the destination array
+	 * @return the number of values copied ie. the fft size
+	 */
+	public int getSnapshot(double[] dest) {
+		WindowView view = scratch.get().refresh();
+		double[] snap = view.values();
+		int length = view.length();
+
+		int fftSize = getFftSize();
+
+		PolyphaseResampler r = resampler;
+		if (r != null && r.isFor(length, fftSize)) {
+			r.resample(snap, dest);
+			return fftSize;
+		}
+
+		double factor = (double) length / fftSize;
 
 		int j = 0;
-		for (double i = 0; i < snap.length; i += factor) {
-			shot[j] = snap[(int) i];
+		for (double i = 0; i < length && j < fftSize; i += factor) {
+			dest[j] = snap[(int) i];
 			j++;
 		}
 
-		return shot;
+		return j;
+	}
+
+	/**
+	 * Copies the raw samples received in the range [fromNanos, toNanos) into the
+	 * specified array, oldest first, allowing processing to be aligned with
+	 * external events or other devices. Found by binary search of the window's
+	 * time index; an array of {@link #getBufferSize()} will always suffice.
+	 *
+	 * @param fromNanos the start of the range, inclusive
+	 * @param toNanos the end of the range, exclusive
+	 * @param dest the destination array
+	 * @return the number of samples copied
+	 * @see MovingWindowBuffer#snapshot(long, long, double[])
+	 */
+	public int getSamples(long fromNanos, long toNanos, double[] dest) {
+		return movingWindow.snapshot(fromNanos, toNanos, dest);
+	}
+
+	/**
+	 * Copies the raw samples added since the cursor's sequence into the array
+	 * and advances the cursor, so that streaming consumers process only the new
+	 * samples rather than the whole window.
+	 *
+	 * @param cursor the consumer's cursor
+	 * @param dest the destination array
+	 * @return the number of samples copied
+	 * @see MovingWindowBuffer#readSince(SequenceCursor, double[])
+	 */
+	public int readSince(SequenceCursor cursor, double[] dest) {
+		return movingWindow.readSince(cursor, dest);
+	}
+
+	/**
+	 * Returns the write sequence of the raw samples.
+	 *
+	 * @return the sequence
+	 * @see MovingWindowBuffer#getSequence()
+	 */
+	public long getSequence() {
+		return movingWindow.getSequence();
+	}
+
+	/**
+	 * Creates a read only view of the raw samples for a consumer which reuses
+	 * the view for each refresh.
+	 *
+	 * @return the window view
+	 */
+	public WindowView createView() {
+		return movingWindow.createView();
 	}
 
 	/**
@@ -144,60 +280,136 @@ public abstract class RawDataSampleBuffer<SAMPLE> implements ConnectionEventList
 	}
 
 	/**
-	 * When invoked the number of samples will be counted. When
-	 * {@link #stopTuning()} is invoked the time taken to process the total number
-	 * of samples taken during that time will be used to resize the sample buffer.
+	 * Begins tuning, measuring the sample rate until {@link #stopTuning()} is
+	 * invoked.
+	 *
+	 * @see #setAutoSizing(boolean)
 	 */
 	public void tune() {
-		if (tuning) return;
-
-		totalForTuning.set(0);
 		tuning = true;
-		startTimeTuning = System.nanoTime();
 	}
 
 	/**
-	 * Invoked after a period of time after invoking tune(). Will resize the queue
-	 * to represent ~ 1 second's worth of data based upon the total number of
-	 * samples received during tuning.
+	 * Stops tuning and resizes the buffer to hold ~ 1 second's worth of samples
+	 * at the measured sample rate, regardless of the
+	 * {@link #getResizeThreshold()}.
 	 */
 	public void stopTuning() {
 		if (!tuning) return;
 
 		tuning = false;
 
-		long diff = System.nanoTime() - startTimeTuning;
-		int total = totalForTuning.get();
+		int newBufSize = (int) Math.round(getSampleRate());
+		if (newBufSize > 0) resize(newBufSize);
+	}
 
-		BigDecimal seconds = new BigDecimal(diff).divide(new BigDecimal(1000000000), 10, RoundingMode.HALF_UP);
+	/**
+	 * Returns true if {@link #tune()} has been invoked and {@link #stopTuning()}
+	 * has not.
+	 *
+	 * @return true, if is tuning
+	 */
+	public boolean isTuning() {
+		return tuning;
+	}
 
-		int newBufSize = new BigDecimal(total).divide(seconds, 3, RoundingMode.HALF_UP).intValue();
+	int getWindowCapacity() {
+		return movingWindow.getCapacity();
+	}
 
+	void resize(int newBufSize) {
 		log.info("Resizing buffer to {}", newBufSize);
 
 		setBufferSize(newBufSize);
 
 		movingWindow.resize(newBufSize);
+
+		updateResampler();
 	}
 
-	@SuppressWarnings("unchecked")
-	private void initDisruptor() {
-		disruptor = new Disruptor<MessageEvent<double[]>>(new MessageEventFactory<double[]>(), 16,
-				Executors.newCachedThreadPool());
+	/**
+	 * Returns true if snapshots are resampled with an anti aliasing filter.
+	 *
+	 * @return true, if is resampling
+	 */
+	public boolean isResampling() {
+		return resampling;
+	}
+
+	/**
+	 * When true snapshots are resampled from the buffer size to the fft size
+	 * with a {@link PolyphaseResampler}, low pass filtering frequencies above
+	 * the fft's Nyquist frequency which would otherwise alias when samples are
+	 * dropped. The filter tables are built for the current sizes and rebuilt only
+	 * when the buffer is resized or {@link #setFftSize(int)} changes them.
+	 * Defaults to false.
+	 *
+	 * @param resampling the new resampling
+	 */
+	public void setResampling(boolean resampling) {
+		this.resampling = resampling;
+		updateResampler();
+	}
+
+	private void updateResampler() {
+		if (!resampling || movingWindow == null) {
+			resampler = null;
+			return;
+		}
+
+		int in = movingWindow.getCapacity();
+		int out = getFftSize();
+
+		PolyphaseResampler r = resampler;
+		if (r != null && r.isFor(in, out)) return;
+
+		log.debug("Creating resampler for {} -> {}", in, out);
+		resampler = new PolyphaseResampler(in, out);
+	}
 
-		disruptor.handleEventsWith(new EventHandler<MessageEvent<double[]>>() {
+	void ingest(MessageEvent<double[]> event) {
+		TieredHistory h = history;
 
-			@Override
-			public void onEvent(MessageEvent<double[]> event, long sequence, boolean endOfBatch) throws Exception {
-				double[] t1 = event.getMessage();
-				if (tuning) totalForTuning.addAndGet(t1.length);
+		if (event.hasSamples()) {
+			autoSize(event.getTimestampNanos(), event.getLength());
 
-				movingWindow.addAll(t1);
-			}
+			movingWindow.addAll(event.getSamples(), 0, event.getLength(), event.getTimestampNanos());
+			if (h != null) h.addAll(event.getSamples(), 0, event.getLength(), event.getTimestampNanos());
+		} else {
+			double[] t1 = event.getMessage();
+			autoSize(event.getTimestampNanos(), t1.length);
 
-		});
+			movingWindow.addAll(t1, 0, t1.length, event.getTimestampNanos());
+			if (h != null) h.addAll(t1, 0, t1.length, event.getTimestampNanos());
+		}
+	}
+
+	/**
+	 * Gets the history.
+	 *
+	 * @return the history, null if none
+	 */
+	public TieredHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Sets the history fed with every sample added to this buffer, providing
+	 * minutes to hours of downsampled samples for trend views in addition to the
+	 * raw window. Null (the default) disables.
+	 *
+	 * @param history the new history
+	 */
+	public void setHistory(TieredHistory history) {
+		this.history = history;
+	}
+
+	int getDispatchPartition() {
+		return dispatchPartition;
+	}
 
-		rb = disruptor.start();
+	void setDispatchPartition(int dispatchPartition) {
+		this.dispatchPartition = dispatchPartition;
 	}
 
 	/**
@@ -234,6 +446,7 @@ public abstract class RawDataSampleBuffer<SAMPLE> implements ConnectionEventList
 	 */
 	public void setFftSize(int fftSize) {
 		this.fftSize = fftSize;
+		updateResampler();
 	}
 
 }
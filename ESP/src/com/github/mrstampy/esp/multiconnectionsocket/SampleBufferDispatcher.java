@@ -0,0 +1,274 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+
+/**
+ * Shares one Disruptor ring buffer and a fixed number of threads amongst any
+ * number of {@link RawDataSampleBuffer}s, rather than each buffer creating its
+ * own. Registered buffers are partitioned across the threads, so the thread
+ * count remains constant as the number of channels and buffers grows. Add as
+ * a {@link ConnectionEventListener} to the
+ * {@link AbstractMultiConnectionSocket} in lieu of the buffers themselves.
+ *
+ * @author burton
+ * @see RawDataSampleBuffer#RawDataSampleBuffer(int, int, SampleBufferDispatcher)
+ */
+public class SampleBufferDispatcher implements ConnectionEventListener {
+	private static final Logger log = LoggerFactory.getLogger(SampleBufferDispatcher.class);
+
+	private final IngestConfiguration ingestConfiguration;
+
+	private final int numThreads;
+
+	private List<RawDataSampleBuffer<?>> buffers = new CopyOnWriteArrayList<RawDataSampleBuffer<?>>();
+
+	private int nextPartition;
+
+	private Disruptor<DispatchEvent> disruptor;
+
+	private RingBuffer<DispatchEvent> rb;
+
+	private ExecutorService executor;
+
+	private CountDownLatch latch = new CountDownLatch(1);
+
+	/**
+	 * Instantiates a new sample buffer dispatcher using one thread per available
+	 * processor.
+	 *
+	 * @param ingestConfiguration the ingest configuration
+	 */
+	public SampleBufferDispatcher(IngestConfiguration ingestConfiguration) {
+		this(ingestConfiguration, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Instantiates a new sample buffer dispatcher.
+	 *
+	 * @param ingestConfiguration the ingest configuration
+	 * @param numThreads the number of threads to dispatch samples on
+	 */
+	public SampleBufferDispatcher(IngestConfiguration ingestConfiguration, int numThreads) {
+		if (numThreads < 1) throw new IllegalArgumentException("Number of threads must be > 0: " + numThreads);
+
+		this.ingestConfiguration = ingestConfiguration == null ? new IngestConfiguration() : ingestConfiguration;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Starts/stops the disruptor.
+	 *
+	 * @param e the e
+	 */
+	public void connectionEventPerformed(ConnectionEvent e) {
+		switch (e.getState()) {
+		case STARTED:
+			initDisruptor();
+			latch.countDown();
+			break;
+		case STOPPED:
+			disruptor.shutdown();
+			executor.shutdown();
+			latch = new CountDownLatch(1);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Registers the buffer, invoked by buffers created with this dispatcher.
+	 *
+	 * @param buffer the buffer
+	 */
+	synchronized void register(RawDataSampleBuffer<?> buffer) {
+		if (buffers.contains(buffer)) return;
+
+		buffer.setDispatchPartition(nextPartition);
+		nextPartition = (nextPartition + 1) % numThreads;
+
+		buffers.add(buffer);
+	}
+
+	/**
+	 * Unregisters the buffer.
+	 *
+	 * @param buffer the buffer
+	 */
+	public void unregister(RawDataSampleBuffer<?> buffer) {
+		buffers.remove(buffer);
+	}
+
+	/**
+	 * Publishes the sample to all registered buffers.
+	 *
+	 * @param sample the sample
+	 */
+	public void publishToAll(double... sample) {
+		publish(null, sample, System.nanoTime());
+	}
+
+	/**
+	 * Copies the samples into the preallocated array of the next ring buffer
+	 * slot for all registered buffers. Requires an
+	 * {@link IngestConfiguration#getSampleCapacity()} >= len.
+	 *
+	 * @param src the source array
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 */
+	public void publishToAll(double[] src, int off, int len) {
+		publish(null, src, off, len, System.nanoTime());
+	}
+
+	/**
+	 * Publishes the sample to the specified buffer, or all buffers if null.
+	 *
+	 * @param target the target
+	 * @param sample the sample
+	 * @param timestampNanos the {@link System#nanoTime()} of the sample
+	 */
+	void publish(RawDataSampleBuffer<?> target, double[] sample, long timestampNanos) {
+		awaitStart();
+
+		long seq = rb.next();
+		DispatchEvent be = rb.get(seq);
+		be.setMessage(sample);
+		be.setTimestampNanos(timestampNanos);
+		be.target = target;
+		rb.publish(seq);
+	}
+
+	/**
+	 * Copies the samples to the next slot for the specified buffer, or all
+	 * buffers if null.
+	 *
+	 * @param target the target
+	 * @param src the source array
+	 * @param off the offset into the source array
+	 * @param len the number of samples
+	 * @param timestampNanos the {@link System#nanoTime()} of the samples
+	 */
+	void publish(RawDataSampleBuffer<?> target, double[] src, int off, int len, long timestampNanos) {
+		if (len <= 0) return;
+		if (len > ingestConfiguration.getSampleCapacity()) {
+			throw new IllegalArgumentException("Sample length " + len + " exceeds configured sample capacity "
+					+ ingestConfiguration.getSampleCapacity());
+		}
+
+		awaitStart();
+
+		long seq = rb.next();
+		DispatchEvent be = rb.get(seq);
+		be.setSamples(0, src, off, len, timestampNanos);
+		be.target = target;
+		rb.publish(seq);
+	}
+
+	/**
+	 * Gets the number of threads.
+	 *
+	 * @return the num threads
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Returns the Disruptor topology used to dispatch samples.
+	 *
+	 * @return the ingest configuration
+	 */
+	public IngestConfiguration getIngestConfiguration() {
+		return ingestConfiguration;
+	}
+
+	private void awaitStart() {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void initDisruptor() {
+		log.debug("Starting dispatcher for {} buffers on {} threads", buffers.size(), numThreads);
+
+		executor = ingestConfiguration.createExecutor();
+		disruptor = ingestConfiguration.createDisruptor(new EventFactory<DispatchEvent>() {
+
+			@Override
+			public DispatchEvent newInstance() {
+				return new DispatchEvent(ingestConfiguration.getSampleCapacity());
+			}
+		}, executor);
+
+		EventHandler<DispatchEvent>[] handlers = (EventHandler<DispatchEvent>[]) new EventHandler<?>[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			handlers[i] = new PartitionHandler(i);
+		}
+
+		disruptor.handleEventsWith(handlers);
+
+		rb = disruptor.start();
+	}
+
+	private class PartitionHandler implements EventHandler<DispatchEvent> {
+		private final int partition;
+
+		PartitionHandler(int partition) {
+			this.partition = partition;
+		}
+
+		@Override
+		public void onEvent(DispatchEvent event, long sequence, boolean endOfBatch) throws Exception {
+			RawDataSampleBuffer<?> target = event.target;
+			if (target != null) {
+				if (target.getDispatchPartition() == partition) target.ingest(event);
+				return;
+			}
+
+			for (RawDataSampleBuffer<?> buffer : buffers) {
+				if (buffer.getDispatchPartition() == partition) buffer.ingest(event);
+			}
+		}
+	}
+
+	private static class DispatchEvent extends MessageEvent<double[]> {
+		private RawDataSampleBuffer<?> target;
+
+		DispatchEvent(int sampleCapacity) {
+			super(sampleCapacity);
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+/**
+ * Continuously estimates a device's effective sample rate from the arrival
+ * times and sizes of its packets. Samples are counted over measurement
+ * periods of at least {@link #DEFAULT_PERIOD_NANOS}, so that bursty or
+ * jittery packet arrival averages out, and each period's rate is folded into
+ * an exponentially weighted moving average. A period longer than
+ * {@link #MAX_PERIOD_FACTOR} times the nominal, such as a device pausing, is
+ * ignored unless {@link #MAX_GAPS} occur consecutively, in which case the rate
+ * has genuinely fallen and the estimate restarts from the latest period.
+ * Allocates nothing; {@link #update(long, int)} is to be invoked by a single
+ * thread, the rate may be read by any.
+ *
+ * @author burton
+ * @see RawDataSampleBuffer
+ */
+public class SampleRateEstimator {
+
+	/** The default measurement period, 100 milliseconds. */
+	public static final long DEFAULT_PERIOD_NANOS = 100000000L;
+
+	/** The default smoothing factor. */
+	public static final double DEFAULT_ALPHA = 0.1;
+
+	/** The default number of periods measured before the rate is valid. */
+	public static final int DEFAULT_WARMUP = 10;
+
+	/** Periods beyond this multiple of the nominal period are gaps. */
+	public static final int MAX_PERIOD_FACTOR = 10;
+
+	/** The number of consecutive gaps which restart the estimate. */
+	public static final int MAX_GAPS = 4;
+
+	private final long periodNanos;
+
+	private final double alpha;
+
+	private final int warmup;
+
+	private boolean started;
+
+	private long periodStart;
+
+	private int pendingSamples;
+
+	private int updates;
+
+	private int gaps;
+
+	private volatile double rate;
+
+	/**
+	 * Instantiates a new sample rate estimator with the default period, alpha
+	 * and warmup.
+	 */
+	public SampleRateEstimator() {
+		this(DEFAULT_PERIOD_NANOS, DEFAULT_ALPHA, DEFAULT_WARMUP);
+	}
+
+	/**
+	 * Instantiates a new sample rate estimator.
+	 *
+	 * @param periodNanos the minimum measurement period
+	 * @param alpha the smoothing factor, 0 < alpha <= 1, smaller values being
+	 *          smoother but slower to follow changes in rate
+	 * @param warmup the number of periods measured before the rate is valid
+	 */
+	public SampleRateEstimator(long periodNanos, double alpha, int warmup) {
+		if (periodNanos < 1) throw new IllegalArgumentException("Period must be > 0: " + periodNanos);
+		if (alpha <= 0 || alpha > 1) throw new IllegalArgumentException("Alpha must be > 0 and <= 1: " + alpha);
+		if (warmup < 1) throw new IllegalArgumentException("Warmup must be > 0: " + warmup);
+
+		this.periodNanos = periodNanos;
+		this.alpha = alpha;
+		this.warmup = warmup;
+	}
+
+	/**
+	 * Updates the estimate with a packet of samples received at the specified
+	 * nanoTime.
+	 *
+	 * @param timestampNanos the {@link System#nanoTime()} of the packet
+	 * @param samples the number of samples in the packet
+	 * @return true if the estimate is valid ie. warmed up
+	 */
+	public boolean update(long timestampNanos, int samples) {
+		if (!started) {
+			// the first packet's samples span an unknown interval
+			started = true;
+			periodStart = timestampNanos;
+			return false;
+		}
+
+		pendingSamples += samples;
+
+		long elapsed = timestampNanos - periodStart;
+		if (elapsed < periodNanos) return isWarm();
+
+		boolean gap = updates > 0 && elapsed > periodNanos * MAX_PERIOD_FACTOR;
+		if (gap && ++gaps < MAX_GAPS) {
+			startPeriod(timestampNanos);
+			return isWarm();
+		}
+
+		double measured = pendingSamples * 1000000000.0 / elapsed;
+		rate = updates == 0 || gap ? measured : rate + alpha * (measured - rate);
+
+		if (updates < warmup) updates++;
+		gaps = 0;
+		startPeriod(timestampNanos);
+
+		return isWarm();
+	}
+
+	/**
+	 * Returns the estimated samples per second, 0 until the first period has
+	 * been measured.
+	 *
+	 * @return the rate
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns true once the warmup number of periods have been measured.
+	 *
+	 * @return true, if is warm
+	 */
+	public boolean isWarm() {
+		return updates >= warmup;
+	}
+
+	/**
+	 * Resets the estimate, to be invoked by the updating thread.
+	 */
+	public void reset() {
+		started = false;
+		pendingSamples = 0;
+		updates = 0;
+		gaps = 0;
+		rate = 0;
+	}
+
+	private void startPeriod(long timestampNanos) {
+		periodStart = timestampNanos;
+		pendingSamples = 0;
+	}
+
+}
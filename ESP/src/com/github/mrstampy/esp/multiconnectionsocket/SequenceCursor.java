@@ -0,0 +1,91 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+/**
+ * A streaming consumer's position in a {@link MovingWindowBuffer}'s write
+ * sequence, advanced by each
+ * {@link MovingWindowBuffer#readSince(SequenceCursor, double[])} so that only
+ * the samples written since the previous read are returned. Also records how
+ * many samples the last read missed, having been overwritten before the
+ * consumer caught up. Cursors are not thread safe; create one per consumer.
+ *
+ * @author burton
+ */
+public class SequenceCursor {
+
+	private long sequence;
+
+	private long missed;
+
+	/**
+	 * Instantiates a new sequence cursor at the start of the buffer's sequence,
+	 * the first read returning the whole window.
+	 */
+	public SequenceCursor() {
+		this(0);
+	}
+
+	/**
+	 * Instantiates a new sequence cursor at the specified sequence, typically
+	 * the buffer's {@link MovingWindowBuffer#getSequence()} to read only samples
+	 * written from now on.
+	 *
+	 * @param sequence the sequence
+	 */
+	public SequenceCursor(long sequence) {
+		setSequence(sequence);
+	}
+
+	/**
+	 * Returns the sequence of the next sample to be read.
+	 *
+	 * @return the sequence
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Sets the sequence of the next sample to be read.
+	 *
+	 * @param sequence the new sequence
+	 */
+	public void setSequence(long sequence) {
+		if (sequence < 0) throw new IllegalArgumentException("Sequence must be >= 0: " + sequence);
+
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the number of samples the last read skipped as they had been
+	 * overwritten, 0 if the consumer is keeping up.
+	 *
+	 * @return the missed
+	 */
+	public long getMissed() {
+		return missed;
+	}
+
+	void advance(long sequence, long missed) {
+		this.sequence = sequence;
+		this.missed = missed;
+	}
+
+}
@@ -0,0 +1,294 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.esp.multiconnectionsocket.OutboundLimits.Policy;
+
+/**
+ * The outbound state of one subscriber session: its optional
+ * {@link SubscriberFilter} and {@link EventBatch}, and the enforcement of its
+ * {@link OutboundLimits}. All
+ * encoded events for the session are written through {@link #write(Enum, IoBuffer)};
+ * those held back are written as the session's writes complete.
+ *
+ * @author burton
+ */
+class SessionOutbound {
+	private static final Logger log = LoggerFactory.getLogger(SessionOutbound.class);
+
+	private final IoSession session;
+	private final OutboundLimits limits;
+
+	private volatile EventBatch batch;
+
+	private volatile SubscriberFilter filter;
+
+	private final ArrayDeque<Held> held = new ArrayDeque<Held>();
+	private long heldBytes;
+
+	// written to the session and not yet sent, in write order
+	private final ArrayDeque<IoBuffer> inFlight = new ArrayDeque<IoBuffer>();
+
+	private long written;
+	private long dropped;
+	private long conflated;
+
+	private boolean closing;
+
+	/**
+	 * Instantiates a new session outbound.
+	 *
+	 * @param session the session
+	 * @param limits the limits
+	 */
+	SessionOutbound(IoSession session, OutboundLimits limits) {
+		this.session = session;
+		this.limits = limits;
+	}
+
+	/**
+	 * Writes the encoded message to the session if within the limits, otherwise
+	 * applies the limits' {@link Policy}.
+	 *
+	 * @param type the event type, null for a batch
+	 * @param buffer the buffer, owned by this object
+	 */
+	synchronized void write(Enum<?> type, IoBuffer buffer) {
+		if (closing) return;
+
+		if (held.isEmpty() && isWritable(buffer)) {
+			writeToSession(buffer);
+			return;
+		}
+
+		switch (limits.getPolicy()) {
+		case DROP_NEWEST:
+			dropped++;
+			break;
+		case DISCONNECT:
+			dropped++;
+			disconnect();
+			break;
+		case CONFLATE:
+			if (type == null || !conflate(type, buffer)) {
+				dropped++;
+			}
+			break;
+		default:
+			hold(type, buffer);
+			trimHeld();
+			break;
+		}
+	}
+
+	/**
+	 * Invoked when a message written to the session has been sent, writing held
+	 * messages while within the limits. Messages not written by this object are
+	 * ignored.
+	 *
+	 * @param message the message sent
+	 */
+	synchronized void sent(Object message) {
+		if (!removeInFlight(message)) return;
+
+		drain();
+	}
+
+	/*
+	 * Messages are sent in write order so the message is typically the first;
+	 * compared by identity as IoBuffer equality compares content.
+	 */
+	private boolean removeInFlight(Object message) {
+		if (inFlight.peekFirst() == message) {
+			inFlight.pollFirst();
+			return true;
+		}
+
+		Iterator<IoBuffer> it = inFlight.iterator();
+		while (it.hasNext()) {
+			if (it.next() == message) {
+				it.remove();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void drain() {
+		while (!closing && !held.isEmpty() && isWritable(held.peekFirst().buffer)) {
+			Held h = held.pollFirst();
+			heldBytes -= h.buffer.remaining();
+			writeToSession(h.buffer);
+		}
+	}
+
+	/**
+	 * Discards the batch and held messages.
+	 */
+	void clear() {
+		EventBatch b = batch;
+		if (b != null) b.discard();
+
+		synchronized (this) {
+			held.clear();
+			heldBytes = 0;
+			inFlight.clear();
+		}
+	}
+
+	/**
+	 * Returns the current statistics.
+	 *
+	 * @param hostPort the host port
+	 * @return the subscriber stats
+	 */
+	synchronized SubscriberStats getStats(HostPort hostPort) {
+		long lag = held.isEmpty() ? 0 : System.nanoTime() - held.peekFirst().nanoTime;
+
+		return new SubscriberStats(hostPort, inFlight.size(), session.getScheduledWriteBytes(),
+				held.size(), heldBytes, lag, written, dropped, conflated);
+	}
+
+	/**
+	 * Gets the batch, null if not batching.
+	 *
+	 * @return the batch
+	 */
+	EventBatch getBatch() {
+		return batch;
+	}
+
+	/**
+	 * Sets the batch, flushing any previous.
+	 *
+	 * @param batch the new batch
+	 */
+	void setBatch(EventBatch batch) {
+		EventBatch previous = this.batch;
+		this.batch = batch;
+
+		if (previous != null) previous.flush();
+	}
+
+	/**
+	 * Gets the filter, null if all events are sent.
+	 *
+	 * @return the filter
+	 */
+	SubscriberFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Sets the filter.
+	 *
+	 * @param filter the new filter
+	 */
+	void setFilter(SubscriberFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Gets the session.
+	 *
+	 * @return the session
+	 */
+	IoSession getSession() {
+		return session;
+	}
+
+	/*
+	 * MINA counts scheduled bytes but not scheduled buffers, so messages in
+	 * flight are counted here.
+	 */
+	private boolean isWritable(IoBuffer buffer) {
+		if (inFlight.isEmpty()) return true;
+
+		return inFlight.size() < limits.getMaxMessages()
+				&& session.getScheduledWriteBytes() + buffer.remaining() <= limits.getMaxBytes();
+	}
+
+	private void writeToSession(IoBuffer buffer) {
+		inFlight.addLast(buffer);
+		written++;
+		session.write(buffer);
+	}
+
+	private void hold(Enum<?> type, IoBuffer buffer) {
+		held.addLast(new Held(type, buffer));
+		heldBytes += buffer.remaining();
+	}
+
+	private void trimHeld() {
+		while (held.size() > limits.getMaxMessages() || (heldBytes > limits.getMaxBytes() && held.size() > 1)) {
+			heldBytes -= held.pollFirst().buffer.remaining();
+			dropped++;
+		}
+	}
+
+	private boolean conflate(Enum<?> type, IoBuffer buffer) {
+		Iterator<Held> it = held.iterator();
+		while (it.hasNext()) {
+			Held h = it.next();
+			if (h.type == type) {
+				heldBytes += buffer.remaining() - h.buffer.remaining();
+				h.buffer = buffer;
+				h.nanoTime = System.nanoTime();
+				conflated++;
+				return true;
+			}
+		}
+
+		if (held.size() >= limits.getMaxMessages() || heldBytes + buffer.remaining() > limits.getMaxBytes()) return false;
+
+		hold(type, buffer);
+
+		return true;
+	}
+
+	private void disconnect() {
+		closing = true;
+		held.clear();
+		heldBytes = 0;
+
+		log.warn("Closing session {}, outbound limits {} exceeded", session.getRemoteAddress(), limits);
+		session.close(true);
+	}
+
+	private static class Held {
+		final Enum<?> type;
+		IoBuffer buffer;
+		long nanoTime = System.nanoTime();
+
+		Held(Enum<?> type, IoBuffer buffer) {
+			this.type = type;
+			this.buffer = buffer;
+		}
+	}
+
+}
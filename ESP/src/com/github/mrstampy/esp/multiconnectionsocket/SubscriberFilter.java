@@ -0,0 +1,167 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.event.ChannelEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+
+/**
+ * Applies the channel subset, decimation and max rate of a subscriber's
+ * {@link SubscriptionOptions} to events before they are encoded. Decimation
+ * and rate are applied separately for each event type and, for
+ * {@link ChannelEvent}s, each channel. As options are received from remote
+ * subscribers, and deserialization bypasses their setters, channels outside
+ * the device's channels are ignored and invalid decimations and rates are
+ * treated as unfiltered.
+ *
+ * @author burton
+ */
+class SubscriberFilter {
+	private static final Logger log = LoggerFactory.getLogger(SubscriberFilter.class);
+
+	/** The channel bound applied should the number of channels be unknown. */
+	static final int MAX_CHANNELS = 1024;
+
+	private final BitSet channels;
+	private final int decimation;
+	private final long minIntervalNanos;
+
+	private int[][] counts = new int[0][];
+	private long[][] lastSent = new long[0][];
+
+	/**
+	 * Returns a filter for the options, null if the options do not filter.
+	 * Channels must be no greater than {@link #MAX_CHANNELS}.
+	 *
+	 * @param options the options
+	 * @return the subscriber filter
+	 */
+	static SubscriberFilter create(SubscriptionOptions options) {
+		return create(options, 0);
+	}
+
+	/**
+	 * Returns a filter for the options, null if the options do not filter.
+	 * Channel numbers start at 1, as for {@link EspChannel#getChannelNumber()};
+	 * channels outside [1, numChannels] are ignored.
+	 *
+	 * @param options the options
+	 * @param numChannels the number of channels of the device, {@link #MAX_CHANNELS}
+	 *          if <= 0
+	 * @return the subscriber filter
+	 */
+	static SubscriberFilter create(SubscriptionOptions options, int numChannels) {
+		if (options == null) return null;
+
+		int[] channels = options.getChannels();
+		if (channels == null && options.getDecimation() <= 1 && !isRateLimited(options.getMaxRate())) return null;
+
+		return new SubscriberFilter(options, numChannels > 0 ? numChannels : MAX_CHANNELS);
+	}
+
+	private static boolean isRateLimited(double maxRate) {
+		return maxRate > 0 && !Double.isInfinite(maxRate);
+	}
+
+	private SubscriberFilter(SubscriptionOptions options, int numChannels) {
+		int[] subset = options.getChannels();
+		if (subset == null) {
+			channels = null;
+		} else {
+			channels = new BitSet(numChannels + 1);
+			for (int channel : subset) {
+				if (channel >= 1 && channel <= numChannels) {
+					channels.set(channel);
+				} else {
+					log.warn("Ignoring subscription to channel {}, channels 1 - {}", channel, numChannels);
+				}
+			}
+		}
+
+		decimation = Math.max(1, options.getDecimation());
+		minIntervalNanos = isRateLimited(options.getMaxRate()) ? (long) (1000000000 / options.getMaxRate()) : 0;
+	}
+
+	/**
+	 * Returns true if the event is to be sent to the subscriber.
+	 *
+	 * @param event the event
+	 * @return true, if successful
+	 */
+	synchronized boolean accept(AbstractMultiConnectionEvent<?> event) {
+		int channel = 0;
+		if (event instanceof ChannelEvent) {
+			channel = ((ChannelEvent) event).getChannelNumber();
+			if (channels != null && (channel < 1 || !channels.get(channel))) return false;
+			if (channel < 0) channel = 0;
+		}
+
+		int ordinal = event.getEventType().ordinal();
+
+		if (decimation > 1) {
+			int[] c = counts(ordinal, channel);
+			int count = c[channel];
+			c[channel] = count + 1 == decimation ? 0 : count + 1;
+
+			if (count != 0) return false;
+		}
+
+		if (minIntervalNanos > 0) {
+			long[] l = lastSent(ordinal, channel);
+			long now = System.nanoTime();
+			if (l[channel] != 0 && now - l[channel] < minIntervalNanos) return false;
+
+			l[channel] = now;
+		}
+
+		return true;
+	}
+
+	private int[] counts(int ordinal, int channel) {
+		if (ordinal >= counts.length) counts = Arrays.copyOf(counts, ordinal + 1);
+
+		int[] c = counts[ordinal];
+		if (c == null || channel >= c.length) {
+			c = c == null ? new int[channel + 1] : Arrays.copyOf(c, channel + 1);
+			counts[ordinal] = c;
+		}
+
+		return c;
+	}
+
+	private long[] lastSent(int ordinal, int channel) {
+		if (ordinal >= lastSent.length) lastSent = Arrays.copyOf(lastSent, ordinal + 1);
+
+		long[] l = lastSent[ordinal];
+		if (l == null || channel >= l.length) {
+			l = l == null ? new long[channel + 1] : Arrays.copyOf(l, channel + 1);
+			lastSent[ordinal] = l;
+		}
+
+		return l;
+	}
+
+}
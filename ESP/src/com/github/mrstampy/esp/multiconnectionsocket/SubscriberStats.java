@@ -0,0 +1,170 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+/**
+ * A snapshot of the outbound state of one subscriber of an
+ * {@link AbstractSubscriptionHandlerAdapter}, identifying subscribers which
+ * are falling behind.
+ *
+ * @author burton
+ * @see AbstractSubscriptionHandlerAdapter#getSubscriberStats()
+ */
+public class SubscriberStats {
+
+	private final HostPort hostPort;
+	private final int scheduledMessages;
+	private final long scheduledBytes;
+	private final int heldMessages;
+	private final long heldBytes;
+	private final long lagNanos;
+	private final long written;
+	private final long dropped;
+	private final long conflated;
+
+	/**
+	 * Instantiates a new subscriber stats.
+	 *
+	 * @param hostPort the host port
+	 * @param scheduledMessages the scheduled messages
+	 * @param scheduledBytes the scheduled bytes
+	 * @param heldMessages the held messages
+	 * @param heldBytes the held bytes
+	 * @param lagNanos the lag nanos
+	 * @param written the written
+	 * @param dropped the dropped
+	 * @param conflated the conflated
+	 */
+	public SubscriberStats(HostPort hostPort, int scheduledMessages, long scheduledBytes, int heldMessages,
+			long heldBytes, long lagNanos, long written, long dropped, long conflated) {
+		this.hostPort = hostPort;
+		this.scheduledMessages = scheduledMessages;
+		this.scheduledBytes = scheduledBytes;
+		this.heldMessages = heldMessages;
+		this.heldBytes = heldBytes;
+		this.lagNanos = lagNanos;
+		this.written = written;
+		this.dropped = dropped;
+		this.conflated = conflated;
+	}
+
+	/**
+	 * Gets the subscriber's address.
+	 *
+	 * @return the host port
+	 */
+	public HostPort getHostPort() {
+		return hostPort;
+	}
+
+	/**
+	 * Returns the number of messages written to the session and not yet sent.
+	 *
+	 * @return the scheduled messages
+	 */
+	public int getScheduledMessages() {
+		return scheduledMessages;
+	}
+
+	/**
+	 * Returns the bytes written to the session and not yet sent.
+	 *
+	 * @return the scheduled bytes
+	 */
+	public long getScheduledBytes() {
+		return scheduledBytes;
+	}
+
+	/**
+	 * Returns the number of messages held back by the {@link OutboundLimits}.
+	 *
+	 * @return the held messages
+	 */
+	public int getHeldMessages() {
+		return heldMessages;
+	}
+
+	/**
+	 * Returns the bytes held back by the {@link OutboundLimits}.
+	 *
+	 * @return the held bytes
+	 */
+	public long getHeldBytes() {
+		return heldBytes;
+	}
+
+	/**
+	 * Returns how long the oldest held message has been waiting, 0 if none.
+	 *
+	 * @return the lag nanos
+	 */
+	public long getLagNanos() {
+		return lagNanos;
+	}
+
+	/**
+	 * Returns the number of messages written to the session.
+	 *
+	 * @return the written
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Returns the number of messages discarded.
+	 *
+	 * @return the dropped
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Returns the number of messages replaced by a later message of the same
+	 * type.
+	 *
+	 * @return the conflated
+	 */
+	public long getConflated() {
+		return conflated;
+	}
+
+	/**
+	 * Returns true if messages are being held back or discarded.
+	 *
+	 * @return true, if is lagging
+	 */
+	public boolean isLagging() {
+		return heldMessages > 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SubscriberStats [hostPort=" + hostPort + ", scheduledMessages=" + scheduledMessages + ", scheduledBytes="
+				+ scheduledBytes + ", heldMessages=" + heldMessages + ", heldBytes=" + heldBytes + ", lagNanos=" + lagNanos
+				+ ", written=" + written + ", dropped=" + dropped + ", conflated=" + conflated + "]";
+	}
+
+}
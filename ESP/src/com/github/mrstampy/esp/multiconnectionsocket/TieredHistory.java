@@ -0,0 +1,369 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import javolution.util.ReentrantLock;
+
+/**
+ * A multi resolution history of a channel's samples: full rate raw samples for
+ * the most recent seconds, then progressively coarser tiers of fixed duration
+ * blocks, each summarized by the min, max and mean of its samples, for minutes
+ * and hours. Every tier is a fixed capacity circular buffer allocated on
+ * construction so memory is bounded regardless of session length.<br>
+ * <br>
+ * {@link #query(long, long, HistoryRange)} answers a time range from the
+ * finest tier which both covers the range and fits the caller's
+ * {@link HistoryRange}, merging adjacent blocks should none fit, so that an
+ * hour's overview is a small, bounded read. Add to a
+ * {@link RawDataSampleBuffer} via
+ * {@link RawDataSampleBuffer#setHistory(TieredHistory)} to be fed on ingest.
+ *
+ * @author burton
+ */
+public class TieredHistory {
+
+	/** The default block durations, 100 ms, 1 second and 10 seconds. */
+	public static final long[] DEFAULT_BLOCK_NANOS = { 100000000L, 1000000000L, 10000000000L };
+
+	/** The default block counts, 2 minutes, 30 minutes and 2 hours. */
+	public static final int[] DEFAULT_BLOCK_COUNTS = { 1200, 1800, 720 };
+
+	private final Tier[] tiers;
+
+	private long lastTimestamp = Long.MIN_VALUE;
+
+	private ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Instantiates a new tiered history with the default summary tiers.
+	 *
+	 * @param rawCapacity the number of raw samples retained
+	 */
+	public TieredHistory(int rawCapacity) {
+		this(rawCapacity, DEFAULT_BLOCK_NANOS, DEFAULT_BLOCK_COUNTS);
+	}
+
+	/**
+	 * Instantiates a new tiered history.
+	 *
+	 * @param rawCapacity the number of raw samples retained
+	 * @param blockNanos the block duration of each summary tier, increasing
+	 * @param blockCounts the number of blocks retained by each summary tier
+	 */
+	public TieredHistory(int rawCapacity, long[] blockNanos, int[] blockCounts) {
+		if (rawCapacity < 1) throw new IllegalArgumentException("Raw capacity must be > 0: " + rawCapacity);
+		if (blockNanos.length != blockCounts.length) {
+			throw new IllegalArgumentException("Block durations and counts must be the same length");
+		}
+
+		tiers = new Tier[blockNanos.length + 1];
+		tiers[0] = new Tier(0, rawCapacity);
+
+		long previous = 0;
+		for (int i = 0; i < blockNanos.length; i++) {
+			if (blockNanos[i] <= previous) throw new IllegalArgumentException("Block durations must increase");
+			if (blockCounts[i] < 1) throw new IllegalArgumentException("Block counts must be > 0: " + blockCounts[i]);
+
+			tiers[i + 1] = new Tier(blockNanos[i], blockCounts[i]);
+			previous = blockNanos[i];
+		}
+	}
+
+	/**
+	 * Adds the specified range of values received at the specified nanoTime.
+	 * The values are taken to be evenly spaced between the previous block's
+	 * timestamp and this one's.
+	 *
+	 * @param values the values
+	 * @param off the offset into the values
+	 * @param len the number of values to add
+	 * @param timestampNanos the nanoTime the values were received
+	 */
+	public void addAll(double[] values, int off, int len, long timestampNanos) {
+		if (len <= 0) return;
+
+		lock.lock();
+		try {
+			long previous = lastTimestamp;
+			long span = previous == Long.MIN_VALUE || timestampNanos <= previous ? 0 : timestampNanos - previous;
+
+			for (int i = 0; i < len; i++) {
+				long t = span == 0 ? timestampNanos : previous + span * (i + 1) / len;
+				double v = values[off + i];
+
+				for (int k = 0; k < tiers.length; k++) {
+					tiers[k].add(t, v);
+				}
+			}
+
+			if (timestampNanos > previous) lastTimestamp = timestampNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Fills the range with the history between the specified nanoTimes,
+	 * including the partially complete current blocks. The finest tier which
+	 * holds history back to from is used; should it hold more than
+	 * {@link HistoryRange#getMaxPoints()} blocks in the range the next coarser
+	 * tier is tried, and adjacent blocks are merged should the coarsest covering
+	 * tier still hold too many.
+	 *
+	 * @param fromNanos the start of the range, inclusive
+	 * @param toNanos the end of the range, exclusive
+	 * @param range the range to fill
+	 * @return the number of blocks returned
+	 */
+	public int query(long fromNanos, long toNanos, HistoryRange range) {
+		lock.lock();
+		try {
+			int maxPoints = range.getMaxPoints();
+
+			Tier chosen = null;
+			for (int k = 0; k < tiers.length; k++) {
+				Tier tier = tiers[k];
+				if (!tier.covers(fromNanos)) continue;
+
+				chosen = tier;
+				if (tier.countInRange(fromNanos, toNanos) <= maxPoints) break;
+			}
+
+			if (chosen == null) chosen = tiers[tiers.length - 1];
+
+			chosen.fill(fromNanos, toNanos, range);
+
+			return range.getLength();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Clears all tiers.
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			for (int k = 0; k < tiers.length; k++) {
+				tiers[k].clear();
+			}
+
+			lastTimestamp = Long.MIN_VALUE;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the raw capacity.
+	 *
+	 * @return the raw capacity
+	 */
+	public int getRawCapacity() {
+		return tiers[0].start.length;
+	}
+
+	/**
+	 * A circular buffer of blocks plus the block currently accumulating. The raw
+	 * tier (0 block duration) aliases its min, max and mean arrays as each raw
+	 * block is a single sample.
+	 */
+	private static class Tier {
+		private final long blockNanos;
+
+		private final long[] start;
+		private final double[] min;
+		private final double[] max;
+		private final double[] mean;
+		private final int[] counts;
+
+		private int head;
+		private int size;
+		private boolean wrapped;
+
+		private boolean open;
+		private long openStart;
+		private double openMin;
+		private double openMax;
+		private double openSum;
+		private int openCount;
+
+		Tier(long blockNanos, int capacity) {
+			this.blockNanos = blockNanos;
+
+			start = new long[capacity];
+			min = new double[capacity];
+			if (blockNanos == 0) {
+				max = min;
+				mean = min;
+				counts = null;
+			} else {
+				max = new double[capacity];
+				mean = new double[capacity];
+				counts = new int[capacity];
+			}
+		}
+
+		void add(long t, double v) {
+			if (blockNanos == 0) {
+				append(t, v, v, v, 1);
+				return;
+			}
+
+			if (open && t >= openStart + blockNanos) {
+				append(openStart, openMin, openMax, openSum / openCount, openCount);
+				open = false;
+			}
+
+			if (!open) {
+				open = true;
+				openStart = t - (((t % blockNanos) + blockNanos) % blockNanos);
+				openMin = v;
+				openMax = v;
+				openSum = v;
+				openCount = 1;
+				return;
+			}
+
+			if (v < openMin) openMin = v;
+			if (v > openMax) openMax = v;
+			openSum += v;
+			openCount++;
+		}
+
+		private void append(long t, double mn, double mx, double avg, int count) {
+			start[head] = t;
+			min[head] = mn;
+			if (counts != null) {
+				max[head] = mx;
+				mean[head] = avg;
+				counts[head] = count;
+			}
+
+			head = (head + 1) % start.length;
+			if (size < start.length) {
+				size++;
+			} else {
+				wrapped = true;
+			}
+		}
+
+		boolean covers(long from) {
+			return !wrapped || time(0) <= from;
+		}
+
+		int countInRange(long from, long to) {
+			return Math.max(0, lowerBound(to) - lowerBound(first(from)));
+		}
+
+		void fill(long from, long to, HistoryRange range) {
+			int lo = lowerBound(first(from));
+			int hi = lowerBound(to);
+			int n = hi - lo;
+
+			int maxPoints = range.getMaxPoints();
+			int group = n <= maxPoints ? 1 : (n + maxPoints - 1) / maxPoints;
+
+			range.reset(blockNanos * group);
+
+			for (int i = lo; i < hi; i += group) {
+				int end = Math.min(i + group, hi);
+
+				double mn = Double.POSITIVE_INFINITY;
+				double mx = Double.NEGATIVE_INFINITY;
+				double sum = 0;
+				long count = 0;
+				for (int j = i; j < end; j++) {
+					int c = count(j);
+					mn = Math.min(mn, min(j));
+					mx = Math.max(mx, max(j));
+					sum += mean(j) * c;
+					count += c;
+				}
+
+				range.add(time(i), mn, mx, sum / count);
+			}
+		}
+
+		void clear() {
+			head = 0;
+			size = 0;
+			wrapped = false;
+			open = false;
+		}
+
+		/*
+		 * The earliest block start overlapping from.
+		 */
+		private long first(long from) {
+			return blockNanos == 0 ? from : from - blockNanos + 1;
+		}
+
+		/*
+		 * The index of the first entry starting at or after t.
+		 */
+		private int lowerBound(long t) {
+			int lo = 0;
+			int hi = entries();
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (time(mid) < t) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+
+			return lo;
+		}
+
+		private int entries() {
+			return open ? size + 1 : size;
+		}
+
+		private int index(int i) {
+			int idx = head - size + i;
+			return idx < 0 ? idx + start.length : idx;
+		}
+
+		private long time(int i) {
+			return i == size ? openStart : start[index(i)];
+		}
+
+		private double min(int i) {
+			return i == size ? openMin : min[index(i)];
+		}
+
+		private double max(int i) {
+			return i == size ? openMax : max[index(i)];
+		}
+
+		private double mean(int i) {
+			return i == size ? openSum / openCount : mean[index(i)];
+		}
+
+		private int count(int i) {
+			if (i == size) return openCount;
+
+			return counts == null ? 1 : counts[index(i)];
+		}
+	}
+
+}
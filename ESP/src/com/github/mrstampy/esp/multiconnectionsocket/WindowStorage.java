@@ -0,0 +1,123 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.Arrays;
+
+/**
+ * The fixed capacity sample storage of a {@link MovingWindowBuffer}, addressed
+ * by absolute position. Wrap around is the buffer's concern.
+ *
+ * @author burton
+ */
+abstract class WindowStorage {
+
+	/**
+	 * Returns the capacity.
+	 *
+	 * @return the int
+	 */
+	abstract int capacity();
+
+	/**
+	 * Writes len values from src starting at the specified position.
+	 *
+	 * @param pos the position
+	 * @param src the source
+	 * @param off the offset into the source
+	 * @param len the number of values
+	 */
+	abstract void put(int pos, double[] src, int off, int len);
+
+	/**
+	 * Reads len values starting at the specified position into dest.
+	 *
+	 * @param pos the position
+	 * @param dest the destination
+	 * @param destPos the destination position
+	 * @param len the number of values
+	 */
+	abstract void get(int pos, double[] dest, int destPos, int len);
+
+	/**
+	 * Copies len values starting at the specified position into storage of the
+	 * same kind, without an intermediate array.
+	 *
+	 * @param pos the position
+	 * @param dest the destination storage, created by {@link #create(int)}
+	 * @param destPos the destination position
+	 * @param len the number of values
+	 */
+	abstract void copyTo(int pos, WindowStorage dest, int destPos, int len);
+
+	/**
+	 * Zeroes all values.
+	 */
+	abstract void clear();
+
+	/**
+	 * Creates empty storage of the same kind with the specified capacity.
+	 *
+	 * @param capacity the capacity
+	 * @return the window storage
+	 */
+	abstract WindowStorage create(int capacity);
+
+	/**
+	 * Invoked when the storage is replaced or discarded.
+	 */
+	void release() {
+	}
+
+	/**
+	 * On heap storage.
+	 */
+	static class Heap extends WindowStorage {
+		final double[] buffer;
+
+		Heap(int capacity) {
+			buffer = new double[capacity];
+		}
+
+		int capacity() {
+			return buffer.length;
+		}
+
+		void put(int pos, double[] src, int off, int len) {
+			System.arraycopy(src, off, buffer, pos, len);
+		}
+
+		void get(int pos, double[] dest, int destPos, int len) {
+			System.arraycopy(buffer, pos, dest, destPos, len);
+		}
+
+		void copyTo(int pos, WindowStorage dest, int destPos, int len) {
+			dest.put(destPos, buffer, pos, len);
+		}
+
+		void clear() {
+			Arrays.fill(buffer, 0);
+		}
+
+		WindowStorage create(int capacity) {
+			return new Heap(capacity);
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+/**
+ * A read only view of a {@link MovingWindowBuffer}'s window as of the last
+ * {@link #refresh()}. The view's array is reused, being reallocated only
+ * should the buffer be resized, so a consumer polling the buffer allocates
+ * nothing in the steady state. Views are not thread safe; create one per
+ * consuming thread.
+ *
+ * @author burton
+ * @see MovingWindowBuffer#createView()
+ */
+public class WindowView {
+
+	private final MovingWindowBuffer buffer;
+
+	private double[] window = new double[0];
+
+	private int length;
+
+	/**
+	 * Instantiates a new window view.
+	 *
+	 * @param buffer the buffer
+	 */
+	WindowView(MovingWindowBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Copies the buffer's current window into this view.
+	 *
+	 * @return this view
+	 */
+	public WindowView refresh() {
+		int n;
+		while ((n = buffer.trySnapshot(window)) < 0) {
+			window = new double[-n];
+		}
+
+		length = n;
+
+		return this;
+	}
+
+	/**
+	 * Returns the value at the specified index, 0 being the oldest.
+	 *
+	 * @param index the index
+	 * @return the value
+	 */
+	public double get(int index) {
+		if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+
+		return window[index];
+	}
+
+	/**
+	 * Returns the number of values in the view.
+	 *
+	 * @return the length
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the view's array, valid to {@link #length()}.
+	 *
+	 * @return the values
+	 */
+	double[] values() {
+		return window;
+	}
+
+	/**
+	 * Copies the view's values into the specified array.
+	 *
+	 * @param dest the destination array, at least {@link #length()} long
+	 * @return the number of values copied
+	 */
+	public int copyTo(double[] dest) {
+		System.arraycopy(window, 0, dest, 0, length);
+
+		return length;
+	}
+
+}
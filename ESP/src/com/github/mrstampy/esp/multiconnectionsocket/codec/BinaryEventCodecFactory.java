@@ -0,0 +1,227 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.codec;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
+
+import com.github.mrstampy.esp.multiconnectionsocket.AbstractMultiConnectionSocket;
+import com.github.mrstampy.esp.multiconnectionsocket.AbstractSocketConnector;
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+
+/**
+ * A compact binary alternative to MINA's {@link ObjectSerializationCodecFactory}
+ * for broadcasting {@link AbstractMultiConnectionEvent}s. Events whose type has
+ * a registered {@link EventCodec} are written as the type's ordinal, the
+ * event's timestamps and the codec's primitive payload, avoiding class
+ * descriptors and reflection on both ends. Any other message, such as
+ * subscription requests, falls back to Java serialization. Each message is
+ * framed as:<br>
+ * <br>
+ * int length, byte kind, then for events: short ordinal, long create
+ * timestamp, long nano time, payload.<br>
+ * <br>
+ * Return an instance with the same registrations from
+ * {@link AbstractMultiConnectionSocket#createCodecFactory()} and
+ * {@link AbstractSocketConnector#createCodecFactory()}.
+ *
+ * @author burton
+ * @param <E> the event type enum
+ */
+public class BinaryEventCodecFactory<E extends Enum<E>> implements ProtocolCodecFactory {
+
+	/** The maximum frame length accepted by the decoder, 16MB. */
+	public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	private static final byte SERIALIZED = 0;
+	private static final byte EVENT = 1;
+
+	private final E[] types;
+
+	private volatile EventCodec<E, ?>[] codecs;
+
+	private final ProtocolEncoder encoder = new BinaryEncoder();
+
+	/**
+	 * Instantiates a new binary event codec factory.
+	 *
+	 * @param enumClass the event type enum class
+	 */
+	public BinaryEventCodecFactory(Class<E> enumClass) {
+		types = enumClass.getEnumConstants();
+		codecs = newCodecs(types.length);
+	}
+
+	/**
+	 * Registers the codec for the event type, replacing any existing.
+	 *
+	 * @param type the type
+	 * @param codec the codec
+	 * @return this factory
+	 */
+	public synchronized BinaryEventCodecFactory<E> register(E type, EventCodec<E, ?> codec) {
+		EventCodec<E, ?>[] copy = codecs.clone();
+		copy[type.ordinal()] = codec;
+		codecs = copy;
+
+		return this;
+	}
+
+	/**
+	 * Returns true if a codec is registered for the type.
+	 *
+	 * @param type the type
+	 * @return true, if is registered
+	 */
+	public boolean isRegistered(E type) {
+		return codecs[type.ordinal()] != null;
+	}
+
+	/**
+	 * Encodes the message into a new, flipped buffer.
+	 *
+	 * @param message the message
+	 * @return the buffer
+	 * @throws Exception the exception
+	 */
+	public IoBuffer encode(Object message) throws Exception {
+		IoBuffer out = IoBuffer.allocate(256).setAutoExpand(true);
+		out.putInt(0);
+
+		EventCodec<E, AbstractMultiConnectionEvent<E>> codec = getCodec(message);
+		if (codec == null) {
+			out.put(SERIALIZED);
+			out.putObject(message);
+		} else {
+			AbstractMultiConnectionEvent<E> event = cast(message);
+
+			out.put(EVENT);
+			out.putShort((short) event.getEventType().ordinal());
+			out.putLong(event.getCreateTimestamp());
+			out.putLong(event.getNanoTime());
+			codec.encode(event, out);
+		}
+
+		out.putInt(0, out.position() - 4);
+
+		return out.flip();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.apache.mina.filter.codec.ProtocolCodecFactory#getEncoder(org.apache.
+	 * mina.core.session.IoSession)
+	 */
+	@Override
+	public ProtocolEncoder getEncoder(IoSession session) throws Exception {
+		return encoder;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.apache.mina.filter.codec.ProtocolCodecFactory#getDecoder(org.apache.
+	 * mina.core.session.IoSession)
+	 */
+	@Override
+	public ProtocolDecoder getDecoder(IoSession session) throws Exception {
+		return new BinaryDecoder();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E extends Enum<E>> EventCodec<E, ?>[] newCodecs(int length) {
+		return (EventCodec<E, ?>[]) new EventCodec<?, ?>[length];
+	}
+
+	@SuppressWarnings("unchecked")
+	private EventCodec<E, AbstractMultiConnectionEvent<E>> getCodec(Object message) {
+		if (!(message instanceof AbstractMultiConnectionEvent<?>)) return null;
+
+		Enum<?> type = ((AbstractMultiConnectionEvent<?>) message).getEventType();
+		if (type == null || type.getDeclaringClass() != types[0].getDeclaringClass()) return null;
+
+		return (EventCodec<E, AbstractMultiConnectionEvent<E>>) codecs[type.ordinal()];
+	}
+
+	@SuppressWarnings("unchecked")
+	private AbstractMultiConnectionEvent<E> cast(Object message) {
+		return (AbstractMultiConnectionEvent<E>) message;
+	}
+
+	private Object decode(IoBuffer in) throws Exception {
+		byte kind = in.get();
+		if (kind == SERIALIZED) return in.getObject();
+		if (kind != EVENT) throw new ProtocolDecoderException("Unknown message kind " + kind);
+
+		int ordinal = in.getShort();
+		if (ordinal < 0 || ordinal >= types.length) throw new ProtocolDecoderException("Unknown event type " + ordinal);
+
+		E type = types[ordinal];
+		EventCodec<E, ?> codec = codecs[ordinal];
+		if (codec == null) throw new ProtocolDecoderException("No codec registered for " + type);
+
+		long createTimestamp = in.getLong();
+		long nanoTime = in.getLong();
+
+		return codec.decode(type, createTimestamp, nanoTime, in);
+	}
+
+	private class BinaryEncoder extends ProtocolEncoderAdapter {
+
+		@Override
+		public void encode(IoSession session, Object message, ProtocolEncoderOutput out) throws Exception {
+			out.write(BinaryEventCodecFactory.this.encode(message));
+		}
+	}
+
+	private class BinaryDecoder extends CumulativeProtocolDecoder {
+
+		@Override
+		protected boolean doDecode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
+			if (!in.prefixedDataAvailable(4, MAX_FRAME_LENGTH)) return false;
+
+			int length = in.getInt();
+			int end = in.position() + length;
+			int limit = in.limit();
+
+			in.limit(end);
+			try {
+				out.write(BinaryEventCodecFactory.this.decode(in));
+			} finally {
+				in.limit(limit);
+				in.position(end);
+			}
+
+			return true;
+		}
+	}
+
+}
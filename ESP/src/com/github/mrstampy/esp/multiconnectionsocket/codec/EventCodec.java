@@ -0,0 +1,107 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.codec;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+
+/**
+ * Encodes and decodes the payload of one type of
+ * {@link AbstractMultiConnectionEvent} for the {@link BinaryEventCodecFactory}.
+ * The event type and timestamps are written by the factory; implementations
+ * write only the event's own fields, using the {@link IoBuffer}'s primitive
+ * puts and the double array helpers here, and recreate the event with its
+ * original timestamps via the
+ * {@link AbstractMultiConnectionEvent#AbstractMultiConnectionEvent(Enum, long, long)}
+ * constructor. Implementations must be thread safe, typically being
+ * stateless.
+ *
+ * @author burton
+ * @param <E> the event type enum
+ * @param <EVENT> the event class
+ * @see BinaryEventCodecFactory#register(Enum, EventCodec)
+ */
+public abstract class EventCodec<E extends Enum<E>, EVENT extends AbstractMultiConnectionEvent<E>> {
+
+	/**
+	 * Writes the event's fields.
+	 *
+	 * @param event the event
+	 * @param out the buffer, auto expanding
+	 */
+	public abstract void encode(EVENT event, IoBuffer out);
+
+	/**
+	 * Reads the event's fields as written by {@link #encode(AbstractMultiConnectionEvent, IoBuffer)}
+	 * and recreates the event.
+	 *
+	 * @param type the event type
+	 * @param createTimestamp the event's create timestamp
+	 * @param nanoTime the event's nano time
+	 * @param in the buffer
+	 * @return the event
+	 */
+	public abstract EVENT decode(E type, long createTimestamp, long nanoTime, IoBuffer in);
+
+	/**
+	 * Writes the array's length followed by its values; null is written as a
+	 * length of -1.
+	 *
+	 * @param values the values
+	 * @param out the buffer
+	 */
+	protected static void putDoubles(double[] values, IoBuffer out) {
+		if (values == null) {
+			out.putInt(-1);
+			return;
+		}
+
+		out.putInt(values.length);
+		out.expand(values.length * 8);
+		out.asDoubleBuffer().put(values);
+		out.skip(values.length * 8);
+	}
+
+	/**
+	 * Reads an array written by {@link #putDoubles(double[], IoBuffer)}. The
+	 * length is validated against the remaining bytes before the array is
+	 * allocated.
+	 *
+	 * @param in the buffer
+	 * @return the values
+	 * @throws BufferDataException if the length is less than -1 or exceeds the
+	 *           remaining values
+	 */
+	protected static double[] getDoubles(IoBuffer in) {
+		int length = in.getInt();
+		if (length == -1) return null;
+		if (length < 0 || length > in.remaining() / 8) {
+			throw new BufferDataException("Invalid array length " + length + ", " + in.remaining() + " bytes remaining");
+		}
+
+		double[] values = new double[length];
+		in.asDoubleBuffer().get(values);
+		in.skip(length * 8);
+
+		return values;
+	}
+
+}
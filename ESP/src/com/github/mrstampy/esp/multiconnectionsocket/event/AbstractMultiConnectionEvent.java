@@ -29,9 +29,9 @@ import java.io.Serializable;
 public abstract class AbstractMultiConnectionEvent<E extends Enum<E>> implements Serializable {
 	private static final long serialVersionUID = 8285549904986718450L;
 
-	private final long createTimestamp = System.currentTimeMillis();
+	private final long createTimestamp;
 
-	private final long nanoTime = System.nanoTime();
+	private final long nanoTime;
 
 	private final E eventType;
 
@@ -41,7 +41,23 @@ public abstract class AbstractMultiConnectionEvent<E extends Enum<E>> implements
 	 * @param type the type
 	 */
 	protected AbstractMultiConnectionEvent(E type) {
+		this(type, System.currentTimeMillis(), System.nanoTime());
+	}
+
+	/**
+	 * Instantiates a new abstract multi connection event with the timestamps of
+	 * the event it was created from, for decoders recreating events received
+	 * over the wire.
+	 *
+	 * @param type the type
+	 * @param createTimestamp the create timestamp
+	 * @param nanoTime the nano time
+	 * @see com.github.mrstampy.esp.multiconnectionsocket.codec.EventCodec
+	 */
+	protected AbstractMultiConnectionEvent(E type, long createTimestamp, long nanoTime) {
 		this.eventType = type;
+		this.createTimestamp = createTimestamp;
+		this.nanoTime = nanoTime;
 	}
 
 	/**
@@ -0,0 +1,110 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.ipc;
+
+import java.nio.MappedByteBuffer;
+
+import com.github.mrstampy.esp.util.Fences;
+
+/**
+ * The layout of a ring file, shared by the {@link RingFileWriter} and
+ * {@link RingFileReader}s:<br>
+ * <br>
+ * 0: int magic<br>
+ * 4: int version<br>
+ * 8: long capacity, the size of the data region, a power of 2<br>
+ * 64: long published, the total bytes written, the position of the next
+ * record<br>
+ * 72: long claimed, the end of the record being written<br>
+ * 128: the data region<br>
+ * <br>
+ * Records are an int length followed by the encoded event, padded to 8 bytes.
+ * A record which would not fit before the end of the data region is preceded
+ * by a {@link #WRAP} length, and written from the start of the region.<br>
+ * <br>
+ * The writer claims the extent of a record before storing it and stores it
+ * before publishing its position. Readers load the published position before
+ * the record, and the claimed position after copying it: a record is intact
+ * if the claim has not reached it a lap later. Cross process ordering is
+ * obtained with {@link Fences}, requiring JDK 8 or later; the aligned long
+ * positions are written and read whole.
+ *
+ * @author burton
+ */
+class RingFile {
+
+	static final int MAGIC = 0x45535052;
+
+	static final int VERSION = 2;
+
+	static final int MAGIC_OFFSET = 0;
+	static final int VERSION_OFFSET = 4;
+	static final int CAPACITY_OFFSET = 8;
+	static final int PUBLISHED_OFFSET = 64;
+	static final int CLAIMED_OFFSET = 72;
+
+	static final int HEADER_LENGTH = 128;
+
+	static final int RECORD_HEADER = 4;
+
+	static final int WRAP = -1;
+
+	private RingFile() {
+	}
+
+	/**
+	 * Loads the published position before any subsequent loads.
+	 */
+	static long getPublished(MappedByteBuffer buffer) {
+		long published = buffer.getLong(PUBLISHED_OFFSET);
+		Fences.loadFence();
+
+		return published;
+	}
+
+	/**
+	 * Publishes the position after any preceding stores.
+	 */
+	static void setPublished(MappedByteBuffer buffer, long published) {
+		Fences.storeFence();
+		buffer.putLong(PUBLISHED_OFFSET, published);
+	}
+
+	/**
+	 * Loads the claimed position after any preceding loads.
+	 */
+	static long getClaimed(MappedByteBuffer buffer) {
+		Fences.loadFence();
+
+		return buffer.getLong(CLAIMED_OFFSET);
+	}
+
+	/**
+	 * Claims the position before any subsequent stores.
+	 */
+	static void setClaimed(MappedByteBuffer buffer, long claimed) {
+		buffer.putLong(CLAIMED_OFFSET, claimed);
+		Fences.storeFence();
+	}
+
+	static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+}
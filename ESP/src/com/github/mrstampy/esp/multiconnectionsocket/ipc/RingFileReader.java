@@ -0,0 +1,290 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.ipc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows a ring file written by a {@link RingFileWriter} in another JVM on a
+ * dedicated thread, decoding each record and passing the message to its
+ * {@link RingFileListener}. The reader's cursor starts at the latest record;
+ * each record's length is bounded, the record copied out, validated as not
+ * having been claimed by the writer a lap later during the copy and then
+ * decoded. Torn or invalid records are counted as overruns, the reader
+ * resuming at the latest record. While no records are available the thread spins
+ * briefly, then parks for {@link #PARK_NANOS}.
+ *
+ * @author burton
+ * @see RingFile
+ */
+public class RingFileReader {
+	private static final Logger log = LoggerFactory.getLogger(RingFileReader.class);
+
+	/** The time parked while idle, 50 microseconds. */
+	public static final long PARK_NANOS = 50000;
+
+	private static final int SPINS = 100;
+
+	private final File file;
+	private final ProtocolCodecFactory codecFactory;
+	private final RingFileListener listener;
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+
+	private volatile boolean running;
+	private Thread thread;
+
+	private volatile long cursor;
+	private volatile long received;
+	private volatile long lostBytes;
+
+	/**
+	 * Instantiates a new ring file reader.
+	 *
+	 * @param file the file
+	 * @param codecFactory the codec factory, matching that of the writer
+	 * @param listener the listener
+	 */
+	public RingFileReader(File file, ProtocolCodecFactory codecFactory, RingFileListener listener) {
+		this.file = file;
+		this.codecFactory = codecFactory;
+		this.listener = listener;
+	}
+
+	/**
+	 * Maps the ring file and starts reading from the latest record.
+	 *
+	 * @throws IOException if the file does not exist or is not a ring file
+	 */
+	public synchronized void start() throws IOException {
+		if (isRunning()) return;
+
+		if (!file.exists()) throw new IOException("No ring file " + file);
+
+		raf = new RandomAccessFile(file, "r");
+		buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+
+		if (buffer.capacity() < RingFile.HEADER_LENGTH || buffer.getInt(RingFile.MAGIC_OFFSET) != RingFile.MAGIC
+				|| buffer.getInt(RingFile.VERSION_OFFSET) != RingFile.VERSION) {
+			close();
+			throw new IOException("Not a ring file " + file);
+		}
+
+		cursor = RingFile.getPublished(buffer);
+		running = true;
+
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				read();
+			}
+		}, "ESP Ring File Reader");
+		thread.setDaemon(true);
+		thread.start();
+
+		log.info("Reading ring file {} from position {}", file, cursor);
+	}
+
+	/**
+	 * Stops reading and unmaps the file.
+	 */
+	public synchronized void stop() {
+		if (!isRunning()) return;
+
+		running = false;
+		if (thread != Thread.currentThread()) {
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+			}
+		}
+
+		close();
+	}
+
+	/**
+	 * Checks if is running.
+	 *
+	 * @return true, if is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the position of the next record to read.
+	 *
+	 * @return the cursor
+	 */
+	public long getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Returns the number of records read.
+	 *
+	 * @return the received
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Returns the bytes of records overwritten before being read.
+	 *
+	 * @return the lost bytes
+	 */
+	public long getLostBytes() {
+		return lostBytes;
+	}
+
+	private void read() {
+		int capacity = (int) buffer.getLong(RingFile.CAPACITY_OFFSET);
+		int mask = capacity - 1;
+
+		ByteBuffer view = buffer.duplicate();
+		byte[] record = new byte[capacity / 2];
+
+		ProtocolCodecSession session = new ProtocolCodecSession();
+		ProtocolDecoder decoder = null;
+
+		long position = cursor;
+		int idle = 0;
+
+		while (running) {
+			try {
+				long published = RingFile.getPublished(buffer);
+
+				if (published - position > capacity) position = resume(position);
+
+				if (position >= published) {
+					if (published < position) position = published;
+					cursor = position;
+					idle(idle++);
+					continue;
+				}
+				idle = 0;
+
+				int index = (int) (position & mask);
+				int length = buffer.getInt(RingFile.HEADER_LENGTH + index);
+
+				if (length == RingFile.WRAP) {
+					position = isLapped(position, capacity) ? resume(position) : position + capacity - index;
+					continue;
+				}
+
+				// a length torn by the writer lapping the reader
+				if (length < 0 || length > record.length
+						|| RingFile.align(RingFile.RECORD_HEADER + length) > capacity - index) {
+					position = resume(position);
+					continue;
+				}
+
+				view.position(RingFile.HEADER_LENGTH + index + RingFile.RECORD_HEADER);
+				view.get(record, 0, length);
+
+				if (isLapped(position, capacity)) {
+					position = resume(position);
+					continue;
+				}
+
+				position += RingFile.align(RingFile.RECORD_HEADER + length);
+				cursor = position;
+				received++;
+
+				try {
+					if (decoder == null) decoder = codecFactory.getDecoder(session);
+					decoder.decode(session, IoBuffer.wrap(record, 0, length), session.getDecoderOutput());
+
+					Object message;
+					while ((message = session.getDecoderOutputQueue().poll()) != null) {
+						listener.messageReceived(message);
+					}
+				} catch (Exception e) {
+					log.error("Could not decode record at {}", position, e);
+					session = new ProtocolCodecSession();
+					decoder = null;
+				}
+			} catch (Exception e) {
+				log.error("Could not read record at {}", position, e);
+				position = resume(position);
+			}
+		}
+	}
+
+	/*
+	 * The record read at the position is intact only if the writer has not since
+	 * claimed the same bytes a lap later.
+	 */
+	private boolean isLapped(long position, int capacity) {
+		return RingFile.getClaimed(buffer) - position > capacity;
+	}
+
+	private long resume(long position) {
+		long published = RingFile.getPublished(buffer);
+		if (published > position) overrun(published - position);
+
+		return published;
+	}
+
+	private void overrun(long lost) {
+		lostBytes += lost;
+		try {
+			listener.overrun(lost);
+		} catch (Exception e) {
+			log.error("Unexpected exception notifying overrun", e);
+		}
+	}
+
+	private void idle(int count) {
+		if (count < SPINS) return;
+
+		if (count < SPINS * 2) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	private void close() {
+		buffer = null;
+		try {
+			raf.close();
+		} catch (IOException e) {
+			log.error("Could not close ring file {}", file, e);
+		}
+		raf = null;
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.ipc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.esp.multiconnectionsocket.AbstractSocketConnector;
+import com.github.mrstampy.esp.multiconnectionsocket.AbstractSubscriptionHandlerAdapter;
+import com.github.mrstampy.esp.multiconnectionsocket.EventTransport;
+import com.github.mrstampy.esp.util.Fences;
+
+/**
+ * The single writer of a memory mapped ring file, sending events to
+ * subscribers running in other JVMs on the same host without TCP, the MINA
+ * filter chain or per subscriber encoding. Added as an {@link EventTransport}
+ * to the {@link AbstractSubscriptionHandlerAdapter}, each event is encoded
+ * once and copied into the ring; any number of {@link RingFileReader}s, see
+ * {@link AbstractSocketConnector#connectRingFile(File)}, follow it with their
+ * own cursors. The writer never waits for readers: a reader which falls more
+ * than the capacity behind loses the overwritten events and resumes at the
+ * latest.<br>
+ * <br>
+ * An existing ring file of the same capacity is reused, its readers
+ * continuing uninterrupted should the writer restart.
+ *
+ * @author burton
+ * @see RingFile
+ */
+public class RingFileWriter implements EventTransport {
+	private static final Logger log = LoggerFactory.getLogger(RingFileWriter.class);
+
+	/** The default capacity, 16MB. */
+	public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+	private final File file;
+	private final int capacity;
+	private final int mask;
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private ByteBuffer view;
+
+	private long published;
+	private long oversized;
+
+	/**
+	 * Instantiates a new ring file writer with the {@link #DEFAULT_CAPACITY}.
+	 *
+	 * @param file the file
+	 */
+	public RingFileWriter(File file) {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new ring file writer.
+	 *
+	 * @param file the file
+	 * @param capacity the capacity of the data region, a power of 2
+	 */
+	public RingFileWriter(File file, int capacity) {
+		if (capacity < 1024 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of 2 >= 1024: " + capacity);
+		}
+
+		this.file = file;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Creates or reopens the ring file and maps it.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void start() throws IOException {
+		if (isStarted()) return;
+
+		raf = new RandomAccessFile(file, "rw");
+		long length = RingFile.HEADER_LENGTH + (long) capacity;
+		boolean reuse = raf.length() == length;
+
+		raf.setLength(length);
+		buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, length);
+
+		if (reuse && buffer.getInt(RingFile.MAGIC_OFFSET) == RingFile.MAGIC
+				&& buffer.getInt(RingFile.VERSION_OFFSET) == RingFile.VERSION
+				&& buffer.getLong(RingFile.CAPACITY_OFFSET) == capacity) {
+			published = RingFile.getPublished(buffer);
+			RingFile.setClaimed(buffer, published);
+		} else {
+			published = 0;
+			buffer.putInt(RingFile.VERSION_OFFSET, RingFile.VERSION);
+			buffer.putLong(RingFile.CAPACITY_OFFSET, capacity);
+			RingFile.setClaimed(buffer, 0);
+			RingFile.setPublished(buffer, 0);
+			Fences.storeFence();
+			buffer.putInt(RingFile.MAGIC_OFFSET, RingFile.MAGIC);
+		}
+
+		view = buffer.duplicate();
+
+		log.info("Writing ring file {} of {} bytes from position {}", file, capacity, published);
+	}
+
+	/**
+	 * Unmaps the ring file; readers remain attached and await a restart.
+	 */
+	public synchronized void stop() {
+		if (!isStarted()) return;
+
+		buffer.force();
+		buffer = null;
+		view = null;
+		try {
+			raf.close();
+		} catch (IOException e) {
+			log.error("Could not close ring file {}", file, e);
+		}
+		raf = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.esp.multiconnectionsocket.EventTransport#isStarted()
+	 */
+	@Override
+	public synchronized boolean isStarted() {
+		return buffer != null;
+	}
+
+	/**
+	 * Claims the extent of the next record, copies the encoded event into the
+	 * ring and publishes it, leaving the buffer's position unchanged.
+	 *
+	 * @param encoded the encoded event
+	 */
+	@Override
+	public synchronized void send(IoBuffer encoded) {
+		if (!isStarted()) return;
+
+		int length = encoded.remaining();
+		int recordLength = RingFile.align(RingFile.RECORD_HEADER + length);
+		if (recordLength > capacity / 2) {
+			oversized++;
+			log.warn("Cannot write event of {} bytes to ring of {}", length, capacity);
+			return;
+		}
+
+		long position = published;
+		int index = (int) (position & mask);
+		int remaining = capacity - index;
+		boolean wrap = remaining < recordLength;
+
+		RingFile.setClaimed(buffer, position + (wrap ? remaining : 0) + recordLength);
+
+		if (wrap) {
+			buffer.putInt(RingFile.HEADER_LENGTH + index, RingFile.WRAP);
+			position += remaining;
+			index = 0;
+		}
+
+		int offset = RingFile.HEADER_LENGTH + index;
+		buffer.putInt(offset, length);
+
+		view.position(offset + RingFile.RECORD_HEADER);
+		view.put(encoded.buf().duplicate());
+
+		published = position + recordLength;
+		RingFile.setPublished(buffer, published);
+	}
+
+	/**
+	 * Returns the total bytes written, the position of the next record.
+	 *
+	 * @return the published
+	 */
+	public synchronized long getPublished() {
+		return published;
+	}
+
+	/**
+	 * Returns the number of events too large for the ring.
+	 *
+	 * @return the oversized
+	 */
+	public synchronized long getOversized() {
+		return oversized;
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the capacity.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+}
@@ -0,0 +1,249 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.multicast;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.Random;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mrstampy.esp.multiconnectionsocket.AbstractSocketConnector;
+import com.github.mrstampy.esp.multiconnectionsocket.AbstractSubscriptionHandlerAdapter;
+import com.github.mrstampy.esp.multiconnectionsocket.EventTransport;
+
+/**
+ * Sends encoded events as sequence numbered UDP datagrams to a multicast
+ * group, so that one send reaches any number of subscribers on the LAN.
+ * Complementing the TCP broadcaster, it is added as an {@link EventTransport}
+ * to the {@link AbstractSubscriptionHandlerAdapter} which sends every event
+ * once to the group, encoded with the broadcaster's codec factory. Receivers, see
+ * {@link AbstractSocketConnector#connectMulticast()}, detect lost datagrams
+ * from gaps in the sequence.<br>
+ * <br>
+ * Each datagram consists of a 20 byte header (int magic, long sender id, long
+ * sequence) followed by one encoded event. Events encoding to more than
+ * {@link #MAX_PAYLOAD} bytes cannot be sent and are counted as oversized.<br>
+ * <br>
+ * Set the system properties 'socket.multicast.group' and
+ * 'socket.multicast.port' on startup to change the group and port from the
+ * defaults '239.255.12.34' and '12346' ie.
+ * -Dsocket.multicast.group=239.1.2.3 -Dsocket.multicast.port=54321
+ *
+ * @author burton
+ * @see MulticastReceiver
+ */
+public class MulticastBroadcaster implements EventTransport {
+	private static final Logger log = LoggerFactory.getLogger(MulticastBroadcaster.class);
+
+	/** Set the system property 'socket.multicast.group' to change the group. */
+	public static final String MULTICAST_GROUP_KEY = "socket.multicast.group";
+
+	/** Set the system property 'socket.multicast.port' to change the port. */
+	public static final String MULTICAST_PORT_KEY = "socket.multicast.port";
+
+	/** The multicast group. */
+	public static final String MULTICAST_GROUP = System.getProperty(MULTICAST_GROUP_KEY, "239.255.12.34");
+
+	/** The default multicast port. */
+	public static final int DEFAULT_MULTICAST_PORT = 12346;
+
+	/** The multicast port. */
+	public static final int MULTICAST_PORT = getMulticastPort();
+
+	/** Identifies ESP datagrams. */
+	public static final int MAGIC = 0x45535044;
+
+	/** The header length. */
+	public static final int HEADER_LENGTH = 20;
+
+	/** The max encoded event length which can be sent. */
+	public static final int MAX_PAYLOAD = 65507 - HEADER_LENGTH;
+
+	private final InetAddress group;
+	private final int port;
+
+	private final long senderId = new Random().nextLong();
+
+	private MulticastSocket socket;
+
+	private final IoBuffer datagram = IoBuffer.allocate(HEADER_LENGTH + MAX_PAYLOAD);
+	private DatagramPacket packet;
+
+	private long sequence;
+	private long oversized;
+
+	private static int getMulticastPort() {
+		String val = System.getProperty(MULTICAST_PORT_KEY);
+		if (val == null) return DEFAULT_MULTICAST_PORT;
+
+		try {
+			return Integer.parseInt(val.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid {} '{}', using {}", MULTICAST_PORT_KEY, val, DEFAULT_MULTICAST_PORT);
+			return DEFAULT_MULTICAST_PORT;
+		}
+	}
+
+	/**
+	 * Instantiates a new multicast broadcaster for the {@link #MULTICAST_GROUP}
+	 * and {@link #MULTICAST_PORT}.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MulticastBroadcaster() throws IOException {
+		this(MULTICAST_GROUP, MULTICAST_PORT);
+	}
+
+	/**
+	 * Instantiates a new multicast broadcaster.
+	 *
+	 * @param group the multicast group address
+	 * @param port the port
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MulticastBroadcaster(String group, int port) throws IOException {
+		this.group = InetAddress.getByName(group);
+		if (!this.group.isMulticastAddress()) throw new IllegalArgumentException("Not a multicast address: " + group);
+
+		this.port = port;
+	}
+
+	/**
+	 * Opens the socket with a time to live of 1, confining datagrams to the
+	 * local network.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void start() throws IOException {
+		start(1);
+	}
+
+	/**
+	 * Opens the socket.
+	 *
+	 * @param timeToLive the time to live, the number of router hops
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void start(int timeToLive) throws IOException {
+		if (isStarted()) return;
+
+		socket = new MulticastSocket();
+		socket.setTimeToLive(timeToLive);
+
+		packet = new DatagramPacket(datagram.array(), 0, group, port);
+
+		log.info("Multicasting to {}:{}", group.getHostAddress(), port);
+	}
+
+	/**
+	 * Closes the socket.
+	 */
+	public synchronized void stop() {
+		if (!isStarted()) return;
+
+		socket.close();
+		socket = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.github.mrstampy.esp.multiconnectionsocket.EventTransport#isStarted()
+	 */
+	@Override
+	public synchronized boolean isStarted() {
+		return socket != null;
+	}
+
+	/**
+	 * Sends the encoded event as the next datagram, leaving the buffer's
+	 * position unchanged.
+	 *
+	 * @param encoded the encoded event
+	 */
+	@Override
+	public synchronized void send(IoBuffer encoded) {
+		if (!isStarted()) return;
+
+		int length = encoded.remaining();
+		if (length > MAX_PAYLOAD) {
+			oversized++;
+			log.warn("Cannot multicast event of {} bytes, max is {}", length, MAX_PAYLOAD);
+			return;
+		}
+
+		datagram.clear();
+		datagram.putInt(MAGIC);
+		datagram.putLong(senderId);
+		datagram.putLong(sequence);
+		datagram.put(encoded.duplicate());
+
+		packet.setLength(datagram.position());
+
+		try {
+			socket.send(packet);
+			sequence++;
+		} catch (IOException e) {
+			log.error("Could not send datagram {}", sequence, e);
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the next datagram, the number sent.
+	 *
+	 * @return the sequence
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the number of events too large to send.
+	 *
+	 * @return the oversized
+	 */
+	public synchronized long getOversized() {
+		return oversized;
+	}
+
+	/**
+	 * Gets the group.
+	 *
+	 * @return the group
+	 */
+	public InetAddress getGroup() {
+		return group;
+	}
+
+	/**
+	 * Gets the port.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+}
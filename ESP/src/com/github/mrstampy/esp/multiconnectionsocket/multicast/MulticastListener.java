@@ -0,0 +1,44 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.multicast;
+
+/**
+ * Receives the messages decoded by a {@link MulticastReceiver}.
+ *
+ * @author burton
+ */
+public interface MulticastListener {
+
+	/**
+	 * Invoked on the receiving thread for each message decoded.
+	 *
+	 * @param message the message
+	 */
+	void messageReceived(Object message);
+
+	/**
+	 * Invoked when datagrams have been lost, before the message of the datagram
+	 * received is passed to {@link #messageReceived(Object)}.
+	 *
+	 * @param expected the sequence expected
+	 * @param received the sequence received
+	 */
+	void gapDetected(long expected, long received);
+
+}
@@ -0,0 +1,261 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.multicast;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Joins a multicast group and decodes the datagrams of a
+ * {@link MulticastBroadcaster} on a dedicated thread, passing the messages to
+ * its {@link MulticastListener}. Gaps in the sequence numbers of datagrams
+ * from the same sender are reported as lost datagrams; out of order and
+ * duplicate datagrams are discarded. Should the sender restart, the sequence
+ * is followed from its first datagram.
+ *
+ * @author burton
+ */
+public class MulticastReceiver {
+	private static final Logger log = LoggerFactory.getLogger(MulticastReceiver.class);
+
+	/** The socket receive buffer size requested, 4MB. */
+	public static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	private final InetSocketAddress group;
+	private final int port;
+	private final ProtocolCodecFactory codecFactory;
+	private final MulticastListener listener;
+
+	private volatile NetworkInterface networkInterface;
+
+	private volatile MulticastSocket socket;
+	private Thread thread;
+
+	private volatile long received;
+	private volatile long missed;
+	private volatile long discarded;
+
+	private long senderId;
+	private long expected = -1;
+
+	/**
+	 * Instantiates a new multicast receiver.
+	 *
+	 * @param group the multicast group address
+	 * @param port the port
+	 * @param codecFactory the codec factory, matching that of the broadcaster
+	 * @param listener the listener
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MulticastReceiver(String group, int port, ProtocolCodecFactory codecFactory, MulticastListener listener)
+			throws IOException {
+		InetAddress address = InetAddress.getByName(group);
+		if (!address.isMulticastAddress()) throw new IllegalArgumentException("Not a multicast address: " + group);
+
+		this.group = new InetSocketAddress(address, port);
+		this.port = port;
+		this.codecFactory = codecFactory;
+		this.listener = listener;
+	}
+
+	/**
+	 * Joins the group and starts receiving.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void start() throws IOException {
+		if (isRunning()) return;
+
+		MulticastSocket ms = new MulticastSocket(port);
+		ms.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+		ms.joinGroup(group, networkInterface);
+		socket = ms;
+
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				receive();
+			}
+		}, "ESP Multicast Receiver");
+		thread.setDaemon(true);
+		thread.start();
+
+		log.info("Joined multicast group {}:{}", group.getAddress().getHostAddress(), port);
+	}
+
+	/**
+	 * Leaves the group and stops receiving.
+	 */
+	public synchronized void stop() {
+		MulticastSocket ms = socket;
+		if (ms == null) return;
+
+		socket = null;
+		try {
+			ms.leaveGroup(group, networkInterface);
+		} catch (IOException e) {
+			log.debug("Could not leave group {}", group, e);
+		}
+		ms.close();
+
+		if (thread != Thread.currentThread()) {
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	/**
+	 * Gets the network interface.
+	 *
+	 * @return the network interface, null for the system default
+	 */
+	public NetworkInterface getNetworkInterface() {
+		return networkInterface;
+	}
+
+	/**
+	 * Sets the interface on which to join the group, taking effect on the next
+	 * {@link #start()}. Null (the default) uses the system default.
+	 *
+	 * @param networkInterface the new network interface
+	 */
+	public void setNetworkInterface(NetworkInterface networkInterface) {
+		this.networkInterface = networkInterface;
+	}
+
+	/**
+	 * Checks if is running.
+	 *
+	 * @return true, if is running
+	 */
+	public boolean isRunning() {
+		return socket != null;
+	}
+
+	/**
+	 * Returns the number of datagrams received.
+	 *
+	 * @return the received
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Returns the number of datagrams lost, as determined by sequence gaps.
+	 *
+	 * @return the missed
+	 */
+	public long getMissed() {
+		return missed;
+	}
+
+	/**
+	 * Returns the number of datagrams discarded as foreign, duplicate or out of
+	 * order.
+	 *
+	 * @return the discarded
+	 */
+	public long getDiscarded() {
+		return discarded;
+	}
+
+	private void receive() {
+		byte[] data = new byte[MulticastBroadcaster.HEADER_LENGTH + MulticastBroadcaster.MAX_PAYLOAD];
+		DatagramPacket packet = new DatagramPacket(data, data.length);
+
+		ProtocolCodecSession session = new ProtocolCodecSession();
+		ProtocolDecoder decoder = null;
+
+		while (isRunning()) {
+			MulticastSocket ms = socket;
+			try {
+				packet.setLength(data.length);
+				ms.receive(packet);
+
+				IoBuffer in = IoBuffer.wrap(data, 0, packet.getLength());
+				if (!accept(in)) continue;
+
+				if (decoder == null) decoder = codecFactory.getDecoder(session);
+				decoder.decode(session, in, session.getDecoderOutput());
+
+				Object message;
+				while ((message = session.getDecoderOutputQueue().poll()) != null) {
+					listener.messageReceived(message);
+				}
+			} catch (SocketException e) {
+				if (isRunning()) log.error("Multicast receive failed", e);
+			} catch (Exception e) {
+				log.error("Could not decode datagram", e);
+				session = new ProtocolCodecSession();
+				decoder = null;
+			}
+		}
+
+		log.info("Left multicast group {}:{}", group.getAddress().getHostAddress(), port);
+	}
+
+	/**
+	 * Reads the datagram's header, returning true if its event is to be decoded.
+	 * Invoked on the receiving thread.
+	 *
+	 * @param in the datagram
+	 * @return true, if successful
+	 */
+	boolean accept(IoBuffer in) {
+		if (in.remaining() < MulticastBroadcaster.HEADER_LENGTH || in.getInt() != MulticastBroadcaster.MAGIC) {
+			discarded++;
+			return false;
+		}
+
+		long id = in.getLong();
+		long seq = in.getLong();
+
+		if (expected < 0 || id != senderId) {
+			senderId = id;
+		} else if (seq < expected) {
+			discarded++;
+			return false;
+		} else if (seq > expected) {
+			missed += seq - expected;
+			listener.gapDetected(expected, seq);
+		}
+
+		expected = seq + 1;
+		received++;
+
+		return true;
+	}
+
+}
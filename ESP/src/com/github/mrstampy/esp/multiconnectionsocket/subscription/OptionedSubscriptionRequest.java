@@ -0,0 +1,38 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.subscription;
+
+/**
+ * A {@link MultiConnectionSubscriptionRequest} carrying the
+ * {@link SubscriptionOptions} to apply to the subscriber. Options from the
+ * most recent request replace those of any previous.
+ *
+ * @author burton
+ * @param <E> the element type
+ */
+public interface OptionedSubscriptionRequest<E extends Enum<E>> extends MultiConnectionSubscriptionRequest<E> {
+
+	/**
+	 * Gets the options, null for the defaults.
+	 *
+	 * @return the options
+	 */
+	SubscriptionOptions getOptions();
+
+}
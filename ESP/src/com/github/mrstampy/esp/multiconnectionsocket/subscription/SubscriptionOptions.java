@@ -0,0 +1,234 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.subscription;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.github.mrstampy.esp.multiconnectionsocket.AbstractSubscriptionHandlerAdapter;
+import com.github.mrstampy.esp.multiconnectionsocket.event.ChannelEvent;
+
+/**
+ * Per subscriber delivery options sent with an
+ * {@link OptionedSubscriptionRequest} and applied by the
+ * {@link AbstractSubscriptionHandlerAdapter} to all events sent to the
+ * subscriber. The channel subset, decimation and max rate are applied before
+ * events are encoded, so that a subscriber drawing a few channels at 10 Hz
+ * costs only what it receives. The default values reproduce the original
+ * behaviour of writing each event as it is sent.
+ *
+ * @author burton
+ */
+public class SubscriptionOptions implements Serializable {
+	private static final long serialVersionUID = 2305918404125462431L;
+
+	/** The default max batch size. */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+	/** The default max batch delay in milliseconds. */
+	public static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 5;
+
+	/**
+	 * How events are written to the subscriber.
+	 */
+	public enum Delivery {
+
+		/** Each event is written as it is sent. */
+		LATENCY,
+		/**
+		 * Events are accumulated and written together once the max batch size is
+		 * reached or the max batch delay has elapsed since the first.
+		 */
+		THROUGHPUT;
+	}
+
+	private Delivery delivery = Delivery.LATENCY;
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private long maxBatchDelayMillis = DEFAULT_MAX_BATCH_DELAY_MILLIS;
+	private int[] channels;
+	private int decimation = 1;
+	private double maxRate;
+
+	/**
+	 * Instantiates a new subscription options with the default values.
+	 */
+	public SubscriptionOptions() {
+	}
+
+	/**
+	 * Instantiates a new subscription options for throughput optimized
+	 * delivery.
+	 *
+	 * @param maxBatchSize
+	 *          the max batch size
+	 * @param maxBatchDelayMillis
+	 *          the max batch delay millis
+	 */
+	public SubscriptionOptions(int maxBatchSize, long maxBatchDelayMillis) {
+		setDelivery(Delivery.THROUGHPUT);
+		setMaxBatchSize(maxBatchSize);
+		setMaxBatchDelayMillis(maxBatchDelayMillis);
+	}
+
+	/**
+	 * Gets the delivery.
+	 *
+	 * @return the delivery
+	 */
+	public Delivery getDelivery() {
+		return delivery;
+	}
+
+	/**
+	 * Sets the delivery.
+	 *
+	 * @param delivery
+	 *          the new delivery
+	 */
+	public void setDelivery(Delivery delivery) {
+		if (delivery == null) throw new IllegalArgumentException("Delivery must be specified");
+
+		this.delivery = delivery;
+	}
+
+	/**
+	 * Gets the max batch size.
+	 *
+	 * @return the max batch size
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Sets the number of events which, once accumulated, are written
+	 * immediately when {@link Delivery#THROUGHPUT} is used.
+	 *
+	 * @param maxBatchSize
+	 *          the new max batch size
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) throw new IllegalArgumentException("Max batch size must be > 0: " + maxBatchSize);
+
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Gets the max batch delay millis.
+	 *
+	 * @return the max batch delay millis
+	 */
+	public long getMaxBatchDelayMillis() {
+		return maxBatchDelayMillis;
+	}
+
+	/**
+	 * Sets the longest time the first event of a batch is held before the batch
+	 * is written when {@link Delivery#THROUGHPUT} is used.
+	 *
+	 * @param maxBatchDelayMillis
+	 *          the new max batch delay millis
+	 */
+	public void setMaxBatchDelayMillis(long maxBatchDelayMillis) {
+		if (maxBatchDelayMillis < 1) {
+			throw new IllegalArgumentException("Max batch delay must be > 0: " + maxBatchDelayMillis);
+		}
+
+		this.maxBatchDelayMillis = maxBatchDelayMillis;
+	}
+
+	/**
+	 * Gets the channels, null for all.
+	 *
+	 * @return the channels
+	 */
+	public int[] getChannels() {
+		return channels == null ? null : channels.clone();
+	}
+
+	/**
+	 * Sets the channel numbers of the {@link ChannelEvent}s to receive, null (the
+	 * default) for all. Channel numbers start at 1. Events which are not
+	 * {@link ChannelEvent}s are always received.
+	 *
+	 * @param channels
+	 *          the new channels
+	 */
+	public void setChannels(int... channels) {
+		this.channels = channels == null ? null : channels.clone();
+	}
+
+	/**
+	 * Gets the decimation.
+	 *
+	 * @return the decimation
+	 */
+	public int getDecimation() {
+		return decimation;
+	}
+
+	/**
+	 * Sets the decimation factor; only every nth event of each type and channel
+	 * is received. Defaults to 1, every event.
+	 *
+	 * @param decimation
+	 *          the new decimation
+	 */
+	public void setDecimation(int decimation) {
+		if (decimation < 1) throw new IllegalArgumentException("Decimation must be > 0: " + decimation);
+
+		this.decimation = decimation;
+	}
+
+	/**
+	 * Gets the max rate.
+	 *
+	 * @return the max rate
+	 */
+	public double getMaxRate() {
+		return maxRate;
+	}
+
+	/**
+	 * Sets the maximum number of events per second received of each type and
+	 * channel, events arriving sooner after the last received being discarded.
+	 * Defaults to 0, unlimited.
+	 *
+	 * @param maxRate
+	 *          the new max rate
+	 */
+	public void setMaxRate(double maxRate) {
+		if (maxRate < 0) throw new IllegalArgumentException("Max rate must be >= 0: " + maxRate);
+
+		this.maxRate = maxRate;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SubscriptionOptions [delivery=" + delivery + ", maxBatchSize=" + maxBatchSize + ", maxBatchDelayMillis="
+				+ maxBatchDelayMillis + ", channels=" + Arrays.toString(channels) + ", decimation=" + decimation
+				+ ", maxRate=" + maxRate + "]";
+	}
+
+}
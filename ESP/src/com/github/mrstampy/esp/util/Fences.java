@@ -0,0 +1,100 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences ordering plain loads and stores, as the sequence locks of the
+ * window buffers, the sample rings and the memory mapped ring file require;
+ * volatile accesses alone order only themselves. Implemented with sun.misc.Unsafe's
+ * loadFence/storeFence/fullFence, intrinsics on all platforms, and so requires
+ * JDK 8 or later.<br>
+ * <br>
+ * A sequence lock writer increments the version to odd, invokes
+ * {@link #storeFence()}, writes, then increments the version to even. A reader
+ * reads the version, reads the data, invokes {@link #loadFence()} then
+ * rereads the version, retrying should it have changed.
+ *
+ * @author burton
+ */
+public final class Fences {
+
+	private static final MethodHandle LOAD_FENCE;
+	private static final MethodHandle STORE_FENCE;
+	private static final MethodHandle FULL_FENCE;
+
+	static {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodType type = MethodType.methodType(void.class);
+
+			LOAD_FENCE = lookup.findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+			STORE_FENCE = lookup.findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+			FULL_FENCE = lookup.findVirtual(unsafeClass, "fullFence", type).bindTo(unsafe);
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError("Memory fences require JDK 8 or later: " + e);
+		}
+	}
+
+	private Fences() {
+	}
+
+	/**
+	 * Orders the preceding loads before subsequent loads and stores.
+	 */
+	public static void loadFence() {
+		try {
+			LOAD_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Orders the preceding stores before subsequent stores.
+	 */
+	public static void storeFence() {
+		try {
+			STORE_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Orders the preceding loads and stores before subsequent loads and stores.
+	 */
+	public static void fullFence() {
+		try {
+			FULL_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.dsp;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * The Class PolyphaseResamplerTest.
+ */
+public class PolyphaseResamplerTest {
+
+	/**
+	 * A constant signal passes unchanged.
+	 */
+	@Test
+	public void testUnityGain() {
+		PolyphaseResampler resampler = new PolyphaseResampler(1000, 512);
+
+		double[] in = new double[1000];
+		Arrays.fill(in, 3);
+		double[] out = new double[512];
+
+		resampler.resample(in, out);
+
+		for (double d : out) {
+			assertEquals(3, d, 1e-9);
+		}
+	}
+
+	/**
+	 * A tone above the output Nyquist frequency is attenuated, a tone well below
+	 * it is not.
+	 */
+	@Test
+	public void testAntiAliasing() {
+		PolyphaseResampler resampler = new PolyphaseResampler(1024, 256);
+
+		// 0.4 cycles per input sample, above the output Nyquist of 0.125
+		assertTrue(rms(resampler, 0.4) < 0.01);
+
+		// 0.02 cycles per input sample
+		assertEquals(Math.sqrt(0.5), rms(resampler, 0.02), 0.05);
+	}
+
+	private double rms(PolyphaseResampler resampler, double cyclesPerSample) {
+		double[] in = new double[resampler.getInputLength()];
+		for (int i = 0; i < in.length; i++) {
+			in[i] = Math.sin(2 * Math.PI * cyclesPerSample * i);
+		}
+
+		double[] out = new double[resampler.getOutputLength()];
+		resampler.resample(in, out);
+
+		// ignore the edges
+		int edge = resampler.getNumTaps();
+		double sum = 0;
+		for (int i = edge; i < out.length - edge; i++) {
+			sum += out[i] * out[i];
+		}
+
+		return Math.sqrt(sum / (out.length - 2 * edge));
+	}
+}
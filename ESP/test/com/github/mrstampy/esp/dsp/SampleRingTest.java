@@ -0,0 +1,172 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.dsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Rows of 2 values, row i being {i, -i}.
+ */
+public class SampleRingTest {
+
+	/**
+	 * Test wrap around, row reuse and clear.
+	 */
+	@Test
+	public void testSnapshot() {
+		SampleRing ring = new SampleRing(10);
+		add(ring, 0, 25);
+
+		double[][] dest = new double[10][];
+		assertEquals(10, ring.snapshot(dest));
+		for (int i = 0; i < 10; i++) {
+			assertEquals(15 + i, dest[i][0], 0);
+			assertEquals(-15 - i, dest[i][1], 0);
+		}
+
+		double[] reused = dest[0];
+		add(ring, 25, 1);
+		ring.snapshot(dest);
+		assertSame(reused, dest[0]);
+		assertEquals(16, dest[0][0], 0);
+
+		ring.clear();
+		assertEquals(0, ring.size());
+		add(ring, 26, 3);
+		assertEquals(3, ring.snapshot(dest));
+		assertEquals(26, dest[0][0], 0);
+	}
+
+	/**
+	 * Test evenly spaced rows.
+	 */
+	@Test
+	public void testEvenlySpaced() {
+		SampleRing ring = new SampleRing(100);
+		add(ring, 0, 100);
+
+		double[][] dest = new double[4][];
+		assertEquals(4, ring.snapshot(4, dest));
+		assertEquals(0, dest[0][0], 0);
+		assertEquals(25, dest[1][0], 0);
+		assertEquals(75, dest[3][0], 0);
+
+		SampleRing partial = new SampleRing(100);
+		add(partial, 0, 3);
+		assertEquals(3, partial.snapshot(4, dest));
+	}
+
+	/**
+	 * Test that sized snapshots hold exactly the rows available, also whilst
+	 * another thread appends to a ring filling from empty.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testSizedSnapshot() throws Exception {
+		final SampleRing ring = new SampleRing(16);
+		assertEquals(0, ring.snapshot().length);
+
+		add(ring, 0, 5);
+		double[][] rows = ring.snapshot();
+		assertEquals(5, rows.length);
+		assertEquals(4, rows[4][0], 0);
+		assertEquals(5, ring.snapshot(10).length);
+		assertEquals(2, ring.snapshot(2).length);
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread() {
+			public void run() {
+				int i = 0;
+				while (running.get()) {
+					if (i % 20 == 0) ring.clear();
+					add(ring, i++, 1);
+				}
+			}
+		};
+		writer.start();
+
+		try {
+			long end = System.currentTimeMillis() + 500;
+			while (System.currentTimeMillis() < end) {
+				rows = ring.snapshot();
+				assertTrue(rows.length <= ring.capacity());
+				for (int i = 0; i < rows.length; i++) {
+					assertEquals(-rows[i][0], rows[i][1], 0);
+					if (i > 0) assertEquals(rows[i - 1][0] + 1, rows[i][0], 0);
+				}
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	/**
+	 * Test that snapshots taken while another thread appends are never torn.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testConcurrentSnapshots() throws Exception {
+		final SampleRing ring = new SampleRing(16);
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		Thread writer = new Thread() {
+			public void run() {
+				int i = 0;
+				while (running.get()) {
+					add(ring, i++, 1);
+				}
+			}
+		};
+		writer.start();
+
+		try {
+			double[][] dest = new double[16][];
+
+			long end = System.currentTimeMillis() + 500;
+			while (System.currentTimeMillis() < end) {
+				int n = ring.snapshot(dest);
+				for (int i = 0; i < n; i++) {
+					assertEquals(-dest[i][0], dest[i][1], 0);
+					if (i > 0) assertEquals(dest[i - 1][0] + 1, dest[i][0], 0);
+				}
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	private void add(SampleRing ring, int from, int num) {
+		double[] row = new double[2];
+		for (int i = from; i < from + num; i++) {
+			row[0] = i;
+			row[1] = -i;
+			ring.add(row);
+		}
+	}
+}
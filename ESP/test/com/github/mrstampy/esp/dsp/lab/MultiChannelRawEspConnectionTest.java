@@ -0,0 +1,197 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.dsp.lab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.dsp.AbstractDSPValues;
+import com.github.mrstampy.esp.dsp.EspSignalUtilities;
+import com.github.mrstampy.esp.dsp.MultiChannelSignalAggregator;
+import com.github.mrstampy.esp.multiconnectionsocket.ConnectionEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.ConnectionEvent.State;
+import com.github.mrstampy.esp.multiconnectionsocket.MultiChannelSampleBuffer;
+import com.github.mrstampy.esp.multiconnectionsocket.MultiConnectionSocket;
+
+/**
+ * Frames of 3 channels in a {@link MultiChannelSampleBuffer} of 4 frames,
+ * sampled by a {@link MultiChannelSignalAggregator} of sample rate 10 and read
+ * through an {@link AbstractMultiChannelRawEspConnection}. Frame i is {i, i +
+ * 100, i + 200}.
+ */
+public class MultiChannelRawEspConnectionTest {
+
+	private TestBuffer buffer;
+	private MultiChannelSignalAggregator aggregator;
+	private TestConnection connection;
+
+	/**
+	 * Before.
+	 */
+	@Before
+	public void before() {
+		buffer = new TestBuffer();
+		buffer.connectionEventPerformed(new ConnectionEvent(this, State.STARTED));
+
+		aggregator = new MultiChannelSignalAggregator(buffer, 10);
+		connection = new TestConnection(aggregator);
+	}
+
+	/**
+	 * After.
+	 */
+	@After
+	public void after() {
+		buffer.connectionEventPerformed(new ConnectionEvent(this, State.STOPPED));
+	}
+
+	/**
+	 * Each channel number's samples are its windows, aligned at the same frame.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testGetCurrentFor() throws Exception {
+		addFrames(0, 6);
+		aggregator.sample();
+		addFrames(6, 2);
+		aggregator.sample();
+
+		for (int channelNumber = 1; channelNumber <= 3; channelNumber++) {
+			double[][] current = connection.getCurrentFor(channelNumber);
+			int offset = (channelNumber - 1) * 100;
+
+			assertEquals(2, current.length);
+			assertArrayEquals(window(offset + 2), current[0], 0);
+			assertArrayEquals(window(offset + 4), current[1], 0);
+
+			current = connection.getCurrentFor(1, channelNumber);
+			assertEquals(1, current.length);
+			assertArrayEquals(window(offset + 2), current[0], 0);
+		}
+
+		assertArrayEquals(connection.getCurrentFor(1), connection.getCurrent());
+		assertEquals(1, connection.getCurrent(1).length);
+	}
+
+	/**
+	 * Only the samples of the current second are retained.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testSampleRate() throws Exception {
+		addFrames(0, 4);
+		for (int i = 4; i < 19; i++) {
+			addFrames(i, 1);
+			aggregator.sample();
+		}
+
+		double[][] current = connection.getCurrentFor(2);
+		assertEquals(10, current.length);
+		assertArrayEquals(window(106), current[0], 0);
+		assertArrayEquals(window(115), current[9], 0);
+
+		aggregator.clear();
+		assertEquals(0, connection.getCurrentFor(2).length);
+	}
+
+	/**
+	 * Channel numbers start at 1.
+	 */
+	@Test
+	public void testChannelNumbers() {
+		for (int channelNumber : new int[] { 0, 4 }) {
+			try {
+				connection.getCurrentFor(channelNumber);
+				fail("Accepted channel number " + channelNumber);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	private double[] window(int first) {
+		return new double[] { first, first + 1, first + 2, first + 3 };
+	}
+
+	private void addFrames(int from, int num) throws InterruptedException {
+		for (int i = from; i < from + num; i++) {
+			buffer.addSample(new double[] { i, i + 100, i + 200 });
+		}
+
+		int last = from + num - 1;
+		long end = System.currentTimeMillis() + 5000;
+		while (buffer.getCurrentFor(0)[3] != last && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+
+		assertEquals(last, buffer.getCurrentFor(0)[3], 0);
+	}
+
+	private static class TestBuffer extends MultiChannelSampleBuffer<double[]> {
+
+		TestBuffer() {
+			super(3, 4);
+		}
+
+		@Override
+		public void addSample(double[] sample) {
+			addFrameImpl(sample);
+		}
+	}
+
+	private static class TestConnection extends AbstractMultiChannelRawEspConnection<MultiConnectionSocket> {
+
+		private final MultiChannelSignalAggregator aggregator;
+
+		TestConnection(MultiChannelSignalAggregator aggregator) {
+			this.aggregator = aggregator;
+		}
+
+		@Override
+		public MultiChannelSignalAggregator getAggregator() {
+			return aggregator;
+		}
+
+		@Override
+		public MultiConnectionSocket getSocket() {
+			return null;
+		}
+
+		@Override
+		public EspSignalUtilities getUtilities() {
+			return null;
+		}
+
+		@Override
+		public AbstractDSPValues getDSPValues() {
+			return null;
+		}
+
+		@Override
+		public String getName() {
+			return "Multi Channel Test";
+		}
+	}
+}
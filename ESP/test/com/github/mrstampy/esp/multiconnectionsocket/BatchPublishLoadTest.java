@@ -0,0 +1,93 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.WaitStrategyType;
+import com.lmax.disruptor.dsl.ProducerType;
+
+/**
+ * Compares the throughput of publishing device packets one message at a time
+ * against publishing each packet with a single batch claim.
+ */
+public class BatchPublishLoadTest {
+
+	private static final int PACKET_SIZE = 16;
+	private static final int NUM_PACKETS = 200000;
+	private static final int WARMUP_PACKETS = 50000;
+
+	/**
+	 * Publishes {@link #NUM_PACKETS} packets of {@link #PACKET_SIZE} messages
+	 * using both the per message and batch paths.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchPublish() throws Exception {
+		TestMultiConnectionSocket socket = new TestMultiConnectionSocket(new IngestConfiguration(1024, ProducerType.MULTI,
+				WaitStrategyType.YIELDING, "Batch Test"));
+		socket.start();
+
+		try {
+			Integer[] packet = new Integer[PACKET_SIZE];
+			for (int i = 0; i < PACKET_SIZE; i++) {
+				packet[i] = i;
+			}
+
+			perMessage(socket, packet, WARMUP_PACKETS);
+			batch(socket, packet, WARMUP_PACKETS);
+
+			long single = perMessage(socket, packet, NUM_PACKETS);
+			long batch = batch(socket, packet, NUM_PACKETS);
+
+			long total = (long) NUM_PACKETS * PACKET_SIZE;
+			System.out.println("Per message publish: " + (single / total) + " ns/message");
+			System.out.println("Batch publish: " + (batch / total) + " ns/message");
+		} finally {
+			socket.stop();
+		}
+	}
+
+	private long perMessage(TestMultiConnectionSocket socket, Integer[] packet, int numPackets) throws InterruptedException {
+		long expected = socket.count.get() + (long) numPackets * packet.length;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < numPackets; i++) {
+			for (int j = 0; j < packet.length; j++) {
+				socket.publishMessage(packet[j]);
+			}
+		}
+		socket.await(expected);
+
+		return System.nanoTime() - start;
+	}
+
+	private long batch(TestMultiConnectionSocket socket, Integer[] packet, int numPackets) throws InterruptedException {
+		long expected = socket.count.get() + (long) numPackets * packet.length;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < numPackets; i++) {
+			socket.publishMessages(packet, 0, packet.length);
+		}
+		socket.await(expected);
+
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.SamplePublishTest.Received;
+import com.github.mrstampy.esp.multiconnectionsocket.SamplePublishTest.SampleSocket;
+
+/**
+ * Publishes packets larger than the 4 slot ring buffer with the batch claim
+ * methods of {@link AbstractMultiConnectionSocket}.
+ */
+public class BatchPublishTest {
+
+	private TestMultiConnectionSocket socket;
+
+	/**
+	 * After.
+	 */
+	@After
+	public void after() {
+		if (socket != null && socket.isConnected()) socket.stop();
+	}
+
+	/**
+	 * A packet of messages is published in order, in ring sized batches.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testPublishMessages() throws Exception {
+		socket = new TestMultiConnectionSocket(SamplePublishTest.createConfiguration(0));
+		socket.recording = true;
+		socket.start();
+
+		Integer[] packet = new Integer[12];
+		for (int i = 0; i < packet.length; i++) {
+			packet[i] = i;
+		}
+
+		socket.publishMessages(packet, 2, 10);
+		socket.publishMessages(packet, 0, 0);
+		socket.publishMessage(100);
+		socket.await(11);
+
+		assertEquals(Arrays.asList(2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 100), socket.parsed);
+	}
+
+	/**
+	 * Each frame of a packet is published to its own slot, in order, in ring
+	 * sized batches.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testPublishSampleFrames() throws Exception {
+		SampleSocket sampleSocket = SamplePublishTest.start(SamplePublishTest.SAMPLE_CAPACITY);
+		socket = sampleSocket;
+
+		int frameLength = 3;
+		int numFrames = 10;
+
+		double[] src = new double[1 + frameLength * numFrames];
+		for (int i = 0; i < src.length; i++) {
+			src[i] = i;
+		}
+
+		sampleSocket.publishSampleFrames(2, src, 1, frameLength, numFrames, 42);
+		sampleSocket.publishSampleFrames(2, src, 1, 0, numFrames, 42);
+		sampleSocket.await(numFrames);
+
+		assertEquals(numFrames, sampleSocket.received.size());
+		for (int i = 0; i < numFrames; i++) {
+			Received r = sampleSocket.received.get(i);
+
+			int first = 1 + i * frameLength;
+			assertArrayEquals(new double[] { first, first + 1, first + 2 }, r.samples, 0);
+			assertEquals(2, r.channel);
+			assertEquals(42, r.timestampNanos);
+		}
+	}
+
+	/**
+	 * Frames larger than the sample capacity are rejected.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testFrameCapacity() throws Exception {
+		SampleSocket sampleSocket = SamplePublishTest.start(SamplePublishTest.SAMPLE_CAPACITY);
+		socket = sampleSocket;
+
+		int frameLength = SamplePublishTest.SAMPLE_CAPACITY + 1;
+		try {
+			sampleSocket.publishSampleFrames(1, new double[frameLength * 2], 0, frameLength, 2, 0);
+			fail("Published frames of " + frameLength);
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
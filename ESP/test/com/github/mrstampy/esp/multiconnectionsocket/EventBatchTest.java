@@ -0,0 +1,187 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javolution.util.FastList;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestEventCodec;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestHandler;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestType;
+import com.github.mrstampy.esp.multiconnectionsocket.codec.BinaryEventCodecFactory;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+
+/**
+ * Batches of up to 4 events, flushed 50 ms after the first, written to a
+ * {@link DummySession} subscriber and to a {@link TestSocketConnector}.
+ */
+public class EventBatchTest {
+
+	private static final int BATCH_SIZE = 4;
+	private static final long BATCH_DELAY = 50;
+
+	private List<Object> written = new FastList<Object>();
+
+	/**
+	 * A batch is written once the max batch size is reached.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testFlushOnSize() throws Exception {
+		TestHandler handler = createHandler(new ObjectSerializationCodecFactory());
+
+		send(handler, BATCH_SIZE * 2 + 1);
+
+		assertEquals(2, written.size());
+	}
+
+	/**
+	 * A partial batch is written once the max batch delay has elapsed.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testFlushOnDelay() throws Exception {
+		TestHandler handler = createHandler(new ObjectSerializationCodecFactory());
+
+		long start = System.currentTimeMillis();
+		send(handler, 1);
+		assertEquals(0, written.size());
+
+		while (written.isEmpty() && System.currentTimeMillis() - start < 1000) {
+			Thread.sleep(1);
+		}
+
+		assertEquals(1, written.size());
+		assertTrue(System.currentTimeMillis() - start >= BATCH_DELAY - 5);
+	}
+
+	/**
+	 * A batch decodes as the individual events it contains with both codecs.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testUnbatching() throws Exception {
+		assertUnbatched(new ObjectSerializationCodecFactory());
+		assertUnbatched(createBinaryFactory());
+	}
+
+	/**
+	 * A connector subscribing for batched delivery processes every event
+	 * individually, with both codecs.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testConnectorUnbatching() throws Exception {
+		assertConnectorUnbatched(new ObjectSerializationCodecFactory());
+		assertConnectorUnbatched(createBinaryFactory());
+	}
+
+	private void assertUnbatched(ProtocolCodecFactory factory) throws Exception {
+		written.clear();
+		TestHandler handler = createHandler(factory);
+
+		send(handler, BATCH_SIZE);
+		assertEquals(1, written.size());
+
+		ProtocolCodecSession session = new ProtocolCodecSession();
+		ProtocolDecoder decoder = factory.getDecoder(session);
+		decoder.decode(session, (IoBuffer) written.get(0), session.getDecoderOutput());
+
+		assertEquals(BATCH_SIZE, session.getDecoderOutputQueue().size());
+		for (Object decoded : session.getDecoderOutputQueue()) {
+			assertTrue(decoded instanceof TestEvent);
+		}
+	}
+
+	private void assertConnectorUnbatched(final ProtocolCodecFactory factory) throws Exception {
+		int numEvents = BATCH_SIZE * 25;
+
+		TestMultiConnectionSocket socket = new TestMultiConnectionSocket(new IngestConfiguration(), true) {
+
+			@Override
+			protected ProtocolCodecFactory createCodecFactory() {
+				return factory;
+			}
+		};
+		TestSocketConnector connector = new TestSocketConnector(factory);
+
+		try {
+			connector.connect();
+			connector.subscribe(new SubscriptionOptions(BATCH_SIZE, 1000));
+
+			TestHandler handler = socket.getHandler();
+			awaitSubscriber(handler);
+
+			send(handler, numEvents);
+			connector.await(numEvents, 5000);
+
+			assertEquals(numEvents, connector.count.get());
+			assertEquals(numEvents / BATCH_SIZE, handler.getSubscriberStats().get(0).getWritten());
+		} finally {
+			connector.disconnect();
+			socket.unbindBroadcaster();
+		}
+	}
+
+	static void awaitSubscriber(TestHandler handler) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (handler.getSubscribers(TestType.one).length == 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+
+		assertEquals(1, handler.getSubscribers(TestType.one).length);
+	}
+
+	private TestHandler createHandler(ProtocolCodecFactory factory) throws Exception {
+		TestHandler handler = new TestHandler(SubscriptionHandlerAdapterTest.createSocket(factory));
+		DummySession subscriber = SubscriptionHandlerAdapterTest.createSubscriber(written);
+
+		handler.messageReceived(subscriber, new TestRequest(new SubscriptionOptions(BATCH_SIZE, BATCH_DELAY)));
+
+		return handler;
+	}
+
+	private void send(TestHandler handler, int numEvents) {
+		for (int i = 0; i < numEvents; i++) {
+			handler.sendMultiConnectionEvent(new TestEvent());
+		}
+	}
+
+	static BinaryEventCodecFactory<TestType> createBinaryFactory() {
+		return new BinaryEventCodecFactory<TestType>(TestType.class).register(TestType.one, new TestEventCodec());
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.OverflowPolicy;
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.WaitStrategyType;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+
+/**
+ * Tests the validation, defaults and Disruptor creation of
+ * {@link IngestConfiguration}.
+ */
+public class IngestConfigurationTest {
+
+	/**
+	 * The defaults reproduce the original hardcoded setup.
+	 */
+	@Test
+	public void testDefaults() {
+		IngestConfiguration config = new IngestConfiguration();
+
+		assertEquals(IngestConfiguration.DEFAULT_RING_SIZE, config.getRingSize());
+		assertEquals(ProducerType.MULTI, config.getProducerType());
+		assertEquals(WaitStrategyType.BLOCKING, config.getWaitStrategyType());
+		assertEquals(IngestConfiguration.DEFAULT_THREAD_NAME, config.getThreadName());
+		assertEquals(0, config.getSampleCapacity());
+		assertEquals(OverflowPolicy.BLOCK, config.getOverflowPolicy());
+	}
+
+	/**
+	 * Ring sizes must be positive powers of 2.
+	 */
+	@Test
+	public void testRingSize() {
+		IngestConfiguration config = new IngestConfiguration();
+
+		for (int size : new int[] { 0, -1, -16, 3, 24, 1000 }) {
+			try {
+				config.setRingSize(size);
+				fail("Accepted ring size " + size);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+
+		for (int size : new int[] { 1, 2, 1024, 1 << 20 }) {
+			config.setRingSize(size);
+			assertEquals(size, config.getRingSize());
+		}
+
+		try {
+			new IngestConfiguration(100, ProducerType.SINGLE, WaitStrategyType.BLOCKING, "Test");
+			fail("Constructor accepted ring size 100");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	/**
+	 * Unspecified types and negative sample capacities are rejected, an
+	 * unspecified thread name reverts to the default.
+	 */
+	@Test
+	public void testInvalidValues() {
+		IngestConfiguration config = new IngestConfiguration();
+
+		try {
+			config.setProducerType(null);
+			fail("Accepted null producer type");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		try {
+			config.setWaitStrategyType(null);
+			fail("Accepted null wait strategy type");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		try {
+			config.setOverflowPolicy(null);
+			fail("Accepted null overflow policy");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		try {
+			config.setSampleCapacity(-1);
+			fail("Accepted negative sample capacity");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		config.setThreadName(null);
+		assertEquals(IngestConfiguration.DEFAULT_THREAD_NAME, config.getThreadName());
+	}
+
+	/**
+	 * Each wait strategy type creates its Disruptor wait strategy.
+	 */
+	@Test
+	public void testWaitStrategies() {
+		assertTrue(createWaitStrategy(WaitStrategyType.BLOCKING) instanceof BlockingWaitStrategy);
+		assertTrue(createWaitStrategy(WaitStrategyType.SLEEPING) instanceof SleepingWaitStrategy);
+		assertTrue(createWaitStrategy(WaitStrategyType.YIELDING) instanceof YieldingWaitStrategy);
+		assertTrue(createWaitStrategy(WaitStrategyType.BUSY_SPIN) instanceof BusySpinWaitStrategy);
+	}
+
+	/**
+	 * Threads are named daemons, the Disruptor is created with the configured
+	 * ring size.
+	 */
+	@Test
+	public void testCreation() {
+		IngestConfiguration config = new IngestConfiguration(64, ProducerType.SINGLE, WaitStrategyType.YIELDING,
+				"Config Test");
+
+		ThreadFactory factory = config.createThreadFactory();
+		Thread t1 = factory.newThread(null);
+		Thread t2 = factory.newThread(null);
+
+		assertEquals("Config Test 1", t1.getName());
+		assertEquals("Config Test 2", t2.getName());
+		assertTrue(t1.isDaemon());
+
+		ExecutorService executor = config.createExecutor();
+		try {
+			Disruptor<MessageEvent<Integer>> disruptor = config.createDisruptor(new MessageEventFactory<Integer>(),
+					executor);
+
+			assertEquals(64, disruptor.getRingBuffer().getBufferSize());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private Object createWaitStrategy(WaitStrategyType type) {
+		IngestConfiguration config = new IngestConfiguration();
+		config.setWaitStrategyType(type);
+
+		return config.createWaitStrategy();
+	}
+}
@@ -20,6 +20,8 @@ package com.github.mrstampy.esp.multiconnectionsocket;
 
 import static org.junit.Assert.*;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -97,6 +99,240 @@ public class MovingWindowBufferTest {
 		confirm(expected, snap);
 	}
 	
+	/**
+	 * Test resizing wrapped off heap storage, copied directly between the
+	 * direct buffers.
+	 */
+	@Test
+	public void testOffHeapResize() {
+		OffHeapMovingWindowBuffer offHeap = new OffHeapMovingWindowBuffer(5, 10);
+		try {
+			offHeap.addAll(1, 2, 3, 4, 5, 6, 7);
+			confirm(new double[] {3, 4, 5, 6, 7}, offHeap.snapshot());
+
+			offHeap.resize(3);
+			confirm(new double[] {5, 6, 7}, offHeap.snapshot());
+
+			offHeap.addAll(8);
+			offHeap.resize(6);
+			confirm(new double[] {6, 7, 8, 0, 0, 0}, offHeap.snapshot());
+
+			offHeap.addAll(9, 10, 11, 12);
+			confirm(new double[] {7, 8, 9, 10, 11, 12}, offHeap.snapshot());
+		} finally {
+			offHeap.dispose();
+		}
+	}
+
+	/**
+	 * Test clearing off heap storage larger than a bulk zeroing transfer, which
+	 * must match clearing heap storage.
+	 */
+	@Test
+	public void testOffHeapClear() {
+		int capacity = 3000;
+		double[] values = new double[capacity + 7];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i + 1;
+		}
+
+		MovingWindowBuffer heap = new MovingWindowBuffer(capacity);
+		OffHeapMovingWindowBuffer offHeap = new OffHeapMovingWindowBuffer(capacity);
+		try {
+			for (MovingWindowBuffer b : new MovingWindowBuffer[] { heap, offHeap }) {
+				b.addAll(values, 0, values.length);
+				b.clear();
+				b.addAll(1, 2);
+			}
+
+			confirm(heap.snapshot(), offHeap.snapshot());
+		} finally {
+			offHeap.dispose();
+		}
+	}
+
+	/**
+	 * Test wrap around.
+	 */
+	@Test
+	public void testWrapAround() {
+		for (int i = 5; i < 1000; i += 3) {
+			buf.addAll(i, i + 1, i + 2);
+		}
+
+		double[] expected = {996, 997, 998, 999, 1000};
+		confirm(expected, buf.snapshot());
+
+		buf.addAll(1, 2, 3, 4, 5, 6, 7);
+		double[] expected2 = {3, 4, 5, 6, 7};
+		confirm(expected2, buf.snapshot());
+	}
+	
+	/**
+	 * Test snapshot into a caller owned array and view.
+	 */
+	@Test
+	public void testSnapshotInto() {
+		double[] dest = new double[6];
+		buf.addAll(5, 6);
+
+		assertEquals(5, buf.snapshot(dest));
+		double[] expected = {2, 3, 4, 5, 6};
+		confirm(expected, dest);
+
+		WindowView view = buf.createView().refresh();
+		assertEquals(5, view.length());
+		assertEquals(2, view.get(0), 0);
+		assertEquals(6, view.get(4), 0);
+	}
+	
+	/**
+	 * Test time range snapshots, including blocks partially evicted and after
+	 * resize.
+	 */
+	@Test
+	public void testTimeRange() {
+		MovingWindowBuffer timed = new MovingWindowBuffer(8);
+		double[] dest = new double[8];
+
+		timed.addAll(new double[] {1, 2, 3}, 0, 3, 100);
+		timed.addAll(new double[] {4, 5, 6}, 0, 3, 200);
+		timed.addAll(new double[] {7, 8, 9}, 0, 3, 300);
+
+		assertEquals(3, timed.snapshot(200, 300, dest));
+		confirm(new double[] {4, 5, 6}, dest);
+
+		assertEquals(6, timed.snapshot(150, 301, dest));
+		confirm(new double[] {4, 5, 6, 7, 8, 9}, dest);
+
+		// 1 has been evicted
+		assertEquals(2, timed.snapshot(0, 200, dest));
+		confirm(new double[] {2, 3}, dest);
+
+		assertEquals(0, timed.snapshot(301, 1000, dest));
+
+		timed.resize(4);
+		assertEquals(4, timed.snapshot(200, 400, dest));
+		confirm(new double[] {6, 7, 8, 9}, dest);
+		
+		timed.clear();
+		assertEquals(0, timed.snapshot(0, 1000, dest));
+	}
+	
+	/**
+	 * Test time range snapshots of a window larger than
+	 * {@link MovingWindowBuffer#INDEX_ENTRIES}, indexing every 4th single
+	 * sample block and interpolating between them.
+	 */
+	@Test
+	public void testSparseTimeRange() {
+		MovingWindowBuffer timed = new MovingWindowBuffer(4096);
+		double[] dest = new double[4096];
+
+		double[] block = new double[1];
+		for (int i = 0; i < 5000; i++) {
+			block[0] = i;
+			timed.addAll(block, 0, 1, i * 10L);
+		}
+
+		assertEquals(999, timed.snapshot(20005, 30000, dest));
+		assertEquals(2001, dest[0], 0);
+		assertEquals(2999, dest[998], 0);
+
+		// 0 - 903 have been evicted
+		assertEquals(96, timed.snapshot(0, 10000, dest));
+		assertEquals(904, dest[0], 0);
+
+		assertEquals(1, timed.snapshot(49990, 60000, dest));
+		assertEquals(4999, dest[0], 0);
+	}
+
+	/**
+	 * Test incremental reads, including a read too small for the new samples
+	 * and samples missed.
+	 */
+	@Test
+	public void testReadSince() {
+		SequenceCursor cursor = new SequenceCursor();
+		double[] dest = new double[3];
+
+		assertEquals(4, buf.getSequence());
+		assertEquals(3, buf.readSince(cursor, dest));
+		confirm(new double[] {1, 2, 3}, dest);
+		assertEquals(1, buf.readSince(cursor, dest));
+		confirm(new double[] {4}, dest);
+		assertEquals(4, cursor.getSequence());
+		assertEquals(0, buf.readSince(cursor, dest));
+
+		buf.addAll(5, 6);
+		assertEquals(2, buf.readSince(cursor, dest));
+		confirm(new double[] {5, 6}, dest);
+
+		buf.addAll(7, 8, 9, 10, 11, 12, 13);
+		assertEquals(3, buf.readSince(cursor, dest));
+		confirm(new double[] {9, 10, 11}, dest);
+		assertEquals(2, cursor.getMissed());
+		assertEquals(11, cursor.getSequence());
+	}
+	
+	/**
+	 * Test that snapshots and reads taken while another thread adds consecutive
+	 * values are never torn.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final MovingWindowBuffer window = new MovingWindowBuffer(64);
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		Thread writer = new Thread() {
+			public void run() {
+				double[] block = new double[7];
+				double next = 0;
+				while (running.get()) {
+					for (int i = 0; i < block.length; i++) {
+						block[i] = ++next;
+					}
+					window.addAll(block);
+				}
+			}
+		};
+		writer.start();
+
+		try {
+			double[] snap = new double[64];
+			double[] read = new double[16];
+			SequenceCursor cursor = new SequenceCursor();
+
+			long end = System.currentTimeMillis() + 500;
+			while (System.currentTimeMillis() < end) {
+				window.snapshot(snap);
+				confirmConsecutive(snap, snap.length);
+
+				int n = window.readSince(cursor, read);
+				confirmConsecutive(read, n);
+				if (n > 0) assertEquals(cursor.getSequence(), read[n - 1], 0);
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	/*
+	 * Values are consecutive, any trailing values of a window not yet full 0.
+	 */
+	private void confirmConsecutive(double[] values, int length) {
+		for (int i = 1; i < length; i++) {
+			if (values[i - 1] == 0) {
+				assertEquals(0, values[i], 0);
+			} else if (values[i] != 0) {
+				assertEquals(values[i - 1] + 1, values[i], 0);
+			}
+		}
+	}
+
 	private void confirm(double[] expected, double[] snap) {
 		for(int i = 0; i < expected.length; i++) {
 			assertEquals(expected[i], snap[i], 0);
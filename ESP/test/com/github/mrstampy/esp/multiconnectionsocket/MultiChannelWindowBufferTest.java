@@ -0,0 +1,169 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Frames of 3 channels, channel c of frame f having the value f * 10 + c.
+ */
+public class MultiChannelWindowBufferTest {
+
+	private MultiChannelWindowBuffer buf;
+
+	/**
+	 * Before.
+	 */
+	@Before
+	public void before() {
+		buf = new MultiChannelWindowBuffer(3, 4);
+
+		buf.addFrame(0, 1, 2);
+		buf.addFrames(new double[] { -1, 10, 11, 12, 20, 21, 22, 30, 31, 32, 40, 41, 42 }, 1, 4);
+	}
+
+	/**
+	 * Test per channel and all channel snapshots.
+	 */
+	@Test
+	public void testSnapshot() {
+		double[][] all = buf.snapshot();
+
+		assertArrayEquals(new double[] { 10, 20, 30, 40 }, all[0], 0);
+		assertArrayEquals(new double[] { 12, 22, 32, 42 }, all[2], 0);
+
+		double[] one = new double[4];
+		assertEquals(4, buf.snapshot(1, one));
+		assertArrayEquals(new double[] { 11, 21, 31, 41 }, one, 0);
+
+		double[] flat = new double[12];
+		assertEquals(4, buf.snapshotChannelMajor(flat));
+		assertArrayEquals(new double[] { 10, 20, 30, 40, 11, 21, 31, 41, 12, 22, 32, 42 }, flat, 0);
+	}
+
+	/**
+	 * Test resize.
+	 */
+	@Test
+	public void testResize() {
+		buf.resize(6);
+
+		double[][] all = buf.snapshot();
+		assertArrayEquals(new double[] { 10, 20, 30, 40, 0, 0 }, all[0], 0);
+
+		buf.addFrame(50, 51, 52);
+		buf.resize(2);
+
+		all = buf.snapshot();
+		assertArrayEquals(new double[] { 40, 50 }, all[0], 0);
+		assertArrayEquals(new double[] { 42, 52 }, all[2], 0);
+	}
+
+	/**
+	 * Test that snapshots taken while another thread adds frames are never torn,
+	 * each snapshot's frames being consecutive and channel aligned.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testConcurrentSnapshots() throws Exception {
+		final MultiChannelWindowBuffer window = new MultiChannelWindowBuffer(3, 32);
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		Thread writer = new Thread() {
+			public void run() {
+				double[] frames = new double[3 * 5];
+				int f = 0;
+				while (running.get()) {
+					for (int i = 0; i < 5; i++) {
+						f++;
+						for (int c = 0; c < 3; c++) {
+							frames[i * 3 + c] = f * 10 + c;
+						}
+					}
+					window.addFrames(frames, 0, 5);
+				}
+			}
+		};
+		writer.start();
+
+		try {
+			double[][] dest = new double[3][32];
+
+			long end = System.currentTimeMillis() + 500;
+			while (System.currentTimeMillis() < end) {
+				window.snapshot(dest);
+
+				for (int i = 0; i < 32; i++) {
+					if (dest[0][i] == 0) continue;
+					for (int c = 1; c < 3; c++) {
+						assertEquals(dest[0][i] + c, dest[c][i], 0);
+					}
+					if (i > 0 && dest[0][i - 1] != 0) assertEquals(dest[0][i - 1] + 10, dest[0][i], 0);
+				}
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	/**
+	 * A trailing partial frame is carried into the next ingest.
+	 */
+	@Test
+	public void testPartialFrames() {
+		TestBuffer buffer = new TestBuffer();
+		MessageEvent<double[]> event = new MessageEvent<double[]>();
+
+		ingest(buffer, event, 0, 1, 2, 10);
+		ingest(buffer, event, 11);
+		ingest(buffer, event, 12, 20, 21, 22, 30);
+		ingest(buffer, event, 31, 32);
+
+		double[][] all = buffer.getCurrent();
+		assertArrayEquals(new double[] { 0, 10, 20, 30 }, all[0], 0);
+		assertArrayEquals(new double[] { 1, 11, 21, 31 }, all[1], 0);
+		assertArrayEquals(new double[] { 2, 12, 22, 32 }, all[2], 0);
+	}
+
+	private void ingest(TestBuffer buffer, MessageEvent<double[]> event, double... samples) {
+		event.setMessage(samples);
+		event.setTimestampNanos(System.nanoTime());
+		buffer.ingest(event);
+	}
+
+	private static class TestBuffer extends MultiChannelSampleBuffer<double[]> {
+
+		TestBuffer() {
+			super(3, 4);
+		}
+
+		@Override
+		public void addSample(double[] sample) {
+			addFrameImpl(sample);
+		}
+	}
+}
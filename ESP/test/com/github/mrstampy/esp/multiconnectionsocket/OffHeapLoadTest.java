@@ -0,0 +1,100 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares garbage collection counts and times for long history
+ * {@link MovingWindowBuffer}s on and off heap, under an allocating workload
+ * typical of the processing which accompanies sample ingest.
+ */
+public class OffHeapLoadTest {
+
+	private static final int NUM_CHANNELS = 16;
+
+	/** 5 minutes at 1 kHz. */
+	private static final int HISTORY = 300000;
+
+	private static final int NUM_PACKETS = 200000;
+
+	/**
+	 * Test gc.
+	 */
+	@Test
+	public void testGC() {
+		run("Heap", false);
+		run("Off heap", true);
+
+		assertEquals(0, OffHeapMovingWindowBuffer.getTotalBytes());
+	}
+
+	private void run(String name, boolean offHeap) {
+		System.gc();
+
+		long[] before = gcStats();
+		long start = System.nanoTime();
+
+		MovingWindowBuffer[] buffers = new MovingWindowBuffer[NUM_CHANNELS];
+		for (int i = 0; i < NUM_CHANNELS; i++) {
+			buffers[i] = offHeap ? new OffHeapMovingWindowBuffer(HISTORY) : new MovingWindowBuffer(HISTORY);
+		}
+
+		double[] packet = new double[5];
+		double[] window = new double[HISTORY];
+		Object[] garbage = new Object[64];
+		for (int i = 0; i < NUM_PACKETS; i++) {
+			packet[0] = i;
+			for (int j = 0; j < NUM_CHANNELS; j++) {
+				buffers[j].addAll(packet);
+			}
+
+			// short lived allocations, eg. events, fft results
+			garbage[i % garbage.length] = new double[256];
+
+			if (i % 20000 == 0) buffers[0].snapshot(window);
+		}
+
+		long[] after = gcStats();
+		System.out.println(name + ": " + (after[0] - before[0]) + " collections, " + (after[1] - before[1]) + " ms, "
+				+ ((System.nanoTime() - start) / 1000000) + " ms elapsed");
+
+		if (offHeap) {
+			for (MovingWindowBuffer buffer : buffers) {
+				((OffHeapMovingWindowBuffer) buffer).dispose();
+			}
+		}
+	}
+
+	private long[] gcStats() {
+		long count = 0;
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+			time += Math.max(0, gc.getCollectionTime());
+		}
+
+		return new long[] { count, time };
+	}
+}
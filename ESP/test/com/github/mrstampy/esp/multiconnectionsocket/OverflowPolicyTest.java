@@ -0,0 +1,151 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.OverflowPolicy;
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.WaitStrategyType;
+import com.lmax.disruptor.dsl.ProducerType;
+
+/**
+ * Tests the {@link OverflowPolicy}s of
+ * {@link AbstractMultiConnectionSocket#tryPublishMessage(Object)} on a 4 slot
+ * ring buffer whose consumer is paused on the first message.
+ */
+public class OverflowPolicyTest {
+
+	private TestMultiConnectionSocket socket;
+
+	/**
+	 * After.
+	 */
+	@After
+	public void after() {
+		if (socket != null && socket.isConnected()) socket.stop();
+	}
+
+	/**
+	 * Test drop newest.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testDropNewest() throws Exception {
+		fill(OverflowPolicy.DROP_NEWEST);
+
+		for (int i = 4; i < 10; i++) {
+			assertFalse(socket.tryPublishMessage(i));
+		}
+
+		socket.resume();
+		socket.await(4);
+
+		assertEquals(Arrays.asList(0, 1, 2, 3), socket.parsed);
+		assertEquals(6, socket.getDroppedCount());
+	}
+
+	/**
+	 * Test drop oldest, each message which does not fit dropping exactly one of
+	 * the oldest without blocking.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testDropOldest() throws Exception {
+		fill(OverflowPolicy.DROP_OLDEST);
+
+		long start = System.nanoTime();
+		assertFalse(socket.tryPublishMessage(4));
+		assertFalse(socket.tryPublishMessage(5));
+		assertTrue(System.nanoTime() - start < 50000000);
+
+		socket.resume();
+		socket.await(4);
+
+		assertEquals(Arrays.asList(0, 3, 4, 5), socket.parsed);
+		assertEquals(2, socket.getDroppedCount());
+	}
+
+	/**
+	 * Test coalesce.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testCoalesce() throws Exception {
+		fill(OverflowPolicy.COALESCE);
+
+		for (int i = 4; i < 7; i++) {
+			assertFalse(socket.tryPublishMessage(i));
+		}
+
+		socket.resume();
+		socket.await(4);
+
+		assertTrue(socket.tryPublishMessage(7));
+		socket.await(6);
+
+		assertEquals(Arrays.asList(0, 1, 2, 3, 6, 7), socket.parsed);
+		assertEquals(2, socket.getCoalescedCount());
+		assertEquals(0, socket.getDroppedCount());
+	}
+
+	/**
+	 * Test that a coalesced message is published after the device goes quiet.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testCoalesceTrailing() throws Exception {
+		fill(OverflowPolicy.COALESCE);
+
+		assertFalse(socket.tryPublishMessage(4));
+		assertFalse(socket.tryPublishMessage(5));
+
+		socket.resume();
+		socket.await(5);
+
+		assertEquals(Arrays.asList(0, 1, 2, 3, 5), socket.parsed);
+		assertEquals(1, socket.getCoalescedCount());
+	}
+
+	private void fill(OverflowPolicy policy) throws Exception {
+		IngestConfiguration config = new IngestConfiguration(4, ProducerType.SINGLE, WaitStrategyType.BLOCKING,
+				"Overflow Test");
+		config.setOverflowPolicy(policy);
+
+		socket = new TestMultiConnectionSocket(config);
+		socket.recording = true;
+		socket.pause();
+		socket.start();
+
+		assertTrue(socket.tryPublishMessage(0));
+		socket.awaitEntered(1);
+
+		for (int i = 1; i < 4; i++) {
+			assertTrue(socket.tryPublishMessage(i));
+		}
+	}
+}
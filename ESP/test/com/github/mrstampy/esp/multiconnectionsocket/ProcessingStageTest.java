@@ -0,0 +1,131 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.OverflowPolicy;
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.WaitStrategyType;
+import com.lmax.disruptor.dsl.ProducerType;
+
+/**
+ * Tests that {@link AbstractProcessingStage}s run in parallel with each other
+ * and skip messages dropped by the {@link OverflowPolicy}.
+ */
+public class ProcessingStageTest {
+
+	private TestMultiConnectionSocket socket;
+
+	/**
+	 * After.
+	 */
+	@After
+	public void after() {
+		if (socket != null && socket.isConnected()) socket.stop();
+	}
+
+	/**
+	 * Each stage waits for the other to be processing the same message, which
+	 * would time out were the stages run sequentially.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testParallel() throws Exception {
+		socket = new TestMultiConnectionSocket(new IngestConfiguration(4, ProducerType.SINGLE, WaitStrategyType.BLOCKING,
+				"Stage Test"));
+
+		final CountDownLatch entered = new CountDownLatch(2);
+		final List<Boolean> together = new CopyOnWriteArrayList<Boolean>();
+		for (int i = 0; i < 2; i++) {
+			socket.addProcessingStage(new AbstractProcessingStage<Integer>() {
+
+				@Override
+				protected void process(MessageEvent<Integer> event, boolean endOfBatch) throws Exception {
+					entered.countDown();
+					together.add(entered.await(5, TimeUnit.SECONDS));
+				}
+			});
+		}
+
+		socket.start();
+		socket.publishMessage(1);
+
+		await(together, 2);
+		assertEquals(Arrays.asList(true, true), together);
+	}
+
+	/**
+	 * Messages dropped by {@link OverflowPolicy#DROP_OLDEST} are not passed to
+	 * the stages.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testDroppedSkipped() throws Exception {
+		IngestConfiguration config = new IngestConfiguration(4, ProducerType.SINGLE, WaitStrategyType.BLOCKING,
+				"Stage Test");
+		config.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+
+		socket = new TestMultiConnectionSocket(config);
+
+		final List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+		socket.addProcessingStage(new AbstractProcessingStage<Integer>() {
+
+			@Override
+			protected void process(MessageEvent<Integer> event, boolean endOfBatch) throws Exception {
+				processed.add(event.getMessage());
+			}
+		});
+
+		socket.pause();
+		socket.start();
+
+		assertTrue(socket.tryPublishMessage(0));
+		socket.awaitEntered(1);
+		for (int i = 1; i < 4; i++) {
+			assertTrue(socket.tryPublishMessage(i));
+		}
+
+		assertFalse(socket.tryPublishMessage(4));
+		assertFalse(socket.tryPublishMessage(5));
+
+		socket.resume();
+		await(processed, 4);
+
+		assertEquals(Arrays.asList(0, 3, 4, 5), processed);
+		assertEquals(2, socket.getDroppedCount());
+	}
+
+	private void await(List<?> list, int size) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (list.size() < size && System.currentTimeMillis() < timeout) {
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javolution.util.FastList;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.IngestConfiguration.WaitStrategyType;
+import com.lmax.disruptor.dsl.ProducerType;
+
+/**
+ * Publishes primitive samples through a 4 slot ring buffer whose slots hold up
+ * to 8 samples, recording a copy of each event's samples on receipt.
+ */
+public class SamplePublishTest {
+
+	static final int RING_SIZE = 4;
+	static final int SAMPLE_CAPACITY = 8;
+
+	/**
+	 * A copy of the samples of a received event.
+	 */
+	static class Received {
+		final int channel;
+		final double[] samples;
+		final long timestampNanos;
+
+		Received(MessageEvent<Integer> event) {
+			channel = event.getChannel();
+			samples = Arrays.copyOf(event.getSamples(), event.getLength());
+			timestampNanos = event.getTimestampNanos();
+		}
+	}
+
+	/**
+	 * Records the samples received and the identity of the slot arrays holding
+	 * them.
+	 */
+	static class SampleSocket extends TestMultiConnectionSocket {
+
+		final List<Received> received = new FastList<Received>();
+
+		final Map<double[], Boolean> slots = new IdentityHashMap<double[], Boolean>();
+
+		SampleSocket(int sampleCapacity) throws Exception {
+			super(createConfiguration(sampleCapacity));
+		}
+
+		@Override
+		protected void parseSamples(MessageEvent<Integer> event) {
+			received.add(new Received(event));
+			slots.put(event.getSamples(), Boolean.TRUE);
+			count.incrementAndGet();
+		}
+	}
+
+	private SampleSocket socket;
+
+	/**
+	 * After.
+	 */
+	@After
+	public void after() {
+		if (socket != null && socket.isConnected()) socket.stop();
+	}
+
+	/**
+	 * Samples are copied into the slot's preallocated array, the source array
+	 * reusable on return, and the slot arrays reused as the ring wraps.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testPublishSamples() throws Exception {
+		socket = start(SAMPLE_CAPACITY);
+
+		double[] src = new double[SAMPLE_CAPACITY + 2];
+		for (int i = 0; i < 20; i++) {
+			int len = 1 + i % SAMPLE_CAPACITY;
+			Arrays.fill(src, i);
+			socket.publishSamples(i % 3, src, 2, len, i * 1000L);
+			Arrays.fill(src, -1);
+		}
+
+		socket.await(20);
+
+		assertEquals(20, socket.received.size());
+		for (int i = 0; i < 20; i++) {
+			Received r = socket.received.get(i);
+
+			double[] expected = new double[1 + i % SAMPLE_CAPACITY];
+			Arrays.fill(expected, i);
+
+			assertEquals(i % 3, r.channel);
+			assertArrayEquals(expected, r.samples, 0);
+			assertEquals(i * 1000L, r.timestampNanos);
+		}
+
+		assertTrue(socket.slots.size() <= RING_SIZE);
+	}
+
+	/**
+	 * Samples published without a channel are for channel 0, empty packets are
+	 * not published.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testNoChannel() throws Exception {
+		socket = start(SAMPLE_CAPACITY);
+
+		socket.publishSamples(new double[] { 1, 2 }, 0, 0, 1);
+		socket.publishSamples(new double[] { 1, 2 }, 0, 2, 2);
+		socket.await(1);
+
+		assertEquals(1, socket.received.size());
+		assertEquals(0, socket.received.get(0).channel);
+		assertEquals(2, socket.received.get(0).timestampNanos);
+	}
+
+	/**
+	 * Packets larger than the sample capacity are rejected, as are all packets
+	 * when primitive ingest is disabled.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testSampleCapacity() throws Exception {
+		socket = start(SAMPLE_CAPACITY);
+		assertRejected(SAMPLE_CAPACITY + 1);
+		socket.stop();
+
+		socket = start(0);
+		assertRejected(1);
+	}
+
+	private void assertRejected(int len) {
+		try {
+			socket.publishSamples(1, new double[len], 0, len, 0);
+			fail("Published " + len + " samples");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	static SampleSocket start(int sampleCapacity) throws Exception {
+		SampleSocket socket = new SampleSocket(sampleCapacity);
+		socket.start();
+
+		return socket;
+	}
+
+	static IngestConfiguration createConfiguration(int sampleCapacity) {
+		IngestConfiguration config = new IngestConfiguration(RING_SIZE, ProducerType.SINGLE, WaitStrategyType.BLOCKING,
+				"Sample Test");
+		config.setSampleCapacity(sampleCapacity);
+
+		return config;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Feeds jittery packet arrivals to the estimator and to a buffer's ingest.
+ */
+public class SampleRateEstimatorTest {
+
+	private static final long MS = 1000000L;
+
+	private Random random = new Random(42);
+
+	private long time = 1000 * MS;
+
+	/**
+	 * Test the estimate follows a change in rate.
+	 */
+	@Test
+	public void testEstimate() {
+		SampleRateEstimator estimator = new SampleRateEstimator();
+
+		assertFalse(feed(estimator, 10, 500, 20));
+		assertTrue(feed(estimator, 10, 500, 1000));
+		assertEquals(500, estimator.getRate(), 10);
+
+		// device pauses
+		time += 5000 * MS;
+		feed(estimator, 10, 500, 1);
+		assertEquals(500, estimator.getRate(), 10);
+
+		feed(estimator, 10, 250, 1000);
+		assertEquals(250, estimator.getRate(), 5);
+
+		// a genuine fall in rate
+		feed(estimator, 10, 25, 50);
+		assertEquals(25, estimator.getRate(), 10);
+	}
+
+	/**
+	 * Test the buffer resizes only past the threshold.
+	 */
+	@Test
+	public void testAutoSize() {
+		TestBuffer buffer = new TestBuffer(512);
+		MessageEvent<double[]> event = new MessageEvent<double[]>();
+		double[] packet = new double[8];
+
+		// opt in, the specified buffer size is kept by default
+		TestBuffer fixed = new TestBuffer(512);
+		assertFalse(fixed.isAutoSizing());
+		for (int i = 0; i < 1000; i++) {
+			ingest(fixed, event, packet, 1000);
+		}
+		assertEquals(512, fixed.getBufferSize());
+		assertEquals(1000, fixed.getSampleRate(), 100);
+
+		buffer.setAutoSizing(true);
+
+		// within 10% of 512
+		for (int i = 0; i < 1000; i++) {
+			ingest(buffer, event, packet, 500);
+		}
+		assertEquals(512, buffer.getBufferSize());
+
+		for (int i = 0; i < 1000; i++) {
+			ingest(buffer, event, packet, 1000);
+		}
+		assertEquals(1000, buffer.getBufferSize(), 100);
+		assertEquals(buffer.getBufferSize(), buffer.createView().refresh().length());
+	}
+
+	@Test
+	public void testTuning() {
+		TestBuffer buffer = new TestBuffer(512);
+		MessageEvent<double[]> event = new MessageEvent<double[]>();
+		double[] packet = new double[8];
+
+		buffer.tune();
+		for (int i = 0; i < 1000; i++) {
+			ingest(buffer, event, packet, 1000);
+		}
+		assertEquals(512, buffer.getBufferSize());
+
+		buffer.stopTuning();
+		assertFalse(buffer.isTuning());
+		assertEquals(1000, buffer.getBufferSize(), 100);
+	}
+
+	private void ingest(TestBuffer buffer, MessageEvent<double[]> event, double[] packet, int rate) {
+		time += nextInterval(packet.length, rate);
+		event.setMessage(packet);
+		event.setTimestampNanos(time);
+		buffer.ingest(event);
+	}
+
+	private boolean feed(SampleRateEstimator estimator, int packetSize, int rate, int packets) {
+		boolean warm = false;
+		for (int i = 0; i < packets; i++) {
+			time += nextInterval(packetSize, rate);
+			warm = estimator.update(time, packetSize);
+		}
+
+		return warm;
+	}
+
+	// +/- 30% jitter
+	private long nextInterval(int packetSize, int rate) {
+		long interval = packetSize * 1000 * MS / rate;
+
+		return (long) (interval * (0.7 + 0.6 * random.nextDouble()));
+	}
+
+	private static class TestBuffer extends RawDataSampleBuffer<double[]> {
+
+		TestBuffer(int bufferSize) {
+			super(bufferSize, bufferSize);
+		}
+
+		@Override
+		public void addSample(double[] sample) {
+			addSampleImpl(sample);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javolution.util.FastList;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.OutboundLimits.Policy;
+
+/**
+ * Writes 4 byte messages, their int value identifying them, to a
+ * {@link DummySession} whose writes are suspended so that they remain in
+ * flight until {@link SessionOutbound#sent(Object)} is invoked. The limits
+ * allow 2 messages in flight.
+ */
+public class SessionOutboundTest {
+
+	private enum Kind {
+		x, y
+	}
+
+	private static final HostPort HOST_PORT = new HostPort("127.0.0.1", 12345);
+
+	private DummySession session;
+	private List<Object> written;
+
+	/**
+	 * Before.
+	 */
+	@Before
+	public void before() {
+		written = new FastList<Object>();
+		session = SubscriptionHandlerAdapterTest.createSubscriber(written);
+		session.suspendWrite();
+	}
+
+	/**
+	 * Messages beyond the limits are held, the oldest dropped, and written as
+	 * those in flight are sent.
+	 */
+	@Test
+	public void testDropOldest() {
+		SessionOutbound outbound = create(Policy.DROP_OLDEST);
+
+		write(outbound, Kind.x, 0, 1, 2, 3, 4);
+		assertWritten(0, 1);
+		assertStats(outbound, 2, 2, 2, 1, 0);
+
+		outbound.sent(written.get(0));
+		assertWritten(0, 1, 3);
+		assertStats(outbound, 2, 1, 3, 1, 0);
+	}
+
+	/**
+	 * Messages beyond the limits are dropped.
+	 */
+	@Test
+	public void testDropNewest() {
+		SessionOutbound outbound = create(Policy.DROP_NEWEST);
+
+		write(outbound, Kind.x, 0, 1, 2, 3);
+		assertWritten(0, 1);
+		assertStats(outbound, 2, 0, 2, 2, 0);
+
+		outbound.sent(written.get(1));
+		write(outbound, Kind.x, 4);
+		assertWritten(0, 1, 4);
+		assertStats(outbound, 2, 0, 3, 2, 0);
+	}
+
+	/**
+	 * Only the latest held message of each type is written.
+	 */
+	@Test
+	public void testConflate() {
+		SessionOutbound outbound = create(Policy.CONFLATE);
+
+		write(outbound, Kind.x, 0, 1, 2);
+		write(outbound, Kind.y, 3);
+		write(outbound, Kind.x, 4);
+		assertWritten(0, 1);
+		assertStats(outbound, 2, 2, 2, 0, 1);
+
+		outbound.sent(written.get(0));
+		outbound.sent(written.get(1));
+		assertWritten(0, 1, 4, 3);
+		assertStats(outbound, 2, 0, 4, 0, 1);
+
+		// batches have no type and cannot be conflated
+		outbound.write(null, buffer(5));
+		assertStats(outbound, 2, 0, 4, 1, 1);
+	}
+
+	/**
+	 * The session is closed when the limits are exceeded.
+	 */
+	@Test
+	public void testDisconnect() {
+		SessionOutbound outbound = create(Policy.DISCONNECT);
+
+		write(outbound, Kind.x, 0, 1, 2);
+		assertTrue(session.isClosing());
+		assertStats(outbound, 2, 0, 2, 1, 0);
+
+		write(outbound, Kind.x, 3);
+		assertWritten(0, 1);
+	}
+
+	/**
+	 * Messages not written by the outbound, including equal buffers, do not
+	 * release capacity.
+	 */
+	@Test
+	public void testForeignMessages() {
+		SessionOutbound outbound = create(Policy.DROP_NEWEST);
+
+		write(outbound, Kind.x, 0, 1);
+
+		outbound.sent(buffer(0));
+		outbound.sent("subscription");
+		assertStats(outbound, 2, 0, 2, 0, 0);
+
+		outbound.sent(written.get(1));
+		assertStats(outbound, 1, 0, 2, 0, 0);
+	}
+
+	/**
+	 * The stats report the bytes scheduled and held and the lag of the oldest
+	 * held message.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testStats() throws Exception {
+		SessionOutbound outbound = create(Policy.DROP_OLDEST);
+
+		write(outbound, Kind.x, 0, 1, 2);
+		Thread.sleep(2);
+
+		SubscriberStats stats = outbound.getStats(HOST_PORT);
+		assertEquals(HOST_PORT, stats.getHostPort());
+		assertEquals(8, stats.getScheduledBytes());
+		assertEquals(4, stats.getHeldBytes());
+		assertTrue(stats.getLagNanos() > 0);
+		assertTrue(stats.isLagging());
+
+		outbound.clear();
+		stats = outbound.getStats(HOST_PORT);
+		assertEquals(0, stats.getHeldMessages());
+		assertEquals(0, stats.getLagNanos());
+	}
+
+	private SessionOutbound create(Policy policy) {
+		return new SessionOutbound(session, new OutboundLimits(2, OutboundLimits.DEFAULT_MAX_BYTES, policy));
+	}
+
+	private void write(SessionOutbound outbound, Kind kind, int... values) {
+		for (int value : values) {
+			outbound.write(kind, buffer(value));
+		}
+	}
+
+	private IoBuffer buffer(int value) {
+		return IoBuffer.allocate(4).putInt(value).flip();
+	}
+
+	private void assertWritten(int... values) {
+		assertEquals(values.length, written.size());
+
+		for (int i = 0; i < values.length; i++) {
+			IoBuffer buf = (IoBuffer) written.get(i);
+			assertEquals(values[i], buf.getInt(buf.position()));
+		}
+	}
+
+	private void assertStats(SessionOutbound outbound, int scheduled, int held, long writes, long dropped,
+			long conflated) {
+		SubscriberStats stats = outbound.getStats(HOST_PORT);
+
+		assertEquals(scheduled, stats.getScheduledMessages());
+		assertEquals(held, stats.getHeldMessages());
+		assertEquals(writes, stats.getWritten());
+		assertEquals(dropped, stats.getDropped());
+		assertEquals(conflated, stats.getConflated());
+	}
+}
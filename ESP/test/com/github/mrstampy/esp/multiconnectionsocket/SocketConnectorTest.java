@@ -0,0 +1,172 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestHandler;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestType;
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+
+/**
+ * A {@link TestSocketConnector} connected to a broadcasting
+ * {@link TestMultiConnectionSocket} on localhost, reconnecting after 50 ms
+ * with the delay doubling to a maximum of 200 ms.
+ */
+public class SocketConnectorTest {
+
+	private TestMultiConnectionSocket socket;
+	private TestHandler handler;
+
+	/**
+	 * Before.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Before
+	public void before() throws Exception {
+		socket = new TestMultiConnectionSocket(new IngestConfiguration(), true);
+		handler = socket.getHandler();
+	}
+
+	/**
+	 * After.
+	 */
+	@After
+	public void after() {
+		socket.unbindBroadcaster();
+	}
+
+	/**
+	 * Events are dispatched, reconnection attempted with backoff once the
+	 * session is lost and the subscription resent on reconnection.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testReconnect() throws Exception {
+		TestSocketConnector connector = createConnector();
+
+		try {
+			connector.connect();
+			connector.subscribeAll();
+			EventBatchTest.awaitSubscriber(handler);
+
+			send(10);
+			connector.await(10, 5000);
+			assertEquals(10, connector.count.get());
+
+			socket.unbindBroadcaster();
+
+			long end = System.currentTimeMillis() + 5000;
+			while (connector.reconnectDelays.size() < 3 && System.currentTimeMillis() < end) {
+				Thread.sleep(1);
+			}
+
+			assertFalse(connector.isConnected());
+			assertTrue(connector.reconnectDelays.size() >= 3);
+			assertEquals(100, connector.reconnectDelays.get(0).longValue());
+			assertEquals(200, connector.reconnectDelays.get(1).longValue());
+			assertEquals(200, connector.reconnectDelays.get(2).longValue());
+
+			socket.bindBroadcaster();
+			EventBatchTest.awaitSubscriber(handler);
+			assertTrue(connector.isConnected());
+
+			send(10);
+			connector.await(20, 5000);
+			assertEquals(20, connector.count.get());
+		} finally {
+			connector.disconnect();
+		}
+
+		assertFalse(connector.isConnected());
+	}
+
+	/**
+	 * Disconnecting from the dispatch thread, with the ring buffer full and the
+	 * receiving thread waiting, neither deadlocks nor processes further events.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testDisconnectFromDispatch() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch disconnected = new CountDownLatch(1);
+
+		TestSocketConnector connector = new TestSocketConnector(null) {
+
+			@Override
+			protected void processEvent(AbstractMultiConnectionEvent<TestType> message) {
+				super.processEvent(message);
+				if (count.get() > 1) return;
+
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+
+				disconnect();
+				disconnected.countDown();
+			}
+		};
+
+		try {
+			connector.connect();
+			connector.subscribeAll();
+			EventBatchTest.awaitSubscriber(handler);
+
+			// fills the ring of 1024 behind the first event
+			send(3000);
+			Thread.sleep(500);
+			release.countDown();
+
+			assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+			assertFalse(connector.isConnected());
+
+			Thread.sleep(100);
+			assertEquals(1, connector.count.get());
+		} finally {
+			connector.disconnect();
+		}
+	}
+
+	private TestSocketConnector createConnector() {
+		TestSocketConnector connector = new TestSocketConnector(null);
+		connector.setReconnectMillis(50, 200);
+
+		return connector;
+	}
+
+	private void send(int numEvents) {
+		for (int i = 0; i < numEvents; i++) {
+			handler.sendMultiConnectionEvent(new TestEvent());
+		}
+	}
+}
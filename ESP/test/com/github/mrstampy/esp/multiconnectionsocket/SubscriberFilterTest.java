@@ -0,0 +1,159 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.event.ChannelEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+
+/**
+ * Tests the channel subset, decimation and max rate filtering of subscriber
+ * events.
+ */
+public class SubscriberFilterTest {
+
+	private enum TestType {
+		raw, status;
+	}
+
+	private static class RawEvent extends AbstractMultiConnectionEvent<TestType> implements ChannelEvent {
+		private static final long serialVersionUID = 1L;
+
+		private final int channel;
+
+		RawEvent(int channel) {
+			super(TestType.raw);
+			this.channel = channel;
+		}
+
+		@Override
+		public int getChannelNumber() {
+			return channel;
+		}
+	}
+
+	private static class StatusEvent extends AbstractMultiConnectionEvent<TestType> {
+		private static final long serialVersionUID = 1L;
+
+		StatusEvent() {
+			super(TestType.status);
+		}
+	}
+
+	/**
+	 * Default options do not filter.
+	 */
+	@Test
+	public void testDefaults() {
+		assertNull(SubscriberFilter.create(null));
+		assertNull(SubscriberFilter.create(new SubscriptionOptions()));
+	}
+
+	/**
+	 * Only the subscribed channels of channel events are accepted.
+	 */
+	@Test
+	public void testChannels() {
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.setChannels(1, 3);
+
+		SubscriberFilter filter = SubscriberFilter.create(options);
+
+		assertFalse(filter.accept(new RawEvent(0)));
+		assertTrue(filter.accept(new RawEvent(1)));
+		assertFalse(filter.accept(new RawEvent(2)));
+		assertTrue(filter.accept(new RawEvent(3)));
+		assertTrue(filter.accept(new StatusEvent()));
+	}
+
+	/**
+	 * Channels outside the device's channels 1 - 4 are ignored rather than
+	 * thrown on or allocated for.
+	 */
+	@Test
+	public void testInvalidChannels() {
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.setChannels(-1, 0, 1, 4, 5, Integer.MAX_VALUE);
+
+		SubscriberFilter filter = SubscriberFilter.create(options, 4);
+
+		assertFalse(filter.accept(new RawEvent(0)));
+		assertTrue(filter.accept(new RawEvent(1)));
+		assertFalse(filter.accept(new RawEvent(2)));
+		assertTrue(filter.accept(new RawEvent(4)));
+		assertFalse(filter.accept(new RawEvent(5)));
+
+		options.setChannels(SubscriberFilter.MAX_CHANNELS, Integer.MAX_VALUE);
+		filter = SubscriberFilter.create(options, 0);
+		assertTrue(filter.accept(new RawEvent(SubscriberFilter.MAX_CHANNELS)));
+		assertFalse(filter.accept(new RawEvent(1)));
+	}
+
+	/**
+	 * Every nth event of each type and channel is accepted.
+	 */
+	@Test
+	public void testDecimation() {
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.setDecimation(4);
+
+		SubscriberFilter filter = SubscriberFilter.create(options);
+
+		int ch1 = 0;
+		int ch2 = 0;
+		int status = 0;
+		for (int i = 0; i < 100; i++) {
+			if (filter.accept(new RawEvent(1))) ch1++;
+			if (filter.accept(new RawEvent(2))) ch2++;
+			if (filter.accept(new StatusEvent())) status++;
+		}
+
+		assertEquals(25, ch1);
+		assertEquals(25, ch2);
+		assertEquals(25, status);
+	}
+
+	/**
+	 * Events arriving sooner than the max rate allows are discarded.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMaxRate() throws Exception {
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.setMaxRate(10);
+
+		SubscriberFilter filter = SubscriberFilter.create(options);
+
+		assertTrue(filter.accept(new RawEvent(1)));
+		assertFalse(filter.accept(new RawEvent(1)));
+		assertTrue(filter.accept(new RawEvent(2)));
+
+		Thread.sleep(110);
+
+		assertTrue(filter.accept(new RawEvent(1)));
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import javolution.util.FastList;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.codec.EventCodec;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.OptionedSubscriptionRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+
+/**
+ * Sends events to a {@link DummySession} subscriber, capturing the buffers
+ * written to it.
+ */
+public class SubscriptionHandlerAdapterTest {
+
+	enum TestType {
+		one
+	}
+
+	static class TestEvent extends AbstractMultiConnectionEvent<TestType> {
+		private static final long serialVersionUID = 1L;
+
+		TestEvent() {
+			super(TestType.one);
+		}
+
+		TestEvent(long createTimestamp, long nanoTime) {
+			super(TestType.one, createTimestamp, nanoTime);
+		}
+	}
+
+	static class TestEventCodec extends EventCodec<TestType, TestEvent> {
+
+		@Override
+		public void encode(TestEvent event, IoBuffer out) {
+		}
+
+		@Override
+		public TestEvent decode(TestType type, long createTimestamp, long nanoTime, IoBuffer in) {
+			return new TestEvent(createTimestamp, nanoTime);
+		}
+	}
+
+	static class TestRequest implements OptionedSubscriptionRequest<TestType> {
+		private static final long serialVersionUID = 1L;
+
+		private final SubscriptionOptions options;
+
+		TestRequest() {
+			this(null);
+		}
+
+		TestRequest(SubscriptionOptions options) {
+			this.options = options;
+		}
+
+		@Override
+		public SubscriptionOptions getOptions() {
+			return options;
+		}
+
+		@Override
+		public TestType[] getEventTypes() {
+			return new TestType[] { TestType.one };
+		}
+
+		@Override
+		public boolean containsEventType(TestType eventType) {
+			return eventType == TestType.one;
+		}
+	}
+
+	static class TestHandler extends AbstractSubscriptionHandlerAdapter<TestType, TestMultiConnectionSocket, TestRequest> {
+
+		volatile IoSession failFor;
+
+		TestHandler(TestMultiConnectionSocket socket) {
+			super(socket);
+		}
+
+		@Override
+		public void messageReceived(IoSession session, Object message) throws Exception {
+			if (message instanceof TestRequest) subscribe(session, (TestRequest) message);
+		}
+
+		@Override
+		protected Object encode(IoSession session, Object message) {
+			return session == failFor ? null : super.encode(session, message);
+		}
+	}
+
+	/**
+	 * Writes a 4 byte buffer followed by a second 4 byte buffer, flushing in
+	 * between.
+	 */
+	private static class TwoPartFactory implements ProtocolCodecFactory {
+
+		private volatile WriteFuture flushed;
+
+		@Override
+		public ProtocolEncoder getEncoder(IoSession session) throws Exception {
+			return new ProtocolEncoderAdapter() {
+
+				@Override
+				public void encode(IoSession session, Object message, ProtocolEncoderOutput out) throws Exception {
+					out.write(IoBuffer.allocate(4).putInt(1).flip());
+					flushed = out.flush();
+					out.write(IoBuffer.allocate(4).putInt(2).flip());
+				}
+			};
+		}
+
+		@Override
+		public ProtocolDecoder getDecoder(IoSession session) throws Exception {
+			return null;
+		}
+	}
+
+	private TwoPartFactory factory;
+	private TestHandler handler;
+	private DummySession subscriber;
+	private List<Object> written;
+
+	/**
+	 * Before.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Before
+	public void before() throws Exception {
+		factory = new TwoPartFactory();
+		handler = new TestHandler(createSocket(factory));
+		written = new FastList<Object>();
+		subscriber = createSubscriber(written);
+
+		handler.messageReceived(subscriber, new TestRequest());
+	}
+
+	/**
+	 * The encoder's writes are merged into one buffer and its flush completes.
+	 */
+	@Test
+	public void testMergedOutput() {
+		handler.sendMultiConnectionEvent(new TestEvent());
+
+		assertEquals(1, written.size());
+
+		IoBuffer buf = (IoBuffer) written.get(0);
+		assertEquals(8, buf.remaining());
+		assertEquals(1, buf.getInt());
+		assertEquals(2, buf.getInt());
+
+		assertTrue(factory.flushed.isWritten());
+	}
+
+	/**
+	 * Transports receive events which could not be encoded for the subscribers.
+	 */
+	@Test
+	public void testEncodeFailureStillTransports() {
+		final List<IoBuffer> sent = new FastList<IoBuffer>();
+		handler.addTransport(new EventTransport() {
+
+			@Override
+			public boolean isStarted() {
+				return true;
+			}
+
+			@Override
+			public void send(IoBuffer encoded) {
+				sent.add(encoded);
+			}
+		});
+
+		handler.failFor = subscriber;
+		handler.sendMultiConnectionEvent(new TestEvent());
+		assertEquals(0, written.size());
+		assertEquals(1, sent.size());
+		assertEquals(8, sent.get(0).remaining());
+	}
+
+	static TestMultiConnectionSocket createSocket(final ProtocolCodecFactory factory) throws IOException {
+		return new TestMultiConnectionSocket(new IngestConfiguration()) {
+
+			@Override
+			public ProtocolCodecFactory getCodecFactory() {
+				return factory;
+			}
+		};
+	}
+
+	static DummySession createSubscriber(final List<Object> written) {
+		DummySession session = new DummySession();
+		session.setRemoteAddress(new InetSocketAddress("127.0.0.1", 12345));
+		session.getFilterChain().addLast("capture", new IoFilterAdapter() {
+
+			@Override
+			public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+				written.add(writeRequest.getMessage());
+				nextFilter.filterWrite(session, writeRequest);
+			}
+		});
+
+		return session;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import javolution.util.FastList;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestHandler;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestType;
+
+/**
+ * Tests the copy on write subscription index of
+ * {@link AbstractSubscriptionHandlerAdapter}, with {@link DummySession}
+ * subscribers sharing the same remote address.
+ */
+public class SubscriptionIndexTest {
+
+	private TestHandler handler;
+	private List<Object> written;
+	private DummySession first;
+	private DummySession second;
+
+	/**
+	 * Before.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Before
+	public void before() throws Exception {
+		handler = new TestHandler(new TestMultiConnectionSocket(new IngestConfiguration()));
+		written = new FastList<Object>();
+		first = SubscriptionHandlerAdapterTest.createSubscriber(written);
+		second = SubscriptionHandlerAdapterTest.createSubscriber(written);
+	}
+
+	/**
+	 * Sessions are keyed by identity rather than remote address, and
+	 * resubscribing replaces rather than duplicates the subscription.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testSubscribe() throws Exception {
+		assertEquals(0, handler.getSubscribers(TestType.one).length);
+
+		handler.messageReceived(first, new TestRequest());
+		handler.messageReceived(second, new TestRequest());
+		handler.messageReceived(first, new TestRequest());
+
+		assertEquals(first.getRemoteAddress(), second.getRemoteAddress());
+		assertArrayEquals(new IoSession[] { first, second }, handler.getSubscribers(TestType.one));
+		assertEquals(2, handler.getSubscriberStats().size());
+
+		handler.sendMultiConnectionEvent(new TestEvent());
+		assertEquals(2, written.size());
+	}
+
+	/**
+	 * Subscriber arrays already obtained are unchanged by later subscription
+	 * changes.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testSnapshot() throws Exception {
+		handler.messageReceived(first, new TestRequest());
+
+		IoSession[] snapshot = handler.getSubscribers(TestType.one);
+		handler.messageReceived(second, new TestRequest());
+		handler.sessionClosed(first);
+
+		assertArrayEquals(new IoSession[] { first }, snapshot);
+		assertArrayEquals(new IoSession[] { second }, handler.getSubscribers(TestType.one));
+	}
+
+	/**
+	 * Unsubscribing and closing remove only the session concerned.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testRemoval() throws Exception {
+		handler.messageReceived(first, new TestRequest());
+		handler.messageReceived(second, new TestRequest());
+
+		handler.unsubscribe(first, new TestRequest());
+		assertArrayEquals(new IoSession[] { second }, handler.getSubscribers(TestType.one));
+
+		handler.unsubscribe(first, new TestRequest());
+		handler.sessionClosed(first);
+		assertArrayEquals(new IoSession[] { second }, handler.getSubscribers(TestType.one));
+
+		handler.sessionClosed(second);
+		assertEquals(0, handler.getSubscribers(TestType.one).length);
+
+		handler.sendMultiConnectionEvent(new TestEvent());
+		assertEquals(0, written.size());
+	}
+
+	/**
+	 * Subscribing and closing do not resolve the host name of the remote
+	 * address.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testNoHostNameLookup() throws Exception {
+		InetAddress address = InetAddress.getByAddress(new byte[] { 10, 1, 2, 3 });
+		first.setRemoteAddress(new InetSocketAddress(address, 12345));
+
+		handler.messageReceived(first, new TestRequest());
+		assertEquals("10.1.2.3", handler.createHostPort(first).getHost());
+		handler.sessionClosed(first);
+
+		assertTrue(address.toString(), address.toString().startsWith("/"));
+	}
+}
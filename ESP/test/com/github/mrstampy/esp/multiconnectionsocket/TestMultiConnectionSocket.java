@@ -0,0 +1,134 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javolution.util.FastList;
+
+import org.apache.mina.core.service.IoHandler;
+
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestHandler;
+
+/**
+ * {@link AbstractMultiConnectionSocket} for tests, counting the messages
+ * parsed. Parsing can be paused to fill the ring buffer. Broadcasting
+ * instances accept subscriptions with a
+ * {@link SubscriptionHandlerAdapterTest.TestHandler}.
+ */
+class TestMultiConnectionSocket extends AbstractMultiConnectionSocket<Integer> {
+
+	final AtomicLong count = new AtomicLong();
+
+	final List<Integer> parsed = new FastList<Integer>();
+
+	boolean recording;
+
+	volatile int entered;
+
+	private volatile CountDownLatch pause;
+
+	private volatile boolean connected;
+
+	// assigned by the super constructor when broadcasting
+	private TestHandler handler;
+
+	TestMultiConnectionSocket(IngestConfiguration configuration) throws IOException {
+		this(configuration, false);
+	}
+
+	TestMultiConnectionSocket(IngestConfiguration configuration, boolean broadcasting) throws IOException {
+		super(broadcasting, configuration);
+	}
+
+	TestHandler getHandler() {
+		return handler;
+	}
+
+	void pause() {
+		pause = new CountDownLatch(1);
+	}
+
+	void resume() {
+		pause.countDown();
+	}
+
+	void awaitEntered(int expected) throws InterruptedException {
+		while (entered < expected) {
+			Thread.sleep(1);
+		}
+	}
+
+	void await(long expected) throws InterruptedException {
+		while (count.get() < expected) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public List<EspChannel> getChannels() {
+		return null;
+	}
+
+	@Override
+	public EspChannel getChannel(int channelNumber) {
+		return null;
+	}
+
+	@Override
+	protected void startImpl() throws MultiConnectionSocketException {
+		connected = true;
+	}
+
+	@Override
+	protected void stopImpl() {
+		connected = false;
+	}
+
+	@Override
+	protected IoHandler getHandlerAdapter() {
+		if (handler == null && canBroadcast()) handler = new TestHandler(this);
+
+		return handler;
+	}
+
+	@Override
+	protected void parseMessage(Integer message) {
+		entered++;
+		CountDownLatch latch = pause;
+		if (latch != null) {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+			}
+		}
+
+		if (recording) parsed.add(message);
+		count.incrementAndGet();
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestRequest;
+import com.github.mrstampy.esp.multiconnectionsocket.SubscriptionHandlerAdapterTest.TestType;
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+import com.github.mrstampy.esp.multiconnectionsocket.subscription.SubscriptionOptions;
+
+/**
+ * {@link AbstractSocketConnector} for tests connecting to a broadcasting
+ * {@link TestMultiConnectionSocket} on localhost, counting the events
+ * processed and recording the delays after failed reconnection attempts.
+ */
+class TestSocketConnector extends AbstractSocketConnector<TestType> {
+
+	final AtomicLong count = new AtomicLong();
+
+	final List<Long> reconnectDelays = new CopyOnWriteArrayList<Long>();
+
+	private final ProtocolCodecFactory codecFactory;
+
+	TestSocketConnector(ProtocolCodecFactory codecFactory) {
+		super("localhost");
+		this.codecFactory = codecFactory;
+	}
+
+	boolean subscribe(SubscriptionOptions options) {
+		return subscribe(new TestRequest(options));
+	}
+
+	void await(long expected, long timeoutMillis) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMillis;
+		while (count.get() < expected && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Override
+	public boolean subscribeAll() {
+		return subscribe((SubscriptionOptions) null);
+	}
+
+	@Override
+	protected ProtocolCodecFactory createCodecFactory() {
+		return codecFactory == null ? super.createCodecFactory() : codecFactory;
+	}
+
+	@Override
+	protected void reconnectFailed(long nextMillis) {
+		reconnectDelays.add(nextMillis);
+	}
+
+	@Override
+	protected void processEvent(AbstractMultiConnectionEvent<TestType> message) {
+		count.incrementAndGet();
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Feeds an hour of a 250 Hz ramp in 10 sample packets and checks each tier.
+ */
+public class TieredHistoryTest {
+
+	private static final long MS = 1000000L;
+	private static final long SECOND = 1000 * MS;
+
+	private static final long START = 123456789L;
+
+	private TieredHistory history;
+
+	/**
+	 * Before.
+	 */
+	@Before
+	public void before() {
+		history = new TieredHistory(2500);
+
+		double[] packet = new double[10];
+		long value = 0;
+		for (long t = START + 40 * MS; t <= START + 3600 * SECOND; t += 40 * MS) {
+			for (int i = 0; i < packet.length; i++) {
+				packet[i] = value++;
+			}
+			history.addAll(packet, 0, packet.length, t);
+		}
+	}
+
+	/**
+	 * Test raw.
+	 */
+	@Test
+	public void testRaw() {
+		HistoryRange range = new HistoryRange(1000);
+
+		long end = START + 3600 * SECOND;
+		history.query(end - SECOND + 1, end + 1, range);
+
+		assertEquals(0, range.getResolutionNanos());
+		assertEquals(250, range.getLength());
+		for (int i = 1; i < range.getLength(); i++) {
+			assertEquals(range.getMin(i - 1) + 1, range.getMin(i), 0);
+			assertEquals(range.getTime(i - 1) + 4 * MS, range.getTime(i));
+		}
+		assertEquals(3600 * 250 - 1, range.getMax(range.getLength() - 1), 0);
+	}
+
+	/**
+	 * An hour's overview must come from the coarsest tier within the bound.
+	 */
+	@Test
+	public void testOverview() {
+		HistoryRange range = new HistoryRange(400);
+
+		history.query(START, START + 3600 * SECOND, range);
+
+		assertEquals(10 * SECOND, range.getResolutionNanos());
+		assertTrue(range.getLength() <= 400);
+		assertTrue(range.getLength() >= 360);
+
+		for (int i = 0; i < range.getLength(); i++) {
+			assertTrue(range.getMin(i) <= range.getMean(i));
+			assertTrue(range.getMean(i) <= range.getMax(i));
+		}
+	}
+
+	/**
+	 * Too few points for any tier merges adjacent blocks.
+	 */
+	@Test
+	public void testMerged() {
+		HistoryRange range = new HistoryRange(50);
+
+		history.query(START, START + 3600 * SECOND, range);
+
+		assertTrue(range.getLength() <= 50);
+		assertEquals(0, range.getMin(0), 0);
+		assertEquals(3600 * 250 - 1, range.getMax(range.getLength() - 1), 0);
+	}
+
+	/**
+	 * Test minutes.
+	 */
+	@Test
+	public void testMinutes() {
+		HistoryRange range = new HistoryRange(1000);
+
+		long end = START + 3600 * SECOND;
+		history.query(end - 60 * SECOND, end, range);
+
+		assertEquals(100 * MS, range.getResolutionNanos());
+		assertTrue(range.getLength() >= 600);
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
+import org.junit.Test;
+
+import com.github.mrstampy.esp.multiconnectionsocket.event.AbstractMultiConnectionEvent;
+
+/**
+ * Round trips events through the {@link BinaryEventCodecFactory} and compares
+ * its encoded size and encode/decode time against MINA's
+ * {@link ObjectSerializationCodecFactory}.
+ */
+public class CodecLoadTest {
+
+	private static final int NUM_SAMPLES = 512;
+	private static final int NUM_EVENTS = 20000;
+	private static final int WARMUP_EVENTS = 5000;
+
+	private enum TestType {
+		other, samples;
+	}
+
+	private static class SamplesEvent extends AbstractMultiConnectionEvent<TestType> {
+		private static final long serialVersionUID = 1L;
+
+		private final double[] samples;
+
+		SamplesEvent(double[] samples) {
+			super(TestType.samples);
+			this.samples = samples;
+		}
+
+		SamplesEvent(long createTimestamp, long nanoTime, double[] samples) {
+			super(TestType.samples, createTimestamp, nanoTime);
+			this.samples = samples;
+		}
+	}
+
+	private static class SamplesCodec extends EventCodec<TestType, SamplesEvent> {
+
+		@Override
+		public void encode(SamplesEvent event, IoBuffer out) {
+			putDoubles(event.samples, out);
+		}
+
+		@Override
+		public SamplesEvent decode(TestType type, long createTimestamp, long nanoTime, IoBuffer in) {
+			return new SamplesEvent(createTimestamp, nanoTime, getDoubles(in));
+		}
+	}
+
+	/**
+	 * Round trips an event and a non event message, the latter falling back to
+	 * serialization.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		ProtocolCodecFactory factory = createBinaryFactory();
+
+		SamplesEvent event = new SamplesEvent(createSamples());
+		SamplesEvent decoded = (SamplesEvent) roundTrip(factory, event);
+
+		assertEquals(TestType.samples, decoded.getEventType());
+		assertEquals(event.getCreateTimestamp(), decoded.getCreateTimestamp());
+		assertEquals(event.getNanoTime(), decoded.getNanoTime());
+		assertArrayEquals(event.samples, decoded.samples, 0);
+
+		assertEquals("subscribe", roundTrip(factory, "subscribe"));
+	}
+
+	/**
+	 * Array lengths exceeding the remaining bytes, or negative other than the
+	 * null marker, are rejected before allocation.
+	 */
+	@Test
+	public void testInvalidArrayLength() {
+		assertInvalid(Integer.MAX_VALUE);
+		assertInvalid(3);
+		assertInvalid(-2);
+
+		IoBuffer in = IoBuffer.allocate(12);
+		in.putInt(-1).putDouble(1).flip();
+		assertNull(EventCodec.getDoubles(in));
+
+		in = IoBuffer.allocate(12);
+		in.putInt(1).putDouble(1).flip();
+		assertArrayEquals(new double[] { 1 }, EventCodec.getDoubles(in), 0);
+	}
+
+	private void assertInvalid(int length) {
+		IoBuffer in = IoBuffer.allocate(20);
+		in.putInt(length).putDouble(1).putDouble(2).flip();
+
+		try {
+			EventCodec.getDoubles(in);
+			fail("Length " + length + " accepted");
+		} catch (BufferDataException expected) {
+		}
+	}
+
+	/**
+	 * Encodes and decodes {@link #NUM_EVENTS} events of {@link #NUM_SAMPLES}
+	 * samples with each codec.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCodecLoad() throws Exception {
+		SamplesEvent event = new SamplesEvent(createSamples());
+
+		ProtocolCodecFactory binary = createBinaryFactory();
+		ProtocolCodecFactory serialized = new ObjectSerializationCodecFactory();
+
+		run(binary, event, WARMUP_EVENTS);
+		run(serialized, event, WARMUP_EVENTS);
+
+		long b = run(binary, event, NUM_EVENTS);
+		long s = run(serialized, event, NUM_EVENTS);
+
+		System.out.println("Binary codec: " + encode(binary, event).remaining() + " bytes, " + (b / NUM_EVENTS)
+				+ " ns/event");
+		System.out.println("Serialization codec: " + encode(serialized, event).remaining() + " bytes, "
+				+ (s / NUM_EVENTS) + " ns/event");
+	}
+
+	private long run(ProtocolCodecFactory factory, Object message, int numEvents) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < numEvents; i++) {
+			roundTrip(factory, message);
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private Object roundTrip(ProtocolCodecFactory factory, Object message) throws Exception {
+		ProtocolCodecSession session = new ProtocolCodecSession();
+		ProtocolDecoder decoder = factory.getDecoder(session);
+
+		decoder.decode(session, encode(factory, message), session.getDecoderOutput());
+
+		return session.getDecoderOutputQueue().poll();
+	}
+
+	private IoBuffer encode(ProtocolCodecFactory factory, Object message) throws Exception {
+		ProtocolCodecSession session = new ProtocolCodecSession();
+		ProtocolEncoder encoder = factory.getEncoder(session);
+
+		encoder.encode(session, message, session.getEncoderOutput());
+
+		return (IoBuffer) session.getEncoderOutputQueue().poll();
+	}
+
+	private BinaryEventCodecFactory<TestType> createBinaryFactory() {
+		return new BinaryEventCodecFactory<TestType>(TestType.class).register(TestType.samples, new SamplesCodec());
+	}
+
+	private double[] createSamples() {
+		double[] samples = new double[NUM_SAMPLES];
+		for (int i = 0; i < NUM_SAMPLES; i++) {
+			samples[i] = Math.sin(i);
+		}
+
+		return samples;
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javolution.util.FastList;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Serialized integers written to a ring file of 1024 bytes, holding around 10
+ * records, and followed by a {@link RingFileReader} in the same JVM.
+ */
+public class RingFileTest {
+
+	private static final int CAPACITY = 1024;
+
+	private ProtocolCodecFactory factory = new ObjectSerializationCodecFactory();
+
+	private File file;
+	private RingFileWriter writer;
+	private RingFileReader reader;
+
+	private List<Integer> received = new FastList<Integer>();
+	private AtomicLong overruns = new AtomicLong();
+	private CountDownLatch stall;
+
+	/**
+	 * Before.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Before
+	public void before() throws Exception {
+		file = File.createTempFile("esp", ".ring");
+		file.deleteOnExit();
+
+		writer = new RingFileWriter(file, CAPACITY);
+		writer.start();
+
+		reader = new RingFileReader(file, factory, new RingFileListener() {
+
+			@Override
+			public void messageReceived(Object message) {
+				if (stall != null) await(stall);
+				synchronized (received) {
+					received.add((Integer) message);
+				}
+			}
+
+			@Override
+			public void overrun(long lostBytes) {
+				overruns.incrementAndGet();
+			}
+		});
+		reader.start();
+	}
+
+	/**
+	 * After.
+	 */
+	@After
+	public void after() {
+		reader.stop();
+		writer.stop();
+		file.delete();
+	}
+
+	/**
+	 * Records are read in order across many laps of the ring.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			send(i);
+			awaitReceived(i + 1);
+		}
+
+		assertEquals(200, received.size());
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i, received.get(i).intValue());
+		}
+
+		assertTrue(writer.getPublished() > CAPACITY * 10);
+		assertEquals(writer.getPublished(), reader.getCursor());
+		assertEquals(0, reader.getLostBytes());
+		assertEquals(0, overruns.get());
+	}
+
+	/**
+	 * A reader lapped by the writer reports the overrun and resumes at the latest
+	 * record, never passing on an overwritten record.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testLapped() throws Exception {
+		stall = new CountDownLatch(1);
+		send(0);
+		awaitRead(1);
+
+		for (int i = 1; i < 100; i++) {
+			send(i);
+		}
+
+		stall.countDown();
+		awaitOverrun();
+
+		send(100);
+		awaitLast(100);
+
+		assertTrue(reader.getLostBytes() > 0);
+		assertTrue(overruns.get() > 0);
+		assertTrue(received.size() < 20);
+		assertEquals(0, received.get(0).intValue());
+
+		for (int i = 1; i < received.size(); i++) {
+			assertTrue(received.get(i) > received.get(i - 1));
+		}
+
+		assertTrue(reader.isRunning());
+	}
+
+	/**
+	 * A record length beyond the reader's bounds is counted as an overrun and
+	 * the reader continues with the next record.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testInvalidLength() throws Exception {
+		send(0);
+		awaitReceived(1);
+
+		long published = writer.getPublished();
+		writer.stop();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, raf.length());
+			buffer.putInt(RingFile.HEADER_LENGTH + (int) published, CAPACITY / 2 + 64);
+			RingFile.setClaimed(buffer, published + 8);
+			RingFile.setPublished(buffer, published + 8);
+		} finally {
+			raf.close();
+		}
+
+		awaitOverrun();
+
+		writer.start();
+		send(1);
+		awaitLast(1);
+
+		assertEquals(2, received.size());
+		assertEquals(8, reader.getLostBytes());
+		assertEquals(1, overruns.get());
+		assertTrue(reader.isRunning());
+	}
+
+	private void send(int value) throws Exception {
+		ProtocolCodecSession session = new ProtocolCodecSession();
+		ProtocolEncoder encoder = factory.getEncoder(session);
+		encoder.encode(session, value, session.getEncoderOutput());
+
+		writer.send((IoBuffer) session.getEncoderOutputQueue().poll());
+	}
+
+	private void awaitRead(long records) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (reader.getReceived() < records && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+	}
+
+	private void awaitOverrun() throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (overruns.get() == 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+	}
+
+	private void awaitReceived(int size) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (size() < size && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+
+		assertEquals(size, size());
+	}
+
+	private void awaitLast(int value) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (last() != value && System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+
+		assertEquals(value, last());
+	}
+
+	private int size() {
+		synchronized (received) {
+			return received.size();
+		}
+	}
+
+	private int last() {
+		synchronized (received) {
+			return received.isEmpty() ? -1 : received.get(received.size() - 1);
+		}
+	}
+
+	private void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * ESP Copyright (C) 2013 - 2014 Burton Alexander
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+package com.github.mrstampy.esp.multiconnectionsocket.multicast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javolution.util.FastList;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Feeds crafted datagram headers to {@link MulticastReceiver#accept(IoBuffer)}.
+ */
+public class MulticastReceiverTest {
+
+	private static final long SENDER = 42;
+
+	private MulticastReceiver receiver;
+
+	private List<long[]> gaps = new FastList<long[]>();
+
+	/**
+	 * Before.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Before
+	public void before() throws Exception {
+		receiver = new MulticastReceiver(MulticastBroadcaster.MULTICAST_GROUP, MulticastBroadcaster.MULTICAST_PORT,
+				new ObjectSerializationCodecFactory(), new MulticastListener() {
+
+					@Override
+					public void messageReceived(Object message) {
+					}
+
+					@Override
+					public void gapDetected(long expected, long received) {
+						gaps.add(new long[] { expected, received });
+					}
+				});
+	}
+
+	/**
+	 * In sequence datagrams are accepted, the first from any sequence number.
+	 */
+	@Test
+	public void testInSequence() {
+		assertTrue(receiver.accept(datagram(SENDER, 10)));
+		assertTrue(receiver.accept(datagram(SENDER, 11)));
+		assertTrue(receiver.accept(datagram(SENDER, 12)));
+
+		assertCounts(3, 0, 0);
+		assertEquals(0, gaps.size());
+	}
+
+	/**
+	 * Gaps are reported and counted as missed.
+	 */
+	@Test
+	public void testGap() {
+		assertTrue(receiver.accept(datagram(SENDER, 0)));
+		assertTrue(receiver.accept(datagram(SENDER, 4)));
+
+		assertCounts(2, 3, 0);
+		assertEquals(1, gaps.size());
+		assertEquals(1, gaps.get(0)[0]);
+		assertEquals(4, gaps.get(0)[1]);
+
+		assertTrue(receiver.accept(datagram(SENDER, 5)));
+		assertEquals(1, gaps.size());
+	}
+
+	/**
+	 * Duplicate and out of order datagrams are discarded.
+	 */
+	@Test
+	public void testDuplicates() {
+		assertTrue(receiver.accept(datagram(SENDER, 0)));
+		assertTrue(receiver.accept(datagram(SENDER, 2)));
+		assertFalse(receiver.accept(datagram(SENDER, 2)));
+		assertFalse(receiver.accept(datagram(SENDER, 1)));
+		assertTrue(receiver.accept(datagram(SENDER, 3)));
+
+		assertCounts(3, 1, 2);
+	}
+
+	/**
+	 * A restarted sender, with a new id, is followed from its first datagram.
+	 */
+	@Test
+	public void testSenderRestart() {
+		assertTrue(receiver.accept(datagram(SENDER, 100)));
+		assertTrue(receiver.accept(datagram(SENDER + 1, 0)));
+		assertTrue(receiver.accept(datagram(SENDER + 1, 1)));
+
+		assertCounts(3, 0, 0);
+		assertEquals(0, gaps.size());
+	}
+
+	/**
+	 * Foreign and truncated datagrams are discarded.
+	 */
+	@Test
+	public void testForeign() {
+		IoBuffer foreign = IoBuffer.allocate(MulticastBroadcaster.HEADER_LENGTH);
+		foreign.putInt(0).putLong(SENDER).putLong(0).flip();
+		assertFalse(receiver.accept(foreign));
+
+		IoBuffer truncated = IoBuffer.allocate(8);
+		truncated.putInt(MulticastBroadcaster.MAGIC).putInt(0).flip();
+		assertFalse(receiver.accept(truncated));
+
+		assertCounts(0, 0, 2);
+	}
+
+	private IoBuffer datagram(long sender, long sequence) {
+		IoBuffer in = IoBuffer.allocate(MulticastBroadcaster.HEADER_LENGTH + 4);
+		in.putInt(MulticastBroadcaster.MAGIC).putLong(sender).putLong(sequence).putInt(0).flip();
+
+		return in;
+	}
+
+	private void assertCounts(long received, long missed, long discarded) {
+		assertEquals(received, receiver.getReceived());
+		assertEquals(missed, receiver.getMissed());
+		assertEquals(discarded, receiver.getDiscarded());
+	}
+}